@@ -0,0 +1,157 @@
+package com.oradian.infra.monohash
+
+import java.util.concurrent.TimeUnit
+
+import com.oradian.infra.monohash.util.Hex
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+/** Compares hex conversion in util.Hex against the previous nibble table lookups and a SWAR (long-at-a-time) variant,
+  * on an input resembling a large export - a million SHA-1 digests, converted one digest at a time */
+@State(Scope.Thread)
+class HexBench {
+  private[this] final val DigestCount = 1000000
+  private[this] final val DigestLength = 20
+
+  private[this] var binary: Array[Byte] = _
+  private[this] var hex: Array[Byte] = _
+
+  @Setup(Level.Trial)
+  def setup(): Unit = {
+    binary = new Array[Byte](DigestCount * DigestLength)
+    new scala.util.Random(0).nextBytes(binary)
+    hex = new Array[Byte](binary.length << 1)
+    Hex.toHex(binary, 0, binary.length, hex, 0)
+  }
+
+  private[this] def encode(bh: Blackhole)(f: (Array[Byte], Int, Int, Array[Byte], Int) => Unit): Unit = {
+    val dst = new Array[Byte](DigestLength << 1)
+    var offset = 0
+    while (offset < binary.length) {
+      f(binary, offset, DigestLength, dst, 0)
+      offset += DigestLength
+    }
+    bh.consume(dst)
+  }
+
+  private[this] def decode(bh: Blackhole)(f: (Array[Byte], Int, Int, Array[Byte], Int) => Unit): Unit = {
+    val dst = new Array[Byte](DigestLength)
+    var offset = 0
+    while (offset < hex.length) {
+      f(hex, offset, DigestLength << 1, dst, 0)
+      offset += DigestLength << 1
+    }
+    bh.consume(dst)
+  }
+
+  @Benchmark
+  @BenchmarkMode(Array(Mode.AverageTime))
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  def toHex(bh: Blackhole): Unit = encode(bh)(Hex.toHex)
+
+  @Benchmark
+  @BenchmarkMode(Array(Mode.AverageTime))
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  def toHexNibbles(bh: Blackhole): Unit = encode(bh)(HexBench.toHexNibbles)
+
+  @Benchmark
+  @BenchmarkMode(Array(Mode.AverageTime))
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  def toHexSwar(bh: Blackhole): Unit = encode(bh)(HexBench.toHexSwar)
+
+  @Benchmark
+  @BenchmarkMode(Array(Mode.AverageTime))
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  def fromHex(bh: Blackhole): Unit = decode(bh)(Hex.fromHex)
+
+  @Benchmark
+  @BenchmarkMode(Array(Mode.AverageTime))
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  def fromHexSwar(bh: Blackhole): Unit = decode(bh)(HexBench.fromHexSwar)
+}
+
+object HexBench {
+  private[this] val ToLcHex = "0123456789abcdef".getBytes("ISO-8859-1")
+
+  /** Nibble table lookups, as Hex.toHex looked before switching to the byte pair table */
+  def toHexNibbles(src: Array[Byte], srcOff: Int, srcLen: Int, dst: Array[Byte], dstOff: Int): Unit = {
+    var readIndex = srcOff
+    var writeIndex = dstOff
+    while (readIndex < srcOff + srcLen) {
+      val b = src(readIndex)
+      dst(writeIndex) = ToLcHex((b >>> 4) & 0xf)
+      dst(writeIndex + 1) = ToLcHex(b & 0xf)
+      readIndex += 1
+      writeIndex += 2
+    }
+  }
+
+  private[this] final val Ones = 0x0101010101010101L
+  private[this] final val HighBits = 0x8080808080808080L
+
+  private[this] def readLong(src: Array[Byte], offset: Int): Long = {
+    var result = 0L
+    var i = 0
+    while (i < 8) {
+      result = (result << 8) | (src(offset + i) & 0xffL)
+      i += 1
+    }
+    result
+  }
+
+  private[this] def writeLong(dst: Array[Byte], offset: Int, value: Long): Unit = {
+    var i = 0
+    while (i < 8) {
+      dst(offset + i) = (value >>> (56 - (i << 3))).toByte
+      i += 1
+    }
+  }
+
+  /** Spreads 4 bytes into 16-bit lanes of nibbles, and turns each nibble into ASCII without carrying across lanes */
+  def toHexSwar(src: Array[Byte], srcOff: Int, srcLen: Int, dst: Array[Byte], dstOff: Int): Unit = {
+    var readIndex = srcOff
+    var writeIndex = dstOff
+    val srcEnd = srcOff + srcLen
+    while (readIndex <= srcEnd - 4) {
+      var spread = ((src(readIndex) & 0xffL) << 24) | ((src(readIndex + 1) & 0xffL) << 16) |
+        ((src(readIndex + 2) & 0xffL) << 8) | (src(readIndex + 3) & 0xffL)
+      spread = (spread | (spread << 16)) & 0x0000ffff0000ffffL
+      spread = (spread | (spread << 8)) & 0x00ff00ff00ff00ffL
+      val nibbles = ((spread << 4) & 0x0f000f000f000f00L) | (spread & 0x000f000f000f000fL)
+      val letters = ((nibbles + 0x06 * Ones) >>> 4) & Ones
+      writeLong(dst, writeIndex, nibbles + '0' * Ones + letters * ('a' - '0' - 10))
+      readIndex += 4
+      writeIndex += 8
+    }
+    toHexNibbles(src, readIndex, srcEnd - readIndex, dst, writeIndex)
+  }
+
+  private[this] def inRange(chars: Long, low: Int, high: Int): Long =
+    (chars + (0x80 - low) * Ones) & ~(chars + (0x7f - high) * Ones) & HighBits
+
+  /** Validates and packs 8 hex characters at a time, deferring to Hex.fromHex for the remainder or invalid input */
+  def fromHexSwar(hex: Array[Byte], offset: Int, length: Int, dst: Array[Byte], dstOff: Int): Unit = {
+    var readIndex = offset
+    var writeIndex = dstOff
+    val dstEnd = dstOff + (length >>> 1)
+    var valid = true
+    while (valid && writeIndex <= dstEnd - 4) {
+      val chars = readLong(hex, readIndex)
+      val letters = inRange(chars, 'a', 'f')
+      valid = (chars & HighBits) == 0 && (inRange(chars, '0', '9') | letters) == HighBits
+      if (valid) {
+        val nibbles = (chars & 0x0f * Ones) + (letters >>> 7) * 9
+        var packed = ((nibbles >>> 4) & 0x00f000f000f000f0L) | (nibbles & 0x000f000f000f000fL)
+        packed = (packed | (packed >>> 8)) & 0x0000ffff0000ffffL
+        packed = packed | (packed >>> 16)
+        dst(writeIndex) = (packed >>> 24).toByte
+        dst(writeIndex + 1) = (packed >>> 16).toByte
+        dst(writeIndex + 2) = (packed >>> 8).toByte
+        dst(writeIndex + 3) = packed.toByte
+        readIndex += 8
+        writeIndex += 4
+      }
+    }
+    Hex.fromHex(hex, readIndex, (dstEnd - writeIndex) << 1, dst, writeIndex)
+  }
+}
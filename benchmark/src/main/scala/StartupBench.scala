@@ -0,0 +1,62 @@
+package com.oradian.infra.monohash
+
+import java.io.File
+import java.nio.file.{Files, Path}
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+
+/** Wall clock time of `java -jar monohash.jar` on a tiny hash plan, which is dominated by JVM and class loading
+  * startup - with and without a class data sharing archive recorded from a previous run (needs JDK 13 or newer).
+  * Run it in isolation via `sbt "loadLib; jmh:run -wi 3 -i 10 -f 1 StartupBench"` */
+@State(Scope.Benchmark)
+class StartupBench {
+  private[this] var workspace: Path = _
+  private[this] var java: String = _
+  private[this] var jar: String = _
+  private[this] var archive: File = _
+
+  private[this] def run(jvmOptions: String*): Unit = {
+    val command = (java +: jvmOptions) ++ Seq("-jar", jar, "-l", "off", workspace.toString)
+    val process = new ProcessBuilder(command: _*)
+      .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+      .redirectError(ProcessBuilder.Redirect.INHERIT)
+      .start()
+    val exitCode = process.waitFor()
+    if (exitCode != 0) {
+      sys.error(s"MonoHash exited with $exitCode: ${command.mkString(" ")}")
+    }
+  }
+
+  @Setup(Level.Trial)
+  def setup(): Unit = {
+    workspace = Files.createTempDirectory("monohash-startup-")
+    for (i <- 1 to 10) {
+      Files.write(workspace.resolve(s"file-$i.txt"), s"content $i\n".getBytes("UTF-8"))
+    }
+    java = new File(sys.props("java.home"), "bin/java").getPath
+    jar = new File(classOf[MonoHash].getProtectionDomain.getCodeSource.getLocation.toURI).getPath
+    archive = workspace.resolveSibling(workspace.getFileName + ".jsa").toFile
+    run("-XX:ArchiveClassesAtExit=" + archive.getPath, "-Xlog:cds=error")
+    if (!archive.isFile) {
+      sys.error("Could not record the class data sharing archive, this benchmark needs JDK 13 or newer")
+    }
+  }
+
+  @TearDown(Level.Trial)
+  def teardown(): Unit = {
+    Files.list(workspace).forEach(path => Files.delete(path))
+    Files.delete(workspace)
+    archive.delete()
+  }
+
+  @Benchmark
+  @BenchmarkMode(Array(Mode.SingleShotTime))
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  def defaultStartup(): Unit = run()
+
+  @Benchmark
+  @BenchmarkMode(Array(Mode.SingleShotTime))
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  def archivedStartup(): Unit = run("-XX:SharedArchiveFile=" + archive.getPath)
+}
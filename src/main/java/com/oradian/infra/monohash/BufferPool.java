@@ -0,0 +1,61 @@
+package com.oradian.infra.monohash;
+
+import com.oradian.infra.monohash.param.ReadMode;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+
+/** Buffers of the hashing workers which are kept between runs, e.g. by a build server which hashes many times.
+  * Direct memory is only released once the GC finds a buffer, so allocating new ones for every run churns it.
+  * Holds at most the capacity of buffers per read mode, the rest are left to the GC, and can be cleared once
+  * the host stops hashing. Runs without a pool allocate their buffers and drop them when finished. */
+public final class BufferPool {
+    public final int capacity;
+
+    private final EnumMap<ReadMode, ArrayDeque<HashWorker.Buffers>> pooled = new EnumMap<>(ReadMode.class);
+
+    /** The capacity should be the concurrency of the runs, so that every worker finds its buffers in the pool */
+    public BufferPool(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Buffer pool capacity cannot be lower than 1, got: " + capacity);
+        }
+        this.capacity = capacity;
+        for (final ReadMode readMode : ReadMode.values()) {
+            pooled.put(readMode, new ArrayDeque<>());
+        }
+    }
+
+    synchronized HashWorker.Buffers acquire(final ReadMode readMode) {
+        final HashWorker.Buffers buffers = pooled.get(readMode).poll();
+        return buffers != null ? buffers : new HashWorker.Buffers(readMode);
+    }
+
+    /** Must only be called once the worker which used the buffers will not hash any more files */
+    synchronized void release(final HashWorker.Buffers buffers) {
+        final ArrayDeque<HashWorker.Buffers> queue = pooled.get(buffers.readMode);
+        if (queue.size() < capacity) {
+            queue.push(buffers);
+        }
+    }
+
+    /** Number of pooled buffers across all the read modes */
+    public synchronized int size() {
+        int size = 0;
+        for (final ArrayDeque<HashWorker.Buffers> queue : pooled.values()) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    /** Drops all the pooled buffers, runs which are in progress return theirs once finished */
+    public synchronized void clear() {
+        for (final ArrayDeque<HashWorker.Buffers> queue : pooled.values()) {
+            queue.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool(capacity=" + capacity + ')';
+    }
+}
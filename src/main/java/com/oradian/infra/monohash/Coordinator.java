@@ -0,0 +1,422 @@
+package com.oradian.infra.monohash;
+
+import com.oradian.infra.monohash.param.Algorithm;
+import com.oradian.infra.monohash.param.Concurrency;
+import com.oradian.infra.monohash.param.DedupMode;
+import com.oradian.infra.monohash.param.GitIndexMode;
+import com.oradian.infra.monohash.param.LogLevel;
+import com.oradian.infra.monohash.param.Priority;
+import com.oradian.infra.monohash.param.RateLimit;
+import com.oradian.infra.monohash.param.ReadMode;
+import com.oradian.infra.monohash.param.Schedule;
+import com.oradian.infra.monohash.util.Format;
+import com.oradian.infra.monohash.util.Hex;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+
+/** Splits the whitelist into partitions which are hashed by worker processes on this machine.
+  * Whitelisted directories are expanded breadth first until there are a few partitions per worker, so that the
+  * workers which finish early can pick up the remaining ones. Each worker returns the sorted results of a partition,
+  * and these are merged into the same results a single process would produce.
+  * Workers only accept connections on the loopback interface and must present a token which is handed to them
+  * through their standard input, as the protocol has no other means of authentication. */
+final class Coordinator {
+    private Coordinator() {}
+
+    private static final int PARTITIONS_PER_WORKER = 4;
+    private static final long CONNECT_TIMEOUT_MILLIS = 60_000L;
+    private static final int ACCEPT_POLL_MILLIS = 500;
+
+    /** Relative paths of whitelist entries which are hashed together, directories carry a trailing slash */
+    private static final class Partition {
+        final List<String> paths;
+        final File directory; // non-null if this is a single directory which can be split further
+
+        Partition(final List<String> paths, final File directory) {
+            this.paths = paths;
+            this.directory = directory;
+        }
+    }
+
+    static List<List<String>> partition(final Logger logger, final HashPlan hashPlan, final int target) {
+        final Matcher blacklist = hashPlan.blacklist == null ? null : hashPlan.blacklist.matcher("");
+        final List<Partition> partitions = new ArrayList<>();
+        final ArrayDeque<Partition> expandable = new ArrayDeque<>();
+        final List<String> files = new ArrayList<>();
+        for (final String whitelistPath : hashPlan.whitelist) {
+            final File file = new File(whitelistPath);
+            final boolean isDirectory = file.isDirectory();
+            if (isDirectory && !whitelistPath.endsWith("/") && logger.isWarnEnabled()) {
+                logger.warn("Relative path '" + whitelistPath +
+                        "' is a directory - please append a trailing / in the [hash plan]");
+            }
+            final String rootPath = WhiteWalker.relativise(hashPlan.basePath, file, isDirectory);
+            if (blacklist != null && !WhiteWalker.verify(logger, blacklist, new StringBuilder(rootPath))) {
+                continue;
+            }
+            if (isDirectory) {
+                final Partition partition = new Partition(Collections.singletonList(rootPath), file);
+                partitions.add(partition);
+                expandable.add(partition);
+            } else {
+                // missing paths also end up here, so that a worker reports them
+                files.add(rootPath);
+            }
+        }
+        if (!files.isEmpty()) {
+            partitions.add(new Partition(files, null));
+        }
+
+        final StringBuilder relativePath = new StringBuilder();
+        while (partitions.size() < target && !expandable.isEmpty()) {
+            final Partition partition = expandable.poll();
+            final String[] names = partition.directory.list();
+            if (names == null) {
+                continue; // the worker will report it
+            }
+            Arrays.sort(names);
+            partitions.remove(partition);
+
+            final String directoryPath = partition.paths.get(0);
+            final List<String> children = new ArrayList<>();
+            for (final String name : names) {
+                final File child = new File(partition.directory, name);
+                final boolean isDirectory = child.isDirectory();
+                relativePath.setLength(0);
+                relativePath.append(directoryPath).append(name);
+                if (isDirectory) {
+                    relativePath.append('/');
+                }
+                if (blacklist != null && !WhiteWalker.verify(logger, blacklist, relativePath)) {
+                    continue;
+                }
+                if (isDirectory) {
+                    final Partition subdirectory = new Partition(Collections.singletonList(relativePath.toString()), child);
+                    partitions.add(subdirectory);
+                    expandable.add(subdirectory);
+                } else {
+                    children.add(relativePath.toString());
+                }
+            }
+            if (!children.isEmpty()) {
+                partitions.add(new Partition(children, null));
+            }
+        }
+
+        final List<List<String>> result = new ArrayList<>(partitions.size());
+        for (final Partition partition : partitions) {
+            result.add(partition.paths);
+        }
+        return result;
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    private static LogLevel workerLogLevel(final Logger logger) {
+        // progress of individual partitions is noise unless debugging
+        return logger.isTraceEnabled() ? LogLevel.TRACE
+                : logger.isDebugEnabled() ? LogLevel.DEBUG
+                : logger.isWarnEnabled() ? LogLevel.WARN
+                : logger.isErrorEnabled() ? LogLevel.ERROR
+                : LogLevel.OFF;
+    }
+
+    /** Accepts a connection from each worker, skipping connections which do not present the token */
+    private static Socket[] accept(final Logger logger, final ServerSocket server, final List<Process> processes, final byte[] token) throws IOException {
+        final Socket[] sockets = new Socket[processes.size()];
+        final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        server.setSoTimeout(ACCEPT_POLL_MILLIS);
+        int connected = 0;
+        try {
+            while (connected < sockets.length) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (final SocketTimeoutException e) {
+                    for (final Process process : processes) {
+                        if (!process.isAlive()) {
+                            throw new IOException("Worker process exited with code " + process.exitValue() + " before it connected");
+                        }
+                    }
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IOException("Only " + connected + " out of " + sockets.length + " workers connected within " +
+                                Format.i(CONNECT_TIMEOUT_MILLIS) + " ms");
+                    }
+                    continue;
+                }
+                try {
+                    socket.setSoTimeout(ACCEPT_POLL_MILLIS * 10);
+                    // unbuffered, so that nothing past the handshake is consumed before serving the worker
+                    final DataInputStream in = new DataInputStream(socket.getInputStream());
+                    if (in.readInt() != WorkerProcess.MAGIC || in.readInt() != WorkerProcess.VERSION || in.readInt() != token.length) {
+                        throw new IOException("unknown protocol");
+                    }
+                    final byte[] received = new byte[token.length];
+                    in.readFully(received);
+                    if (!MessageDigest.isEqual(received, token)) {
+                        throw new IOException("invalid token");
+                    }
+                    socket.setSoTimeout(0);
+                } catch (final IOException e) {
+                    if (logger.isWarnEnabled()) {
+                        logger.warn("Rejected connection from " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+                    }
+                    socket.close();
+                    continue;
+                }
+                sockets[connected++] = socket;
+            }
+        } catch (final IOException e) {
+            for (int i = 0; i < connected; i++) {
+                sockets[i].close();
+            }
+            throw e;
+        }
+        return sockets;
+    }
+
+    private static void serve(
+            final Logger logger,
+            final String workerId,
+            final Socket socket,
+            final HashPlan hashPlan,
+            final Algorithm algorithm,
+            final int threadsPerWorker,
+            final ReadMode readMode,
+            final Schedule schedule,
+            final IndexedBlobs indexedBlobs,
+            final DedupMode dedupMode,
+            final RateLimit rateLimitPerWorker,
+            final Priority priority,
+            final List<List<String>> partitions,
+            final AtomicInteger nextPartition,
+            final HashResults[] results,
+            final AtomicReference<Exception> error,
+            final RunControl control,
+            final AtomicLong filesHashed) throws IOException {
+        final DataOutputStream out = WorkerProcess.output(socket);
+        final DataInputStream in = WorkerProcess.input(socket);
+        WorkerProcess.writeString(out, algorithm.name);
+        out.writeInt(threadsPerWorker);
+        WorkerProcess.writeString(out, readMode.name());
+        WorkerProcess.writeString(out, schedule.name());
+        out.writeBoolean(indexedBlobs != null);
+        WorkerProcess.writeString(out, dedupMode.name());
+        out.writeLong(rateLimitPerWorker.bytesPerSecond);
+        out.writeLong(rateLimitPerWorker.filesPerSecond);
+        WorkerProcess.writeString(out, priority.name());
+        WorkerProcess.writeString(out, hashPlan.basePath);
+        out.writeBoolean(hashPlan.blacklist != null);
+        if (hashPlan.blacklist != null) {
+            WorkerProcess.writeString(out, hashPlan.blacklist.pattern());
+            out.writeInt(hashPlan.blacklist.flags());
+        }
+
+        while (error.get() == null && !control.isCancelled()) {
+            final int index = nextPartition.getAndIncrement();
+            if (index >= partitions.size()) {
+                break;
+            }
+            final long startAt = System.nanoTime();
+            final List<String> partition = partitions.get(index);
+            out.writeInt(partition.size());
+            for (final String path : partition) {
+                WorkerProcess.writeString(out, path);
+            }
+            if (indexedBlobs != null) {
+                indexedBlobs.write(out, partition);
+            }
+            out.flush();
+
+            final byte status = in.readByte();
+            if (status != WorkerProcess.STATUS_HASHED) {
+                throw new IOException(workerId + " could not hash partition starting with '" + partition.get(0) + "': " + WorkerProcess.readString(in));
+            }
+            final byte[] lines = new byte[in.readInt()];
+            in.readFully(lines);
+            final HashResults partial = HashResults.apply(logger, algorithm, lines);
+            results[index] = partial;
+            control.progress(filesHashed.addAndGet(partial.size()), -1L);
+            if (logger.isDebugEnabled()) {
+                logger.debug(workerId + " hashed partition " + (index + 1) + "/" + partitions.size() + " starting with '" +
+                        partition.get(0) + "' (" + Format.i(partial.size()) + " files)" + Format.timeNanos(startAt));
+            }
+        }
+        out.writeInt(0);
+        out.flush();
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    /** Cursor into the entries of a partition, ordered by its current path */
+    private static final class Cursor {
+        final HashResults.Entries entries;
+        int index;
+
+        Cursor(final HashResults.Entries entries) {
+            this.entries = entries;
+        }
+
+        int compareTo(final Cursor that) {
+            return entries.comparePaths(index, that.entries, that.index);
+        }
+    }
+
+    /** K-way merge of the sorted partitions, paths which were hashed by more than one partition are kept once */
+    static HashResults merge(final Logger logger, final Algorithm algorithm, final HashResults[] results) throws ExportParsingException {
+        final PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(results.length, 1), Cursor::compareTo);
+        int sizeHint = 0;
+        for (final HashResults partial : results) {
+            final HashResults.Entries entries = partial.entries();
+            if (entries.size != 0) {
+                queue.add(new Cursor(entries));
+                sizeHint += entries.size;
+            }
+        }
+
+        final HashResults.Appender appender = new HashResults.Appender(logger, algorithm, sizeHint);
+        HashResults.Entries lastEntries = null;
+        int lastIndex = 0;
+        while (!queue.isEmpty()) {
+            final Cursor cursor = queue.poll();
+            if (lastEntries == null || lastEntries.comparePaths(lastIndex, cursor.entries, cursor.index) != 0) {
+                appender.append(cursor.entries.path(cursor.index), cursor.entries.digest(cursor.index));
+                lastEntries = cursor.entries;
+                lastIndex = cursor.index;
+            }
+            if (++cursor.index < cursor.entries.size) {
+                queue.add(cursor);
+            }
+        }
+        return appender.finish();
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    public static HashResults apply(
+            final Logger logger,
+            final HashPlan hashPlan,
+            final Algorithm algorithm,
+            final Concurrency concurrency,
+            final ReadMode readMode,
+            final Schedule schedule,
+            final GitIndexMode gitIndexMode,
+            final DedupMode dedupMode,
+            final int workers) throws Exception {
+        return apply(logger, hashPlan, algorithm, concurrency, readMode, schedule, gitIndexMode, dedupMode, workers, RateLimit.DEFAULT, Priority.DEFAULT, RunControl.NONE);
+    }
+
+    /** Each worker process limits its own reads, so the limit of the run is split between them like the threads */
+    private static long perWorker(final long limit, final int processCount) {
+        return (limit + processCount - 1) / processCount;
+    }
+
+    /** Cancelling the run stops handing out partitions, the workers finish the ones they are hashing and exit */
+    static HashResults apply(
+            final Logger logger,
+            final HashPlan hashPlan,
+            final Algorithm algorithm,
+            final Concurrency concurrency,
+            final ReadMode readMode,
+            final Schedule schedule,
+            final GitIndexMode gitIndexMode,
+            final DedupMode dedupMode,
+            final int workers,
+            final RateLimit rateLimit,
+            final Priority priority,
+            final RunControl control) throws Exception {
+        final long startAt = System.nanoTime();
+        final List<List<String>> partitions = partition(logger, hashPlan, workers * PARTITIONS_PER_WORKER);
+        final int processCount = Math.min(workers, partitions.size());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Split the whitelist into " + partitions.size() + " partitions for " + processCount + " workers" + Format.timeNanos(startAt));
+        }
+
+        final HashResults[] results = new HashResults[partitions.size()];
+        if (processCount != 0) {
+            // read once here instead of in every worker, which only receive the entries of their partitions
+            final IndexedBlobs indexedBlobs = WhiteWalker.indexedBlobs(logger, hashPlan.basePath, algorithm, gitIndexMode);
+
+            final byte[] tokenBytes = new byte[16];
+            new SecureRandom().nextBytes(tokenBytes);
+            final String token = Hex.toHex(tokenBytes);
+
+            final List<Process> processes = new ArrayList<>(processCount);
+            final AtomicReference<Exception> error = new AtomicReference<>();
+            try (final ServerSocket server = new ServerSocket(0, processCount, InetAddress.getLoopbackAddress())) {
+                for (int i = 0; i < processCount; i++) {
+                    processes.add(WorkerProcess.start(server.getLocalPort(), token, workerLogLevel(logger), priority));
+                }
+                final Socket[] sockets = accept(logger, server, processes, token.getBytes(StandardCharsets.UTF_8));
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Started " + processCount + " workers" + Format.timeNanos(startAt));
+                }
+
+                // the workers share this machine, so they split the threads instead of each using all of them
+                final int threadsPerWorker = Math.max(1, (concurrency.getConcurrency() + processCount - 1) / processCount);
+                final RateLimit rateLimitPerWorker = RateLimit.of(
+                        perWorker(rateLimit.bytesPerSecond, processCount),
+                        perWorker(rateLimit.filesPerSecond, processCount));
+                final AtomicInteger nextPartition = new AtomicInteger();
+                final AtomicLong filesHashed = new AtomicLong();
+                final Thread[] threads = new Thread[processCount];
+                for (int i = 0; i < threads.length; i++) {
+                    final String workerId = "Worker process #" + (i + 1);
+                    final Socket socket = sockets[i];
+                    threads[i] = new Thread(() -> {
+                        try (final Socket closing = socket) {
+                            serve(logger, workerId, closing, hashPlan, algorithm, threadsPerWorker, readMode, schedule,
+                                    indexedBlobs, dedupMode, rateLimitPerWorker, priority, partitions, nextPartition, results, error, control, filesHashed);
+                        } catch (final Exception e) {
+                            error.compareAndSet(null, e);
+                            if (logger.isErrorEnabled()) {
+                                logger.error(workerId + " experienced an exception, shutting down other workers ...");
+                            }
+                        }
+                    }, workerId);
+                    threads[i].start();
+                }
+                for (final Thread thread : threads) {
+                    thread.join();
+                }
+            } finally {
+                for (final Process process : processes) {
+                    if (!process.waitFor(ACCEPT_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        process.destroy();
+                    }
+                }
+            }
+            if (error.get() != null) {
+                throw error.get();
+            }
+        }
+        control.checkCancelled();
+
+        final HashResults merged = merge(logger, algorithm, results);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Merged " + partitions.size() + " partitions with " + Format.i(merged.size()) + " files" + Format.timeNanos(startAt));
+        }
+        return merged;
+    }
+}
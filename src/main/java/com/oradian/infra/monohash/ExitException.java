@@ -11,6 +11,16 @@ public final class ExitException extends Exception {
     public static final int INVALID_ARGUMENT_CONCURRENCY          = 1040;
     public static final int INVALID_ARGUMENT_VERIFICATION         = 1050;
     public static final int INVALID_ARGUMENT_TOO_MANY             = 1060;
+    public static final int INVALID_ARGUMENT_FSYNC                = 1070;
+    public static final int INVALID_ARGUMENT_COMPRESSION          = 1080;
+    public static final int INVALID_ARGUMENT_READ_MODE            = 1090;
+    public static final int INVALID_ARGUMENT_SCHEDULE             = 1100;
+    public static final int INVALID_ARGUMENT_GIT_INDEX_MODE       = 1110;
+    public static final int INVALID_ARGUMENT_DEDUP_MODE           = 1120;
+    public static final int INVALID_ARGUMENT_WORKERS              = 1130;
+    public static final int INVALID_ARGUMENT_RATE_LIMIT           = 1140;
+    public static final int INVALID_ARGUMENT_PRIORITY             = 1150;
+    public static final int INVALID_ARGUMENT_DIFF_LIMIT           = 1160;
 
     public static final int HASH_PLAN_FILE_MISSING                = 2000;
     public static final int HASH_PLAN_FILE_ENDS_WITH_SLASH        = 2010;
@@ -0,0 +1,97 @@
+package com.oradian.infra.monohash;
+
+import com.oradian.infra.monohash.param.Algorithm;
+import com.oradian.infra.monohash.param.Concurrency;
+import com.oradian.infra.monohash.util.BlockDeflate;
+import com.oradian.infra.monohash.util.FlightEvents;
+import com.oradian.infra.monohash.util.Format;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Executor;
+
+/** Reads the previous export on a background thread, so that it overlaps with executing the hash plan.
+  * When the results are going to be diffed, the entries are parsed as well, so that diffing can start right away. */
+final class ExportReader {
+    private final Thread thread;
+    private HashResults results; // published by joining the thread
+    private Throwable error;     // published by joining the thread
+
+    private ExportReader(
+            final Logger logger,
+            final File exportFile,
+            final Algorithm algorithm,
+            final Concurrency concurrency,
+            final Executor executor,
+            final boolean parseEntries) {
+        thread = new Thread(() -> {
+            try {
+                final long startAt = System.nanoTime();
+                final Object event = FlightEvents.beginExportRead();
+                final byte[] bytes = Files.readAllBytes(exportFile.toPath());
+                final boolean compressed = BlockDeflate.isCompressed(bytes);
+                final HashResults previousResults;
+                if (compressed) {
+                    previousResults = HashResults.apply(logger, algorithm, BlockDeflate.decompress(bytes, concurrency.getConcurrency(), executor));
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("Read and decompressed previous [export file]: " + Format.file(exportFile) + Format.timeNanos(startAt));
+                    }
+                } else {
+                    previousResults = HashResults.apply(logger, algorithm, bytes);
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("Read previous [export file]: " + Format.file(exportFile) + Format.timeNanos(startAt));
+                    }
+                }
+                FlightEvents.commitExportRead(event, exportFile, bytes.length, compressed);
+                if (parseEntries) {
+                    try {
+                        previousResults.entries();
+                    } catch (final ExportParsingException e) {
+                        // not an error yet - the results may turn out identical, otherwise the diff reports it
+                    }
+                }
+                results = previousResults;
+            } catch (final Throwable t) {
+                // errors such as running out of memory must fail the run, not pass for a missing export
+                error = t;
+            }
+        }, "MonoHash export reader");
+        // an abandoned run must not keep the JVM alive while the previous export is still being read
+        thread.setDaemon(true);
+    }
+
+    static ExportReader start(
+            final Logger logger,
+            final File exportFile,
+            final Algorithm algorithm,
+            final Concurrency concurrency,
+            final Executor executor,
+            final boolean parseEntries) {
+        final ExportReader reader = new ExportReader(logger, exportFile, algorithm, concurrency, executor, parseEntries);
+        reader.thread.start();
+        return reader;
+    }
+
+    HashResults await() throws IOException, InterruptedException {
+        thread.join();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        if (error != null) {
+            throw new RuntimeException(error);
+        }
+        return results;
+    }
+
+    /** Interrupts reading the export if nobody is going to await it, has no effect once it was read */
+    void stop() {
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,63 @@
+package com.oradian.infra.monohash;
+
+import com.oradian.infra.monohash.param.Compression;
+import com.oradian.infra.monohash.param.Concurrency;
+import com.oradian.infra.monohash.param.Fsync;
+import com.oradian.infra.monohash.util.FlightEvents;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/** Writes the export on a background thread, so that it can overlap with diffing against the previous export */
+final class ExportWriter {
+    private final Thread thread;
+    private Throwable error; // published by joining the thread
+
+    private ExportWriter(
+            final HashResults results,
+            final File exportFile,
+            final Fsync fsync,
+            final Compression compression,
+            final Concurrency concurrency,
+            final Executor executor) {
+        thread = new Thread(() -> {
+            try {
+                final Object event = FlightEvents.beginExportWritten();
+                results.export(exportFile, fsync, compression, concurrency.getConcurrency(), executor);
+                FlightEvents.commitExportWritten(event, exportFile, compression == Compression.DEFLATE);
+            } catch (final Throwable t) {
+                // errors such as running out of memory must fail the run, not pass for a written export
+                error = t;
+            }
+        }, "MonoHash export writer");
+    }
+
+    static ExportWriter start(
+            final HashResults results,
+            final File exportFile,
+            final Fsync fsync,
+            final Compression compression,
+            final Concurrency concurrency,
+            final Executor executor) {
+        final ExportWriter writer = new ExportWriter(results, exportFile, fsync, compression, concurrency, executor);
+        writer.thread.start();
+        return writer;
+    }
+
+    void await() throws IOException, InterruptedException {
+        thread.join();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        if (error != null) {
+            throw new RuntimeException(error);
+        }
+    }
+}
@@ -0,0 +1,667 @@
+package com.oradian.infra.monohash;
+
+import com.oradian.infra.monohash.util.Format;
+import com.oradian.infra.monohash.util.Hex;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** Minimal read-only access to a Git repository: locating it, resolving revisions and reading objects
+  * from both loose object files and packfiles, including delta resolution.
+  * Only SHA-1 repositories are supported, see: https://git-scm.com/docs/gitformat-pack
+  * Not thread safe, each reader of the object database needs its own instance. */
+final class GitRepository implements Closeable {
+    static final int ID_LENGTH = 20;
+
+    static final int TYPE_COMMIT = 1;
+    static final int TYPE_TREE = 2;
+    static final int TYPE_BLOB = 3;
+    static final int TYPE_TAG = 4;
+    private static final int TYPE_OFS_DELTA = 6;
+    private static final int TYPE_REF_DELTA = 7;
+
+    private static final String[] TYPE_NAMES = { null, "commit", "tree", "blob", "tag" };
+
+    /** Contents of a single object, without the loose object header */
+    static final class GitObject {
+        final int type;
+        final byte[] data;
+
+        GitObject(final int type, final byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    final File workTree;
+    final File gitDir;
+    final String prefix; // path of the base path inside the work tree, empty or ending with a slash
+
+    private final File commonDir;
+    private List<File> objectDirs;
+    private List<Pack> packs;
+    private Inflater inflater; // allocated on the first read, as only reading objects needs native resources
+
+    private GitRepository(final File workTree, final File gitDir, final String prefix) throws IOException {
+        this.workTree = workTree;
+        this.gitDir = gitDir;
+        this.prefix = prefix;
+
+        // linked work trees keep their HEAD and index in the git dir, but share the objects and refs
+        final File commonDirFile = new File(gitDir, "commondir");
+        if (commonDirFile.isFile()) {
+            final File commonDir = new File(new String(Files.readAllBytes(commonDirFile.toPath()), StandardCharsets.UTF_8).trim());
+            this.commonDir = commonDir.isAbsolute() ? commonDir : new File(gitDir, commonDir.getPath());
+        } else {
+            this.commonDir = gitDir;
+        }
+    }
+
+    /** Walks up from the base path to find the work tree which contains it, returns null if there is none */
+    static GitRepository find(final String basePath) throws IOException {
+        String prefix = "";
+        for (File workTree = new File(basePath).getAbsoluteFile(); workTree != null; workTree = workTree.getParentFile()) {
+            final File dotGit = new File(workTree, ".git");
+            if (dotGit.exists()) {
+                return new GitRepository(workTree, resolveGitDir(workTree, dotGit), prefix);
+            }
+            prefix = workTree.getName() + '/' + prefix;
+        }
+        return null;
+    }
+
+    /** Linked work trees and submodules use a `.git` file which points to the actual Git directory */
+    private static File resolveGitDir(final File workTree, final File dotGit) throws IOException {
+        if (dotGit.isDirectory()) {
+            return dotGit;
+        }
+        final String content = new String(Files.readAllBytes(dotGit.toPath()), StandardCharsets.UTF_8).trim();
+        if (!content.startsWith("gitdir:")) {
+            throw new IOException("Unexpected content of " + Format.file(dotGit));
+        }
+        final File gitDir = new File(content.substring("gitdir:".length()).trim());
+        return gitDir.isAbsolute() ? gitDir : new File(workTree, gitDir.getPath());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) {
+            inflater.end();
+        }
+        if (packs != null) {
+            for (final Pack pack : packs) {
+                pack.channel.close();
+            }
+        }
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    private static final Pattern REVISION_SUFFIX = Pattern.compile("\\^\\{(\\w*)}|(~|\\^)(\\d*)");
+
+    /** Resolves a revision such as `HEAD~2`, `v1.0^{tree}`, `main` or an (abbreviated) object ID to the ID of a tree */
+    byte[] resolveTree(final String revision) throws IOException {
+        final int suffixStart = firstSuffix(revision);
+        final String name = revision.substring(0, suffixStart);
+        byte[] id = resolveName(name);
+        if (id == null) {
+            throw new IOException("Unknown revision: '" + revision + '\'');
+        }
+
+        final Matcher matcher = REVISION_SUFFIX.matcher(revision);
+        int position = suffixStart;
+        while (position < revision.length()) {
+            if (!matcher.find(position) || matcher.start() != position) {
+                throw new IOException("Could not parse revision: '" + revision + '\'');
+            }
+            if (matcher.group(2) != null) {
+                final int count = matcher.group(3).isEmpty() ? 1 : Integer.parseInt(matcher.group(3));
+                if (matcher.group(2).equals("~")) {
+                    for (int i = 0; i < count; i++) {
+                        id = parent(revision, id, 1);
+                    }
+                } else if (count > 0) {
+                    id = parent(revision, id, count);
+                } else {
+                    id = peel(id, TYPE_COMMIT);
+                }
+            } else {
+                final String type = matcher.group(1);
+                if (type.equals("commit")) {
+                    id = peel(id, TYPE_COMMIT);
+                } else if (type.equals("tree")) {
+                    id = peel(id, TYPE_TREE);
+                } else if (!type.isEmpty()) {
+                    throw new IOException("Unsupported peeling in revision: '" + revision + '\'');
+                }
+            }
+            position = matcher.end();
+        }
+        return peel(id, TYPE_TREE);
+    }
+
+    private static int firstSuffix(final String revision) {
+        for (int i = 0; i < revision.length(); i++) {
+            final char ch = revision.charAt(i);
+            if (ch == '~' || ch == '^') {
+                return i;
+            }
+        }
+        return revision.length();
+    }
+
+    private byte[] parent(final String revision, final byte[] id, final int number) throws IOException {
+        final byte[] commit = peel(id, TYPE_COMMIT);
+        final List<byte[]> parents = headers(read(commit).data, "parent");
+        if (parents.size() < number) {
+            throw new IOException("Revision '" + revision + "' does not exist, commit " + Hex.toHex(commit) +
+                    " has " + parents.size() + " parent(s)");
+        }
+        return parents.get(number - 1);
+    }
+
+    /** Follows tags and commits until an object of the requested type is reached */
+    private byte[] peel(byte[] id, final int type) throws IOException {
+        while (true) {
+            final GitObject object = read(id);
+            if (object.type == type) {
+                return id;
+            }
+            if (object.type == TYPE_TAG) {
+                id = header(object.data, "object");
+            } else if (object.type == TYPE_COMMIT && type == TYPE_TREE) {
+                id = header(object.data, "tree");
+            } else {
+                throw new IOException("Object " + Hex.toHex(id) + " is a " + TYPE_NAMES[object.type] +
+                        ", which cannot be peeled to a " + TYPE_NAMES[type]);
+            }
+        }
+    }
+
+    /** Reads the object IDs from the header lines of a commit or a tag, which end at the first empty line */
+    private static List<byte[]> headers(final byte[] data, final String key) {
+        final List<byte[]> result = new ArrayList<>();
+        final byte[] prefix = (key + ' ').getBytes(StandardCharsets.ISO_8859_1);
+        int start = 0;
+        while (start < data.length && data[start] != '\n') {
+            int end = start;
+            while (end < data.length && data[end] != '\n') {
+                end++;
+            }
+            if (end - start == prefix.length + ID_LENGTH * 2 && regionMatches(data, start, prefix)) {
+                result.add(fromHex(new String(data, start + prefix.length, ID_LENGTH * 2, StandardCharsets.ISO_8859_1)));
+            }
+            start = end + 1;
+        }
+        return result;
+    }
+
+    private static byte[] header(final byte[] data, final String key) throws IOException {
+        final List<byte[]> result = headers(data, key);
+        if (result.isEmpty()) {
+            throw new IOException("Could not find '" + key + "' in object header");
+        }
+        return result.get(0);
+    }
+
+    private static byte[] fromHex(final String hex) {
+        return Hex.fromHex(hex.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static boolean regionMatches(final byte[] data, final int offset, final byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (data[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final Pattern HEX_ID = Pattern.compile("[0-9a-fA-F]{4,40}");
+
+    private byte[] resolveName(final String name) throws IOException {
+        if (name.length() == ID_LENGTH * 2 && HEX_ID.matcher(name).matches()) {
+            return fromHex(name.toLowerCase(Locale.ROOT));
+        }
+        final String ref = name.isEmpty() ? "HEAD" : name;
+        for (final String candidate : new String[] { ref, "refs/" + ref, "refs/tags/" + ref, "refs/heads/" + ref,
+                "refs/remotes/" + ref, "refs/remotes/" + ref + "/HEAD" }) {
+            final byte[] id = readRef(candidate, 0);
+            if (id != null) {
+                return id;
+            }
+        }
+        return HEX_ID.matcher(name).matches() ? findAbbreviated(name.toLowerCase(Locale.ROOT)) : null;
+    }
+
+    private byte[] readRef(final String ref, final int depth) throws IOException {
+        if (depth > 10) {
+            throw new IOException("Too many levels of symbolic refs: '" + ref + '\'');
+        }
+        // per work tree refs live in the git dir, shared ones in the common dir
+        for (final File dir : new File[] { gitDir, commonDir }) {
+            final File file = new File(dir, ref);
+            if (file.isFile()) {
+                final String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+                if (content.startsWith("ref:")) {
+                    return readRef(content.substring("ref:".length()).trim(), depth + 1);
+                }
+                if (content.length() == ID_LENGTH * 2 && HEX_ID.matcher(content).matches()) {
+                    return fromHex(content.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+
+        final File packedRefs = new File(commonDir, "packed-refs");
+        if (packedRefs.isFile()) {
+            for (final String line : Files.readAllLines(packedRefs.toPath(), StandardCharsets.UTF_8)) {
+                if (line.length() > ID_LENGTH * 2 && line.charAt(ID_LENGTH * 2) == ' '
+                        && line.substring(ID_LENGTH * 2 + 1).equals(ref)) {
+                    return fromHex(line.substring(0, ID_LENGTH * 2));
+                }
+            }
+        }
+        return null;
+    }
+
+    private byte[] findAbbreviated(final String abbreviation) throws IOException {
+        final Set<String> matches = new TreeSet<>();
+        for (final File objectDir : objectDirs()) {
+            final String[] names = new File(objectDir, abbreviation.substring(0, 2)).list();
+            if (names != null) {
+                for (final String name : names) {
+                    final String hex = abbreviation.substring(0, 2) + name;
+                    if (hex.length() == ID_LENGTH * 2 && hex.startsWith(abbreviation)) {
+                        matches.add(hex);
+                    }
+                }
+            }
+        }
+        for (final Pack pack : packs()) {
+            pack.findAbbreviated(abbreviation, matches);
+        }
+        if (matches.size() > 1) {
+            throw new IOException("Object ID '" + abbreviation + "' is ambiguous, candidates are: " + String.join(", ", matches));
+        }
+        return matches.isEmpty() ? null : fromHex(matches.iterator().next());
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    /** Object directory of the repository, followed by the ones borrowed through alternates */
+    private List<File> objectDirs() throws IOException {
+        if (objectDirs == null) {
+            final List<File> dirs = new ArrayList<>();
+            addObjectDir(dirs, new File(commonDir, "objects"), 0);
+            objectDirs = dirs;
+        }
+        return objectDirs;
+    }
+
+    private static void addObjectDir(final List<File> dirs, final File objectDir, final int depth) throws IOException {
+        if (dirs.contains(objectDir) || depth > 5) {
+            return;
+        }
+        dirs.add(objectDir);
+        final File alternates = new File(objectDir, "info/alternates");
+        if (alternates.isFile()) {
+            for (final String line : Files.readAllLines(alternates.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.isEmpty() && line.charAt(0) != '#') {
+                    final File alternate = new File(line.trim());
+                    addObjectDir(dirs, alternate.isAbsolute() ? alternate : new File(objectDir, line.trim()), depth + 1);
+                }
+            }
+        }
+    }
+
+    private List<Pack> packs() throws IOException {
+        if (packs == null) {
+            final List<Pack> result = new ArrayList<>();
+            for (final File objectDir : objectDirs()) {
+                final String[] names = new File(objectDir, "pack").list();
+                if (names != null) {
+                    Arrays.sort(names);
+                    for (final String name : names) {
+                        if (name.endsWith(".idx")) {
+                            final String base = name.substring(0, name.length() - ".idx".length());
+                            final File packFile = new File(objectDir, "pack/" + base + ".pack");
+                            if (packFile.isFile()) {
+                                result.add(new Pack(new File(objectDir, "pack/" + name), packFile));
+                            }
+                        }
+                    }
+                }
+            }
+            packs = result;
+        }
+        return packs;
+    }
+
+    GitObject read(final byte[] id) throws IOException {
+        for (final Pack pack : packs()) {
+            final long offset = pack.find(id);
+            if (offset >= 0) {
+                return pack.read(offset, 0);
+            }
+        }
+        final String hex = Hex.toHex(id);
+        for (final File objectDir : objectDirs()) {
+            final File loose = new File(objectDir, hex.substring(0, 2) + '/' + hex.substring(2));
+            final byte[] compressed;
+            try {
+                compressed = Files.readAllBytes(loose.toPath());
+            } catch (final NoSuchFileException e) {
+                continue;
+            }
+            return parseLoose(hex, inflate(compressed));
+        }
+        throw new IOException("Object " + hex + " does not exist in " + Format.dir(commonDir));
+    }
+
+    private Inflater inflater() {
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else {
+            inflater.reset();
+        }
+        return inflater;
+    }
+
+    private byte[] inflate(final byte[] compressed) throws IOException {
+        final Inflater inflater = inflater();
+        inflater.setInput(compressed);
+        byte[] buffer = new byte[Math.max(64, compressed.length * 2)];
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length << 1);
+                }
+                final int inflated = inflater.inflate(buffer, length, buffer.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Loose object was truncated");
+                }
+                length += inflated;
+            }
+        } catch (final DataFormatException e) {
+            throw new IOException("Could not inflate loose object", e);
+        }
+        return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    private static GitObject parseLoose(final String hex, final byte[] raw) throws IOException {
+        int space = 0;
+        while (space < raw.length && raw[space] != ' ') {
+            space++;
+        }
+        int nul = space;
+        while (nul < raw.length && raw[nul] != 0) {
+            nul++;
+        }
+        if (nul >= raw.length) {
+            throw new IOException("Loose object " + hex + " has an invalid header");
+        }
+        final String typeName = new String(raw, 0, space, StandardCharsets.ISO_8859_1);
+        final int type = Arrays.asList(TYPE_NAMES).indexOf(typeName);
+        final long size = Long.parseLong(new String(raw, space + 1, nul - space - 1, StandardCharsets.ISO_8859_1));
+        if (type < 0 || size != raw.length - nul - 1) {
+            throw new IOException("Loose object " + hex + " has an invalid header");
+        }
+        return new GitObject(type, Arrays.copyOfRange(raw, nul + 1, raw.length));
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    /** Recently resolved pack entries are kept around, as deltas of neighbouring trees usually share their bases */
+    private static final int CACHE_ENTRIES = 1024;
+
+    private final class Pack {
+        private final File packFile;
+        private final MappedByteBuffer index;
+        private final int count;
+        private final FileChannel channel;
+        private final LinkedHashMap<Long, GitObject> cache;
+
+        Pack(final File indexFile, final File packFile) throws IOException {
+            this.packFile = packFile;
+            try (final FileChannel indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+                this.index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+            }
+            if (index.capacity() < 8 + 256 * 4 || index.getInt(0) != 0xff744f63 || index.getInt(4) != 2) {
+                throw new IOException("Unsupported pack index: " + Format.file(indexFile));
+            }
+            this.count = index.getInt(8 + 255 * 4);
+            this.channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+            this.cache = new LinkedHashMap<Long, GitObject>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Long, GitObject> eldest) {
+                    return size() > CACHE_ENTRIES;
+                }
+            };
+        }
+
+        private int compareAt(final int position, final byte[] id) {
+            final int base = 8 + 256 * 4 + position * ID_LENGTH;
+            for (int i = 0; i < ID_LENGTH; i++) {
+                final int cmp = (index.get(base + i) & 0xff) - (id[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+
+        /** Position of the first ID which is not lower than the provided one */
+        private int lowerBound(final byte[] id) {
+            final int first = id[0] & 0xff;
+            int low = first == 0 ? 0 : index.getInt(8 + (first - 1) * 4);
+            int high = index.getInt(8 + first * 4);
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (compareAt(mid, id) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        long find(final byte[] id) {
+            final int position = lowerBound(id);
+            if (position >= count || compareAt(position, id) != 0) {
+                return -1L;
+            }
+            final int offsetTable = 8 + 256 * 4 + count * (ID_LENGTH + 4);
+            final int offset = index.getInt(offsetTable + position * 4);
+            if (offset >= 0) {
+                return offset;
+            }
+            // the most significant bit points into the table of large offsets
+            return index.getLong(offsetTable + count * 4 + (offset & 0x7fffffff) * 8);
+        }
+
+        void findAbbreviated(final String abbreviation, final Set<String> matches) {
+            final byte[] low = fromHex((abbreviation + "0000000000000000000000000000000000000000").substring(0, ID_LENGTH * 2));
+            for (int position = lowerBound(low); position < count; position++) {
+                final byte[] id = new byte[ID_LENGTH];
+                final int base = 8 + 256 * 4 + position * ID_LENGTH;
+                for (int i = 0; i < ID_LENGTH; i++) {
+                    id[i] = index.get(base + i);
+                }
+                final String hex = Hex.toHex(id);
+                if (!hex.startsWith(abbreviation)) {
+                    break;
+                }
+                matches.add(hex);
+            }
+        }
+
+        GitObject read(final long offset, final int depth) throws IOException {
+            final GitObject cached = cache.get(offset);
+            if (cached != null) {
+                return cached;
+            }
+            if (depth > 10_000) {
+                throw new IOException("Delta chain is too long in " + Format.file(packFile));
+            }
+
+            final ByteBuffer header = ByteBuffer.allocate(32);
+            channel.read(header, offset);
+            header.flip();
+            int b = header.get() & 0xff;
+            final int type = (b >>> 4) & 7;
+            long size = b & 0x0f;
+            for (int shift = 4; (b & 0x80) != 0; shift += 7) {
+                b = header.get() & 0xff;
+                size |= (long) (b & 0x7f) << shift;
+            }
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("Object at offset " + offset + " is too large: " + size + " bytes");
+            }
+
+            final GitObject result;
+            if (type == TYPE_OFS_DELTA || type == TYPE_REF_DELTA) {
+                final GitObject base;
+                if (type == TYPE_OFS_DELTA) {
+                    b = header.get() & 0xff;
+                    long distance = b & 0x7f;
+                    while ((b & 0x80) != 0) {
+                        b = header.get() & 0xff;
+                        distance = ((distance + 1) << 7) | (b & 0x7f);
+                    }
+                    base = read(offset - distance, depth + 1);
+                } else {
+                    final byte[] baseId = new byte[ID_LENGTH];
+                    header.get(baseId);
+                    base = GitRepository.this.read(baseId);
+                }
+                final byte[] delta = inflateAt(offset + header.position(), (int) size);
+                result = new GitObject(base.type, applyDelta(base.data, delta));
+            } else if (type >= TYPE_COMMIT && type <= TYPE_TAG) {
+                result = new GitObject(type, inflateAt(offset + header.position(), (int) size));
+            } else {
+                throw new IOException("Unknown object type " + type + " at offset " + offset + " in " + Format.file(packFile));
+            }
+
+            // blobs are only read for checking out symbolic links and for non-GIT algorithms, they do not get reused
+            if (result.type != TYPE_BLOB || depth > 0) {
+                cache.put(offset, result);
+            }
+            return result;
+        }
+
+        private byte[] inflateAt(long position, final int size) throws IOException {
+            final byte[] result = new byte[size];
+            final ByteBuffer input = ByteBuffer.allocate(8192);
+            final Inflater inflater = inflater();
+            int length = 0;
+            try {
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        input.clear();
+                        final int read = channel.read(input, position);
+                        if (read <= 0) {
+                            throw new IOException("Pack " + Format.file(packFile) + " was truncated");
+                        }
+                        position += read;
+                        inflater.setInput(input.array(), 0, read);
+                    }
+                    final int inflated = inflater.inflate(result, length, size - length);
+                    if (inflated == 0 && !inflater.needsInput() && !inflater.finished()) {
+                        throw new IOException("Object in " + Format.file(packFile) + " is larger than its declared size");
+                    }
+                    length += inflated;
+                }
+            } catch (final DataFormatException e) {
+                throw new IOException("Could not inflate object in " + Format.file(packFile), e);
+            }
+            if (length != size) {
+                throw new IOException("Object in " + Format.file(packFile) + " is smaller than its declared size");
+            }
+            return result;
+        }
+    }
+
+    static byte[] applyDelta(final byte[] base, final byte[] delta) throws IOException {
+        final int[] position = { 0 };
+        final long baseSize = readSize(delta, position);
+        final long resultSize = readSize(delta, position);
+        if (baseSize != base.length || resultSize > Integer.MAX_VALUE - 8) {
+            throw new IOException("Delta does not match its base object");
+        }
+
+        final byte[] result = new byte[(int) resultSize];
+        int length = 0;
+        int p = position[0];
+        try {
+            while (p < delta.length) {
+                final int op = delta[p++] & 0xff;
+                if ((op & 0x80) != 0) {
+                    // copy from the base, the bits of the opcode tell which offset and size bytes are present
+                    long offset = 0;
+                    for (int i = 0; i < 4; i++) {
+                        if ((op & (1 << i)) != 0) {
+                            offset |= (long) (delta[p++] & 0xff) << (i * 8);
+                        }
+                    }
+                    int size = 0;
+                    for (int i = 0; i < 3; i++) {
+                        if ((op & (0x10 << i)) != 0) {
+                            size |= (delta[p++] & 0xff) << (i * 8);
+                        }
+                    }
+                    if (size == 0) {
+                        size = 0x10000;
+                    }
+                    if (offset + size > base.length) {
+                        throw new IOException("Delta copies outside of its base object");
+                    }
+                    System.arraycopy(base, (int) offset, result, length, size);
+                    length += size;
+                } else if (op != 0) {
+                    // insert the literal bytes which follow
+                    System.arraycopy(delta, p, result, length, op);
+                    p += op;
+                    length += op;
+                } else {
+                    throw new IOException("Delta contains a reserved instruction");
+                }
+            }
+        } catch (final IndexOutOfBoundsException e) {
+            throw new IOException("Delta is corrupted", e);
+        }
+        if (length != result.length) {
+            throw new IOException("Delta produced " + length + " bytes instead of " + result.length);
+        }
+        return result;
+    }
+
+    private static long readSize(final byte[] delta, final int[] position) throws IOException {
+        long size = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (position[0] >= delta.length) {
+                throw new IOException("Delta header was truncated");
+            }
+            b = delta[position[0]++] & 0xff;
+            size |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return size;
+    }
+}
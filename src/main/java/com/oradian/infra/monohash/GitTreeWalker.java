@@ -0,0 +1,264 @@
+package com.oradian.infra.monohash;
+
+import com.oradian.infra.monohash.param.Algorithm;
+import com.oradian.infra.monohash.util.Format;
+import com.oradian.infra.monohash.util.Hex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+
+/** Walks the whitelist through a tree of the Git repository which contains the base path, instead of the files on disk.
+  * The results are the same as hashing a checkout of that tree: symbolic links are followed inside the tree and
+  * submodules are empty directories. With the GIT algorithm the hashes are the blob IDs, so only trees are read. */
+final class GitTreeWalker {
+    private static final int MODE_TREE = 0040000;
+    private static final int MODE_SYMBOLIC_LINK = 0120000;
+    private static final int MODE_GITLINK = 0160000;
+    private static final int MODE_TYPE_MASK = 0170000;
+
+    /** Same limit as the Linux kernel, so that cycles are reported instead of recursing forever */
+    private static final int MAX_SYMBOLIC_LINKS = 40;
+
+    private final Logger logger;
+    private final Algorithm algorithm;
+    private final GitRepository repository;
+    private final byte[] rootTree;
+    private final Matcher blacklist;
+    private final TreeMap<String, byte[]> results;
+    private final boolean reuseIds;
+    private final RunControl control;
+    private long blobsRead;
+
+    private GitTreeWalker(
+            final Logger logger,
+            final Algorithm algorithm,
+            final GitRepository repository,
+            final byte[] rootTree,
+            final Matcher blacklist,
+            final RunControl control) {
+        this.logger = logger;
+        this.algorithm = algorithm;
+        this.repository = repository;
+        this.rootTree = rootTree;
+        this.blacklist = blacklist;
+        this.results = new TreeMap<>();
+        this.reuseIds = algorithm.name.equals(Algorithm.GIT);
+        this.control = control;
+    }
+
+    /** Walking a revision is single threaded, so progress is reported every so many files instead of every second */
+    private static final int PROGRESS_INTERVAL = 1024;
+
+    /** Tree entry, or a file or directory which a symbolic link resolved to */
+    private static final class Node {
+        final int mode;
+        final byte[] id;
+        final String path; // where the entry actually is in the root tree, symbolic links inside are relative to it
+
+        Node(final int mode, final byte[] id, final String path) {
+            this.mode = mode;
+            this.id = id;
+            this.path = path;
+        }
+
+        /** Prefix of the paths of the entries in this tree */
+        String treePath() {
+            return path.isEmpty() ? "" : path + '/';
+        }
+
+        boolean isTree() {
+            return (mode & MODE_TYPE_MASK) == MODE_TREE;
+        }
+    }
+
+    private interface EntryConsumer {
+        void accept(String name, int mode, byte[] id) throws IOException;
+    }
+
+    private void forEachEntry(final byte[] treeId, final EntryConsumer consumer) throws IOException {
+        final GitRepository.GitObject tree = repository.read(treeId);
+        if (tree.type != GitRepository.TYPE_TREE) {
+            throw new IOException("Object " + Hex.toHex(treeId) + " is not a tree");
+        }
+        final byte[] data = tree.data;
+        int position = 0;
+        while (position < data.length) {
+            int mode = 0;
+            while (data[position] != ' ') {
+                mode = (mode << 3) | (data[position++] - '0');
+            }
+            final int nameStart = ++position;
+            while (data[position] != 0) {
+                position++;
+            }
+            final String name = new String(data, nameStart, position - nameStart, StandardCharsets.UTF_8);
+            position++;
+            consumer.accept(name, mode, Arrays.copyOfRange(data, position, position + GitRepository.ID_LENGTH));
+            position += GitRepository.ID_LENGTH;
+        }
+    }
+
+    /** Finds the entry at the path relative to the root tree, following symbolic links on the way.
+      * Returns null if the path does not exist, so that the caller can report it in its own context */
+    private Node lookup(final String path, final int links) throws IOException {
+        if (links > MAX_SYMBOLIC_LINKS) {
+            throw new IOException("Too many levels of symbolic links while resolving: '" + path + '\'');
+        }
+        Node node = new Node(MODE_TREE, rootTree, "");
+        final String[] names = path.split("/");
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].isEmpty()) {
+                continue;
+            }
+            if (!node.isTree()) {
+                return null;
+            }
+            final Node parent = node;
+            final String wanted = names[i];
+            final Node[] found = { null };
+            forEachEntry(parent.id, (name, mode, id) -> {
+                if (name.equals(wanted)) {
+                    found[0] = new Node(mode, id, parent.treePath() + name);
+                }
+            });
+            node = found[0];
+            if (node == null) {
+                return null;
+            }
+            if ((node.mode & MODE_TYPE_MASK) == MODE_SYMBOLIC_LINK) {
+                final StringBuilder rest = new StringBuilder(resolveLink(parent.treePath(), node.id));
+                for (int j = i + 1; j < names.length; j++) {
+                    rest.append('/').append(names[j]);
+                }
+                return lookup(rest.toString(), links + 1);
+            }
+        }
+        return node;
+    }
+
+    /** Joins the target of a symbolic link with the directory which contains it, normalising the path */
+    private String resolveLink(final String parent, final byte[] linkId) throws IOException {
+        final String target = new String(repository.read(linkId).data, StandardCharsets.UTF_8);
+        if (target.startsWith("/")) {
+            throw new IOException("Symbolic link in '" + parent + "' points to an absolute path, which cannot be read from the repository: '" + target + '\'');
+        }
+        final List<String> names = new ArrayList<>(Arrays.asList(parent.split("/")));
+        names.removeIf(String::isEmpty);
+        for (final String name : target.split("/")) {
+            if (name.equals("..")) {
+                if (names.isEmpty()) {
+                    throw new IOException("Symbolic link in '" + parent + "' points outside of the repository: '" + target + '\'');
+                }
+                names.remove(names.size() - 1);
+            } else if (!name.isEmpty() && !name.equals(".")) {
+                names.add(name);
+            }
+        }
+        return String.join("/", names);
+    }
+
+    private void walk(final String relativePath, final Node node, final int links) throws IOException {
+        control.checkCancelled();
+        if (node.isTree()) {
+            final List<Node> children = new ArrayList<>();
+            final List<String> names = new ArrayList<>();
+            forEachEntry(node.id, (name, mode, id) -> {
+                names.add(name);
+                children.add(new Node(mode, id, node.treePath() + name));
+            });
+            for (int i = 0; i < names.size(); i++) {
+                final String name = names.get(i);
+                Node child = children.get(i);
+                int childLinks = links;
+                if ((child.mode & MODE_TYPE_MASK) == MODE_SYMBOLIC_LINK) {
+                    final String target = resolveLink(node.treePath(), child.id);
+                    childLinks++;
+                    child = lookup(target, childLinks);
+                    if (child == null) {
+                        throw new IOException("Symbolic link '" + relativePath + name + "' points to a missing path: '" + target + '\'');
+                    }
+                }
+                if ((child.mode & MODE_TYPE_MASK) == MODE_GITLINK) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Skipping submodule '" + relativePath + name + "', which is an empty directory in a checkout");
+                    }
+                    continue;
+                }
+                final String childPath = relativePath + name + (child.isTree() ? "/" : "");
+                if (blacklist != null && !WhiteWalker.verify(logger, blacklist, new StringBuilder(childPath))) {
+                    continue;
+                }
+                if (childLinks > MAX_SYMBOLIC_LINKS) {
+                    throw new IOException("Too many levels of symbolic links in: '" + childPath + '\'');
+                }
+                walk(childPath, child, childLinks);
+            }
+        } else if (!results.containsKey(relativePath)) {
+            results.put(relativePath, hash(node.id));
+            if (results.size() % PROGRESS_INTERVAL == 0) {
+                control.progress(results.size(), -1L);
+            }
+        }
+    }
+
+    private byte[] hash(final byte[] blobId) throws IOException {
+        if (reuseIds) {
+            return blobId;
+        }
+        final GitRepository.GitObject blob = repository.read(blobId);
+        blobsRead++;
+        final MessageDigest md = algorithm.init(blob.data.length);
+        return md.digest(blob.data);
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    public static HashResults apply(final Logger logger, final HashPlan hashPlan, final Algorithm algorithm, final String revision) throws Exception {
+        return apply(logger, hashPlan, algorithm, revision, RunControl.NONE);
+    }
+
+    static HashResults apply(final Logger logger, final HashPlan hashPlan, final Algorithm algorithm, final String revision, final RunControl control) throws Exception {
+        final long startAt = System.nanoTime();
+        try (final GitRepository repository = GitRepository.find(hashPlan.basePath)) {
+            if (repository == null) {
+                throw new IOException("Base path '" + hashPlan.basePath + "' is not inside a Git work tree");
+            }
+            final byte[] rootTree = repository.resolveTree(revision);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Resolved revision '" + revision + "' to tree " + Format.hex(rootTree) +
+                        " in " + Format.dir(repository.workTree));
+            }
+
+            final Matcher blacklist = hashPlan.blacklist == null ? null : hashPlan.blacklist.matcher("");
+            final GitTreeWalker walker = new GitTreeWalker(logger, algorithm, repository, rootTree, blacklist, control);
+            for (final String whitelistPath : hashPlan.whitelist) {
+                final String path = whitelistPath.replace('\\', '/');
+                if (!path.startsWith(hashPlan.basePath)) {
+                    throw new IllegalArgumentException("Child path '" + path + "' does not start with '" + hashPlan.basePath + '\'');
+                }
+                final String relativePath = path.substring(hashPlan.basePath.length()).replaceFirst("/+$", "");
+                final Node node = walker.lookup(repository.prefix + relativePath, 0);
+                if (node == null) {
+                    throw new IOException("Path '" + relativePath + "' does not exist in revision '" + revision + '\'');
+                }
+                final String rootPath = relativePath.isEmpty() || !node.isTree() ? relativePath : relativePath + '/';
+                if (blacklist == null || rootPath.isEmpty() || WhiteWalker.verify(logger, blacklist, new StringBuilder(rootPath))) {
+                    walker.walk(rootPath, node, 0);
+                }
+            }
+
+            control.progress(walker.results.size(), -1L);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Walked revision '" + revision + "' with " + Format.i(walker.results.size()) +
+                        " files, reading " + Format.i(walker.blobsRead) + " blobs" + Format.timeNanos(startAt));
+            }
+            return HashResults.apply(logger, algorithm, walker.results.entrySet());
+        }
+    }
+}
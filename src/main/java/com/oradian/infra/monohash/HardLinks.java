@@ -0,0 +1,122 @@
+package com.oradian.infra.monohash;
+
+import com.oradian.infra.monohash.util.Format;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Digests of files with more than one hard link, so that each physical file is read only once per run.
+  * Files are keyed by their device and inode, together with the size and modification time so that a file which
+  * changes while it is being walked is hashed again. Workers which reach a file that another worker is still
+  * hashing wait for its digest instead of reading the same file twice. */
+final class HardLinks {
+    /** Identity of a physical file at the time its attributes were read */
+    private static final class Key {
+        final Object fileKey;
+        final long size;
+        final FileTime mtime;
+
+        Key(final Object fileKey, final long size, final FileTime mtime) {
+            this.fileKey = fileKey;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return fileKey.equals(that.fileKey) && size == that.size && mtime.equals(that.mtime);
+        }
+
+        @Override
+        public int hashCode() {
+            return fileKey.hashCode() * 31 + Long.hashCode(size);
+        }
+    }
+
+    private final Logger logger;
+    private final ConcurrentHashMap<Key, CompletableFuture<byte[]>> digests;
+    final LongAdder reused;
+
+    private HardLinks(final Logger logger) {
+        this.logger = logger;
+        this.digests = new ConcurrentHashMap<>();
+        this.reused = new LongAdder();
+    }
+
+    /** Returns null if the file system does not expose link counts and inodes */
+    static HardLinks create(final Logger logger) {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("unix")) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Deduplicating hard links requires a file system with unix attributes, all files will be hashed");
+            }
+            return null;
+        }
+        return new HardLinks(logger);
+    }
+
+    int size() {
+        return digests.size();
+    }
+
+    /** Hashes the file with the worker, unless another path of the same physical file was (or is being) hashed */
+    byte[] hash(final File file, final HashWorker hasher) throws IOException {
+        final Map<String, Object> attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), "unix:nlink,fileKey,size,lastModifiedTime");
+        } catch (final IOException | InvalidPathException e) {
+            // e.g. a broken symbolic link, let the worker report it
+            return hasher.hashFile(file);
+        }
+        final Object fileKey = attributes.get("fileKey");
+        if ((Integer) attributes.get("nlink") < 2 || fileKey == null) {
+            return hasher.hashFile(file);
+        }
+
+        final Key key = new Key(fileKey, (Long) attributes.get("size"), (FileTime) attributes.get("lastModifiedTime"));
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        final CompletableFuture<byte[]> existing = digests.putIfAbsent(key, future);
+        if (existing == null) {
+            final byte[] hash;
+            try {
+                hash = hasher.hashFile(file);
+            } catch (final Throwable t) {
+                // waiting workers read the file on their own, which either succeeds or reports the error for their path,
+                // errors such as running out of memory must not leave them waiting forever
+                digests.remove(key, future);
+                future.completeExceptionally(t);
+                throw t;
+            }
+            future.complete(hash);
+            return hash;
+        }
+
+        final byte[] hash;
+        try {
+            hash = existing.get();
+        } catch (final ExecutionException e) {
+            return hasher.hashFile(file);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the hash of " + Format.file(file));
+        }
+        reused.increment();
+        if (logger.isTraceEnabled()) {
+            logger.trace("Reused hash of hard linked file " + Format.file(file) + ": " + Format.hex(hash));
+        }
+        return hash.clone();
+    }
+}
@@ -1,41 +1,62 @@
 package com.oradian.infra.monohash;
 
 import com.oradian.infra.monohash.param.Algorithm;
+import com.oradian.infra.monohash.param.Compression;
+import com.oradian.infra.monohash.param.Fsync;
+import com.oradian.infra.monohash.util.BlockDeflate;
 import com.oradian.infra.monohash.util.Format;
 import com.oradian.infra.monohash.util.Hex;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.charset.CharacterCodingException;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.*;
 import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.Executor;
 
 public final class HashResults {
     private final Logger logger;
     public final Algorithm algorithm;
-    private final byte[] lines;
+
+    // At least one of the two representations is always present, the other one is derived lazily.
+    // Results read from an export file start out as lines, while the results of hashing start out as entries,
+    // which means that hex encoding is deferred until the export and hex decoding is skipped on diffing.
+    private byte[] linesCache;
+    private Entries entriesCache;
 
     HashResults(
             final Logger logger,
             final Algorithm algorithm,
             final byte[] lines,
-            final int[] newlines) {
+            final int[] newlines,
+            final Entries entries,
+            final byte[] hash) {
         this.logger = logger;
         this.algorithm = algorithm;
-        this.lines = lines;
+        this.linesCache = lines;
         this.newlinesCache = newlines;
+        this.entriesCache = entries;
+        this.hashCache = hash;
     }
 
     private byte[] hashCache;
     private synchronized void calcHashCache() {
         if (hashCache == null) {
             final long startAt = System.nanoTime();
-            final MessageDigest md = algorithm.init(lines.length);
-            hashCache = md.digest(lines);
+            if (linesCache != null) {
+                final MessageDigest md = algorithm.init(linesCache.length);
+                hashCache = md.digest(linesCache);
+            } else {
+                final MessageDigest md = algorithm.init(entriesCache.linesLength());
+                entriesCache.digestLines(md);
+                hashCache = md.digest();
+            }
             if (logger.isTraceEnabled()) {
                 logger.trace("Calculated total hash: " + Format.hex(hashCache) + Format.timeNanos(startAt));
             }
@@ -60,9 +81,30 @@ public final class HashResults {
         return hexHashCache;
     }
 
+    synchronized byte[] lines() {
+        if (linesCache == null) {
+            final long startAt = System.nanoTime();
+            final Entries entries = entriesCache;
+            final byte[] lines = new byte[(int) entries.linesLength()];
+            final int[] newlines = new int[entries.size];
+            int pos = 0;
+            for (int i = 0; i < newlines.length; i++) {
+                pos = entries.writeLine(i, lines, pos);
+                newlines[i] = pos;
+            }
+            linesCache = lines;
+            newlinesCache = newlines;
+            if (logger.isTraceEnabled()) {
+                logger.trace("Encoded export lines" + Format.timeNanos(startAt));
+            }
+        }
+        return linesCache;
+    }
+
     private int[] newlinesCache;
-    private int[] newlines() {
+    private synchronized int[] newlines() {
         if (newlinesCache == null) {
+            final byte[] lines = lines();
             int[] buffer = new int[lines.length >>> 7]; // guesstimate on avg. line length
             int newlineCount = 0;
             for (int i = 0; i < lines.length; i++) {
@@ -91,67 +133,190 @@ public final class HashResults {
         return newlinesCache;
     }
 
-    /** Export the hashes and relative paths into a file, returning the summary hash of the newly exported file
-     * If outFile was empty, it will perform the export in memory and return the same hash */
+    /** Export the hashes and relative paths into a file, without forcing it to disk */
     public void export(final File outFile) throws IOException {
+        export(outFile, Fsync.OFF);
+    }
+
+    /** Export the hashes and relative paths into a temporary file next to the export file, and atomically rename it
+      * into place once fully written, so that a crash cannot leave a truncated export file behind.
+      * A read-only export file is not replaced, even though the rename itself would be allowed. */
+    public void export(final File outFile, final Fsync fsync) throws IOException {
+        export(outFile, fsync, Compression.OFF, 1);
+    }
+
+    /** Compressed exports are compressed in blocks using up to the specified number of threads,
+      * the summary hash is still defined over the uncompressed export lines */
+    public void export(final File outFile, final Fsync fsync, final Compression compression, final int threads) throws IOException {
+        export(outFile, fsync, compression, threads, null);
+    }
+
+    /** Blocks are compressed on the executor if there is one, otherwise on new threads */
+    public void export(final File outFile, final Fsync fsync, final Compression compression, final int threads, final Executor executor) throws IOException {
         final long startAt = System.nanoTime();
-        Files.write(outFile.toPath(), lines);
+        final Path target = outFile.toPath();
+        if (Files.exists(target) && !Files.isWritable(target)) {
+            throw new AccessDeniedException(outFile.getPath(), null, "Export file is not writable");
+        }
+
+        final Path parent = target.toAbsolutePath().getParent();
+        final Path temp = parent.resolve('.' + outFile.getName() + '.' + UUID.randomUUID() + ".tmp");
+        try {
+            try (final FileChannel fc = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                if (compression == Compression.DEFLATE) {
+                    final long compressAt = System.nanoTime();
+                    final ByteBuffer[] buffers = BlockDeflate.compress(lines(), threads, executor);
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("Compressed export lines into " + Format.i(buffers.length - 1) + " blocks" + Format.timeNanos(compressAt));
+                    }
+                    while (buffers[buffers.length - 1].hasRemaining()) {
+                        fc.write(buffers);
+                    }
+                } else {
+                    final ByteBuffer buffer = ByteBuffer.wrap(lines());
+                    while (buffer.hasRemaining()) {
+                        fc.write(buffer);
+                    }
+                }
+                if (fsync != Fsync.OFF) {
+                    fc.force(fsync == Fsync.FULL);
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException e) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Atomic move is not supported, replacing the [export file] non-atomically: " + Format.file(outFile));
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        if (fsync == Fsync.FULL) {
+            // directories cannot be opened for syncing on all platforms (e.g. Windows), this is a best effort
+            try (final FileChannel dir = FileChannel.open(parent, StandardOpenOption.READ)) {
+                dir.force(true);
+            } catch (final IOException e) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Could not fsync the [export file] directory: " + e.getMessage());
+                }
+            }
+        }
         if (logger.isTraceEnabled()) {
             logger.trace("Wrote to [export file]: " + Format.file(outFile) + Format.timeNanos(startAt));
         }
     }
 
     public int size() {
-        return newlines().length;
+        return entriesCache != null ? entriesCache.size : newlines().length;
     }
 
-    public LinkedHashMap<String, byte[]> toMap() throws ExportParsingException {
-        final LinkedHashMap<String, byte[]> result = new LinkedHashMap<>();
+    /** Parsed view over the results, which does not decode the paths nor allocate per entry */
+    public Entries entries() throws ExportParsingException {
+        if (entriesCache == null) {
+            parseEntries();
+        }
+        return entriesCache;
+    }
+
+    private synchronized void parseEntries() throws ExportParsingException {
+        if (entriesCache != null) {
+            return;
+        }
+        final long startAt = System.nanoTime();
+        final byte[] lines = linesCache;
         final int[] nls = newlines();
+        final int digestLength = algorithm.lengthInBytes;
+        final int hexLength = digestLength << 1;
+
+        final byte[] digests = new byte[nls.length * digestLength];
+        final int[] pathStarts = new int[nls.length];
+        final int[] pathEnds = new int[nls.length];
+
+        // the paths are not decoded, just validated - the buffers are reused across all lines
         final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder();
+        final ByteBuffer in = ByteBuffer.wrap(lines);
+        CharBuffer out = CharBuffer.allocate(256);
 
         for (int index = 0; index < nls.length; index++) {
             final int lastEnd = index == 0 ? 0 : nls[index - 1];
             final int lineLength = nls[index] - lastEnd;
 
-            final byte[] lineHash;
+            if (lineLength - 1 < hexLength) {
+                final String line = new String(lines, lastEnd, lineLength - 1, StandardCharsets.UTF_8);
+                throw new ExportParsingException("Cannot parse export line #" + (index + 1) + ": " + line);
+            }
             try {
-                lineHash = Hex.fromHex(lines, lastEnd, algorithm.lengthInBytes << 1);
+                Hex.fromHex(lines, lastEnd, hexLength, digests, index * digestLength);
             } catch (final NumberFormatException e) {
                 final String line = new String(lines, lastEnd, lineLength - 1, StandardCharsets.UTF_8);
                 throw new ExportParsingException("Cannot parse export line #" + (index + 1) + ": " + line, e);
             }
 
-            final int pathOffset = lastEnd + (algorithm.lengthInBytes << 1) + 1;
-            if (lines[pathOffset - 1] != ' ') {
+            final int pathOffset = lastEnd + hexLength + 1;
+            if (lineLength - 1 == hexLength || lines[pathOffset - 1] != ' ') {
                 final String line = new String(lines, lastEnd, lineLength - 1, StandardCharsets.UTF_8);
                 throw new ExportParsingException("Could not split hash from path in export line #" + (index + 1) + ": " + line);
             }
 
-            final int pathByteLength = lineLength - (algorithm.lengthInBytes << 1) - 2;
-            final ByteBuffer bb = ByteBuffer.wrap(lines, pathOffset, pathByteLength);
-            final String path;
-            try {
-                path = utf8.decode(bb).toString();
-            } catch (final CharacterCodingException e) {
+            final int pathByteLength = lineLength - hexLength - 2;
+            if (out.capacity() < pathByteLength) {
+                out = CharBuffer.allocate(pathByteLength);
+            }
+            out.clear();
+            in.limit(pathOffset + pathByteLength);
+            in.position(pathOffset);
+            utf8.reset();
+            CoderResult result = utf8.decode(in, out, true);
+            if (!result.isError()) {
+                result = utf8.flush(out);
+            }
+            if (result.isError()) {
                 final String line = new String(lines, lastEnd, lineLength - 1, StandardCharsets.UTF_8);
-                throw new ExportParsingException("Could not decode export line #" + (index + 1) + " using UTF-8: " + line, e);
+                final ExportParsingException epe = new ExportParsingException("Could not decode export line #" + (index + 1) + " using UTF-8: " + line);
+                try {
+                    result.throwException();
+                } catch (final Exception e) {
+                    epe.initCause(e);
+                }
+                throw epe;
             }
-            if (path.isEmpty()) {
+            if (pathByteLength == 0) {
                 final String line = new String(lines, lastEnd, lineLength - 1, StandardCharsets.UTF_8);
                 throw new ExportParsingException("Path was empty on line #" + (index + 1) + ": " + line);
             }
-            if (result.put(path, lineHash) != null) {
+            pathStarts[index] = pathOffset;
+            pathEnds[index] = pathOffset + pathByteLength;
+        }
+
+        entriesCache = new Entries(digestLength, digests, lines, pathStarts, pathEnds);
+        if (logger.isTraceEnabled()) {
+            logger.trace("Parsed " + Format.i(nls.length) + " export lines" + Format.timeNanos(startAt));
+        }
+    }
+
+    public LinkedHashMap<String, byte[]> toMap() throws ExportParsingException {
+        final Entries entries = entries();
+        final LinkedHashMap<String, byte[]> result = new LinkedHashMap<>();
+        for (int index = 0; index < entries.size; index++) {
+            final String path = entries.path(index);
+            if (result.put(path, entries.digest(index)) != null) {
                 throw new ExportParsingException("At least two export lines found with identical paths '" + path + '\'');
             }
         }
-
         return result;
     }
 
+    private long linesLength() {
+        final byte[] lines = linesCache;
+        return lines != null ? lines.length : entriesCache.linesLength();
+    }
+
     @Override
     public int hashCode() {
-        return lines.length;
+        return (int) linesLength();
     }
 
     @Override
@@ -163,41 +328,276 @@ public final class HashResults {
             return false;
         }
         final HashResults that = (HashResults) obj;
-        return Arrays.equals(lines, that.lines);
+        if (linesLength() != that.linesLength()) {
+            return false;
+        }
+        // avoid materialising the export lines, unless both results already have them
+        final byte[] thisLines = linesCache;
+        final byte[] thatLines = that.linesCache;
+        if (thisLines != null && thatLines != null) {
+            return Arrays.equals(thisLines, thatLines);
+        }
+        if (thisLines != null) {
+            return that.entriesCache.linesEqual(thisLines);
+        }
+        return entriesCache.linesEqual(that.lines());
     }
 
     public static HashResults apply(final Logger logger, final Algorithm algorithm, final byte[] lines) {
-        return new HashResults(logger, algorithm, lines, null);
+        return new HashResults(logger, algorithm, lines, null, null, null);
     }
 
     public static HashResults apply(final Logger logger, final Algorithm algorithm, final Collection<Map.Entry<String, byte[]>> entries) {
-        final ArrayList<byte[]> lineBuffer = new ArrayList<>();
-        int totalLength = 0;
+        final Appender appender = new Appender(logger, algorithm, entries.size());
         for (final Map.Entry<String, byte[]> pathHashes : entries) {
-            final byte[] hash = pathHashes.getValue();
-            lineBuffer.add(hash);
-            final byte[] path = pathHashes.getKey().getBytes(StandardCharsets.UTF_8);
-            lineBuffer.add(path);
-            totalLength += (hash.length << 1) + 1 + path.length + 1;
+            appender.append(pathHashes.getKey(), pathHashes.getValue());
         }
+        return appender.finish();
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
 
-        final byte[] lines = new byte[totalLength];
-        final int[] newlines = new int[lineBuffer.size() >>> 1];
+    /** Digests are stored back to back in a single array, while the paths are slices of UTF-8 bytes -
+      * either in a dedicated array, or inside the export lines they were parsed from.
+      * Digests and paths can be compared in place, allocation only happens when extracting an entry. */
+    public static final class Entries {
+        public final int size;
 
-        int pos = 0;
-        for (int i = 0; i < newlines.length; i ++) {
-            final byte[] hash = lineBuffer.get(i << 1);
-            Hex.toHex(hash, 0, hash.length, lines, pos);
-            pos += hash.length << 1;
-            lines[pos++] = ' ';
+        private final int digestLength;
+        private final byte[] digests;
+        private final byte[] paths;
+        private final int[] pathStarts;
+        private final int[] pathEnds;
+        private final long linesLength; // hashCode and equals of the results rely on it
 
-            final byte[] path = lineBuffer.get((i << 1) + 1);
-            System.arraycopy(path, 0, lines, pos, path.length);
-            pos += path.length;
-            lines[pos++] = '\n';
+        Entries(
+                final int digestLength,
+                final byte[] digests,
+                final byte[] paths,
+                final int[] pathStarts,
+                final int[] pathEnds) {
+            this.size = pathEnds.length;
+            this.digestLength = digestLength;
+            this.digests = digests;
+            this.paths = paths;
+            this.pathStarts = pathStarts;
+            this.pathEnds = pathEnds;
 
-            newlines[i] = pos;
+            long linesLength = 0L;
+            for (int i = 0; i < size; i++) {
+                linesLength += lineLength(i);
+            }
+            this.linesLength = linesLength;
+        }
+
+        public String path(final int index) {
+            final int start = pathStarts[index];
+            return new String(paths, start, pathEnds[index] - start, StandardCharsets.UTF_8);
+        }
+
+        public byte[] digest(final int index) {
+            final int offset = index * digestLength;
+            return Arrays.copyOfRange(digests, offset, offset + digestLength);
+        }
+
+        public boolean digestEquals(final int index, final Entries that, final int thatIndex) {
+            if (digestLength != that.digestLength) {
+                return false;
+            }
+            int i = index * digestLength;
+            int j = thatIndex * digestLength;
+            final int end = i + digestLength;
+            while (i < end) {
+                if (digests[i++] != that.digests[j++]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int digestHashCode(final int index) {
+            int result = 1;
+            final int offset = index * digestLength;
+            for (int i = offset; i < offset + digestLength; i++) {
+                result = 31 * result + digests[i];
+            }
+            return result;
+        }
+
+        /** Compares two paths in the same order as String.compareTo would compare their decoded counterparts.
+          * UTF-8 byte order corresponds to code point order, which deviates from UTF-16 order only on the lead bytes
+          * of U+E000 - U+FFFF (0xEE, 0xEF) and supplementary characters (0xF0 - 0xF4) - these get swapped around. */
+        public int comparePaths(final int index, final Entries that, final int thatIndex) {
+            int i = pathStarts[index];
+            final int iEnd = pathEnds[index];
+            int j = that.pathStarts[thatIndex];
+            final int jEnd = that.pathEnds[thatIndex];
+            while (i < iEnd && j < jEnd) {
+                final int a = paths[i++] & 0xff;
+                final int b = that.paths[j++] & 0xff;
+                if (a != b) {
+                    return utf16Order(a) - utf16Order(b);
+                }
+            }
+            return (iEnd - i) - (jEnd - j);
+        }
+
+        private static int utf16Order(final int b) {
+            return b < 0xee ? b : b < 0xf0 ? b + 0x10 : b - 0x02;
+        }
+
+        private int lineLength(final int index) {
+            return (digestLength << 1) + 1 + (pathEnds[index] - pathStarts[index]) + 1;
+        }
+
+        long linesLength() {
+            return linesLength;
+        }
+
+        /** Writes the export line (including the trailing newline), returns the position after the line */
+        int writeLine(final int index, final byte[] dst, final int dstOff) {
+            Hex.toHex(digests, index * digestLength, digestLength, dst, dstOff);
+            int pos = dstOff + (digestLength << 1);
+            dst[pos++] = ' ';
+            final int start = pathStarts[index];
+            final int length = pathEnds[index] - start;
+            System.arraycopy(paths, start, dst, pos, length);
+            pos += length;
+            dst[pos++] = '\n';
+            return pos;
+        }
+
+        void digestLines(final MessageDigest md) {
+            byte[] buffer = new byte[256];
+            for (int i = 0; i < size; i++) {
+                final int length = lineLength(i);
+                if (buffer.length < length) {
+                    buffer = new byte[length << 1];
+                }
+                writeLine(i, buffer, 0);
+                md.update(buffer, 0, length);
+            }
+        }
+
+        boolean linesEqual(final byte[] lines) {
+            byte[] buffer = new byte[256];
+            int pos = 0;
+            for (int i = 0; i < size; i++) {
+                final int length = lineLength(i);
+                if (buffer.length < length) {
+                    buffer = new byte[length << 1];
+                }
+                writeLine(i, buffer, 0);
+                if (lines.length - pos < length) {
+                    return false;
+                }
+                for (int j = 0; j < length; j++) {
+                    if (buffer[j] != lines[pos + j]) {
+                        return false;
+                    }
+                }
+                pos += length;
+            }
+            return pos == lines.length;
+        }
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    /** Builds the entries incrementally, they must be appended in their final (sorted) order.
+      * The total hash is digested on the fly, so that it's ready as soon as the last entry was appended.
+      * Not thread safe, but can be handed off across threads as long as appends are properly synchronized. */
+    static final class Appender {
+        private final Logger logger;
+        private final Algorithm algorithm;
+        private final int digestLength;
+        private final long startAt;
+
+        /** null in case of GIT, as its header requires the total length up front */
+        private final MessageDigest md;
+        private final byte[] hexBuffer;
+
+        private byte[] digests;
+        private byte[] paths;
+        private int pathsLength;
+        private int[] pathEnds;
+        private int count;
+
+        Appender(final Logger logger, final Algorithm algorithm, final int sizeHint) {
+            this.logger = logger;
+            this.algorithm = algorithm;
+            this.digestLength = algorithm.lengthInBytes;
+            this.startAt = System.nanoTime();
+            this.md = algorithm.name.equals(Algorithm.GIT) ? null : algorithm.newDigest();
+            this.hexBuffer = new byte[(digestLength << 1) + 1];
+            hexBuffer[digestLength << 1] = ' ';
+
+            final int initialCount = Math.min(Math.max(sizeHint, 16), 1 << 20);
+            this.digests = new byte[initialCount * digestLength];
+            this.paths = new byte[initialCount << 6]; // guesstimate on avg. path length
+            this.pathEnds = new int[initialCount];
+        }
+
+        void append(final String path, final byte[] hash) {
+            final byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(pathBytes.length);
+            System.arraycopy(pathBytes, 0, paths, pathsLength, pathBytes.length);
+            appendDigest(hash, pathsLength + pathBytes.length);
+        }
+
+        /** Copies the path bytes straight out of the trie, without materialising the relative path as a String */
+        void append(final PathTrie path, final byte[] hash) {
+            ensureCapacity(path.pathLength);
+            appendDigest(hash, path.writeTo(paths, pathsLength));
+        }
+
+        private void ensureCapacity(final int pathLength) {
+            if (paths.length - pathsLength < pathLength) {
+                paths = Arrays.copyOf(paths, Math.max(paths.length << 1, pathsLength + pathLength));
+            }
+            if (pathEnds.length == count) {
+                pathEnds = Arrays.copyOf(pathEnds, count << 1);
+                digests = Arrays.copyOf(digests, (count << 1) * digestLength);
+            }
+        }
+
+        private void appendDigest(final byte[] hash, final int pathEnd) {
+            if (hash.length != digestLength) {
+                throw new IllegalArgumentException("Expected a digest of " + digestLength + " bytes, got: " + hash.length);
+            }
+            System.arraycopy(hash, 0, digests, count * digestLength, digestLength);
+            if (md != null) {
+                Hex.toHex(hash, 0, digestLength, hexBuffer, 0);
+                md.update(hexBuffer);
+                md.update(paths, pathsLength, pathEnd - pathsLength);
+                md.update((byte) '\n');
+            }
+            pathsLength = pathEnd;
+            pathEnds[count++] = pathEnd;
+        }
+
+        HashResults finish() {
+            final byte[] hash;
+            if (md != null) {
+                hash = md.digest();
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Calculated total hash while appending: " + Format.hex(hash) + Format.timeNanos(startAt));
+                }
+            } else {
+                hash = null;
+            }
+            final int[] finalPathEnds = Arrays.copyOf(pathEnds, count);
+            final int[] pathStarts = new int[count];
+            for (int i = 1; i < count; i++) {
+                pathStarts[i] = finalPathEnds[i - 1];
+            }
+            final Entries entries = new Entries(
+                    digestLength,
+                    digests.length == count * digestLength ? digests : Arrays.copyOf(digests, count * digestLength),
+                    paths.length == pathsLength ? paths : Arrays.copyOf(paths, pathsLength),
+                    pathStarts,
+                    finalPathEnds);
+            return new HashResults(logger, algorithm, null, null, entries, hash);
         }
-        return new HashResults(logger, algorithm, lines, newlines);
     }
 }
@@ -1,14 +1,21 @@
 package com.oradian.infra.monohash;
 
 import com.oradian.infra.monohash.param.Algorithm;
+import com.oradian.infra.monohash.param.ReadMode;
+import com.oradian.infra.monohash.util.DirectIo;
 import com.oradian.infra.monohash.util.Format;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.LongAdder;
 
 public final class HashWorker {
@@ -17,46 +24,288 @@ public final class HashWorker {
       * This may become configurable in the future, but it's overkill for now. */
     private static final int BUFFER_SIZE = 64 * 1024;
 
+    /** Files up to this size are read with a single call into a heap array, which skips the channel and the copy
+      * that digesting a direct buffer implies - also the largest read which the JDK serves from a stack buffer */
+    private static final int SMALL_FILE_SIZE = 8 * 1024;
+
+    /** Every chunk read ahead costs a handoff to the reader thread, larger chunks amortise it */
+    private static final int AHEAD_BUFFER_SIZE = 256 * 1024;
+
     private final Logger logger;
     private final Algorithm algorithm;
     private final LongAdder bytesHashed;
+    private final RateLimiter rateLimiter; // null unless reads are limited
+    private final RunControl control;
 
     private final ByteBuffer buffer;
+    private final ByteBuffer aheadBuffer; // null unless reading ahead
+    private final byte[] smallFile;
+    private final boolean direct;
+
+    /** Buffers of a single worker, sized for its read mode */
+    static final class Buffers {
+        final ReadMode readMode;
+        final ByteBuffer buffer;
+        final ByteBuffer aheadBuffer;
+        final byte[] smallFile;
+
+        Buffers(final ReadMode readMode) {
+            this.readMode = readMode;
+            // allocateDirect consistently wins over allocate in heap (~1% faster on same BUFFER_SIZE)
+            // allocateDirect consistently wins over vanilla byte[] (~3% faster on same BUFFER_SIZE)
+            if (readMode == ReadMode.DIRECT) {
+                // the kernel does not read ahead on direct I/O, so this mode always reads ahead on its own
+                buffer = DirectIo.allocate(AHEAD_BUFFER_SIZE);
+                aheadBuffer = DirectIo.allocate(AHEAD_BUFFER_SIZE);
+            } else if (readMode == ReadMode.ASYNC) {
+                buffer = ByteBuffer.allocateDirect(AHEAD_BUFFER_SIZE);
+                aheadBuffer = ByteBuffer.allocateDirect(AHEAD_BUFFER_SIZE);
+            } else {
+                buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                aheadBuffer = null;
+            }
+            smallFile = new byte[SMALL_FILE_SIZE];
+        }
+    }
 
     public HashWorker(
             final Logger logger,
             final Algorithm algorithm,
             final LongAdder bytesHashed) {
+        this(logger, algorithm, ReadMode.DEFAULT, bytesHashed);
+    }
+
+    public HashWorker(
+            final Logger logger,
+            final Algorithm algorithm,
+            final ReadMode readMode,
+            final LongAdder bytesHashed) {
+        this(logger, algorithm, bytesHashed, new Buffers(readMode), null, RunControl.NONE);
+    }
+
+    /** Hashes with buffers which may come from a pool, the caller releases them once it is done with this worker.
+      * The rate limiter is shared by all the workers of a run, files which fail to open are also counted.
+      * Cancelling the run is checked between the buffers of a file, so that a large file does not hold up the run. */
+    HashWorker(
+            final Logger logger,
+            final Algorithm algorithm,
+            final LongAdder bytesHashed,
+            final Buffers buffers,
+            final RateLimiter rateLimiter,
+            final RunControl control) {
         this.logger = logger;
         this.algorithm = algorithm;
         this.bytesHashed = bytesHashed;
-        // allocateDirect consistently wins over allocate in heap (~1% faster on same BUFFER_SIZE)
-        // allocateDirect consistently wins over vanilla byte[] (~3% faster on same BUFFER_SIZE)
-        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.rateLimiter = rateLimiter;
+        this.control = control;
+        buffer = buffers.buffer;
+        aheadBuffer = buffers.aheadBuffer;
+        smallFile = buffers.smallFile;
+        direct = buffers.readMode == ReadMode.DIRECT;
     }
 
     /** Not thread safe, reuses buffer and digest */
     public byte[] hashFile(final File file) throws IOException {
         final long startAt = System.nanoTime();
-        try (final RandomAccessFile raf = new RandomAccessFile(file, "r");
-             final FileChannel fc = raf.getChannel()) {
+        if (rateLimiter != null) {
+            rateLimiter.acquireFile();
+        }
+        final byte[] result = direct ? hashDirect(file) : hashRegular(file);
+        if (logger.isTraceEnabled()) {
+            logger.trace("Hashed file " + Format.file(file) + ": " + Format.hex(result) + Format.timeNanos(startAt));
+        }
+        return result;
+    }
+
+    private byte[] hashDirect(final File file) throws IOException {
+        final FileChannel direct = DirectIo.open(file.toPath());
+        if (direct == null) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("Could not open file " + Format.file(file) + " for direct I/O, reading it through the page cache");
+            }
+            return hashRegular(file);
+        }
+        try (final FileChannel fc = direct) {
             final MessageDigest md = algorithm.init(fc::size);
+            digestAhead(fc, md);
+            return md.digest();
+        }
+    }
 
-            while (true) {
-                buffer.clear();
-                final int read = fc.read(buffer);
-                if (read == -1) {
-                    break;
+    private byte[] hashRegular(final File file) throws IOException {
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final long length = raf.length();
+            final MessageDigest md = algorithm.init(length);
+            if (length == 0L) {
+                // e.g. /proc and /sys entries report no length, but their content is only found by reading to the end
+                digest(raf.getChannel(), md);
+            } else if (length <= SMALL_FILE_SIZE) {
+                digestSmall(raf, md, (int) length);
+            } else {
+                // closing the RandomAccessFile also closes its channel
+                final FileChannel fc = raf.getChannel();
+                if (aheadBuffer != null) {
+                    digestAhead(fc, md);
+                } else {
+                    digest(fc, md);
                 }
-                buffer.flip();
-                md.update(buffer);
+            }
+            return md.digest();
+        }
+    }
+
+    /** Reads the length which was reported for the file into the heap array, then confirms the end of the file.
+      * A file which grew since its length was taken continues to be read to its end through the channel. */
+    private void digestSmall(final RandomAccessFile raf, final MessageDigest md, final int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            final int read = raf.read(smallFile, total, length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        if (rateLimiter != null) {
+            rateLimiter.acquireBytes(total);
+        }
+        md.update(smallFile, 0, total);
+        bytesHashed.add(total);
+
+        if (total == length) {
+            final int next = raf.read();
+            if (next != -1) {
+                if (rateLimiter != null) {
+                    rateLimiter.acquireBytes(1);
+                }
+                md.update((byte) next);
+                bytesHashed.add(1);
+                // the channel shares the position of the RandomAccessFile, and continues after the probed byte
+                digest(raf.getChannel(), md);
+            }
+        }
+    }
+
+    private void digest(final FileChannel fc, final MessageDigest md) throws IOException {
+        while (true) {
+            control.checkCancelled();
+            buffer.clear();
+            final int read = fc.read(buffer);
+            if (read == -1) {
+                break;
+            }
+            if (rateLimiter != null) {
+                rateLimiter.acquireBytes(read);
+            }
+            buffer.flip();
+            md.update(buffer);
+            bytesHashed.add(read);
+        }
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    /** Reads are handed off to a shared pool, a dedicated reader per worker would mostly sit idle on small files */
+    private static final class Reader {
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "MonoHash reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        /** Readers are shared, so each read takes on the priority of the worker which is waiting for it */
+        static int read(final FileChannel fc, final ByteBuffer target, final long position, final int priority) throws IOException {
+            final Thread thread = Thread.currentThread();
+            if (thread.getPriority() != priority) {
+                thread.setPriority(priority);
+            }
+            return fc.read(target, position);
+        }
+    }
+
+    /** Alternates between two buffers, the next chunk is being read while the current one is digested.
+      * The first read is synchronous, so that small files which fit into a single buffer never leave this thread. */
+    private void digestAhead(final FileChannel fc, final MessageDigest md) throws IOException {
+        ByteBuffer current = buffer;
+        ByteBuffer next = aheadBuffer;
+        Future<Integer> pending = null;
+        final int priority = Thread.currentThread().getPriority();
+        try {
+            long position = 0L;
+            current.clear();
+            int read = fc.read(current, position);
+            while (read != -1) {
+                position += read;
+                if (rateLimiter != null) {
+                    // before reading ahead, so that the limit also holds back the next read
+                    rateLimiter.acquireBytes(read);
+                }
+                if (!current.hasRemaining()) {
+                    // a full buffer means there is probably more to come, start reading it before digesting
+                    final ByteBuffer target = next;
+                    final long targetPosition = position;
+                    target.clear();
+                    pending = Reader.EXECUTOR.submit(() -> Reader.read(fc, target, targetPosition, priority));
+                }
+
+                current.flip();
+                md.update(current);
                 bytesHashed.add(read);
+                // the pending read is awaited in the finally block
+                control.checkCancelled();
+
+                if (pending != null) {
+                    read = await(pending);
+                    pending = null;
+                    final ByteBuffer swap = current;
+                    current = next;
+                    next = swap;
+                } else if (position >= fc.size()) {
+                    // a short read reached the end, direct I/O would also reject the unaligned read past it
+                    break;
+                } else {
+                    current.clear();
+                    read = fc.read(current, position);
+                }
             }
-            final byte[] result = md.digest();
-            if (logger.isTraceEnabled()) {
-                logger.trace("Hashed file " + Format.file(file) + ": " + Format.hex(result) + Format.timeNanos(startAt));
+        } finally {
+            // the buffer must not be written to after this worker moves on to the next file
+            if (pending != null) {
+                awaitQuietly(pending);
+            }
+        }
+    }
+
+    private static int await(final Future<Integer> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not read ahead", cause);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final InterruptedIOException iioe = new InterruptedIOException("Interrupted while reading ahead");
+            iioe.initCause(e);
+            throw iioe;
+        }
+    }
+
+    private static void awaitQuietly(final Future<Integer> pending) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                pending.get();
+                break;
+            } catch (final ExecutionException e) {
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
             }
-            return result;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
     }
 }
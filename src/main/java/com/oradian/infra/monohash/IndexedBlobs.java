@@ -0,0 +1,366 @@
+package com.oradian.infra.monohash;
+
+import com.oradian.infra.monohash.util.Format;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Object IDs of the files tracked in a Git index, which the GIT algorithm reuses instead of hashing files whose
+  * stat data did not change since they were staged - this is the same check which `git status` relies on.
+  * Supports index versions 2 to 4 in SHA-1 repositories, see: https://git-scm.com/docs/index-format */
+final class IndexedBlobs {
+    private static final int ID_LENGTH = 20;
+
+    private static final int FLAG_ASSUME_VALID = 0x8000;
+    private static final int FLAG_EXTENDED = 0x4000;
+    private static final int FLAG_SKIP_WORKTREE = 0x4000;
+    private static final int FLAG_INTENT_TO_ADD = 0x2000;
+
+    private static final int MODE_TYPE_MASK = 0170000;
+    private static final int MODE_REGULAR_FILE = 0100000;
+
+    /** Stat data as stored in the index, where all the values are truncated to 32 bits */
+    private static final class Blob {
+        final int ctimeSec;
+        final int ctimeNsec;
+        final int mtimeSec;
+        final int mtimeNsec;
+        final int ino;
+        final int size;
+        final byte[] id;
+
+        Blob(final ByteBuffer buffer, final byte[] id) {
+            this.ctimeSec = buffer.getInt();
+            this.ctimeNsec = buffer.getInt();
+            this.mtimeSec = buffer.getInt();
+            this.mtimeNsec = buffer.getInt();
+            buffer.getInt(); // dev
+            this.ino = buffer.getInt();
+            buffer.getInt(); // mode, checked while parsing
+            buffer.getInt(); // uid
+            buffer.getInt(); // gid
+            this.size = buffer.getInt();
+            this.id = id;
+        }
+
+        Blob(final DataInputStream in) throws IOException {
+            this.ctimeSec = in.readInt();
+            this.ctimeNsec = in.readInt();
+            this.mtimeSec = in.readInt();
+            this.mtimeNsec = in.readInt();
+            this.ino = in.readInt();
+            this.size = in.readInt();
+            this.id = new byte[ID_LENGTH];
+            in.readFully(id);
+        }
+
+        void write(final DataOutputStream out) throws IOException {
+            out.writeInt(ctimeSec);
+            out.writeInt(ctimeNsec);
+            out.writeInt(mtimeSec);
+            out.writeInt(mtimeNsec);
+            out.writeInt(ino);
+            out.writeInt(size);
+            out.write(id);
+        }
+    }
+
+    private final Logger logger;
+    private final Map<String, Blob> blobs; // keyed by the path relative to the base path of the hash plan
+    private String[] sortedPaths; // built on the first subtree lookup
+    final LongAdder reused;
+
+    private IndexedBlobs(final Logger logger, final Map<String, Blob> blobs) {
+        this.logger = logger;
+        this.blobs = blobs;
+        this.reused = new LongAdder();
+    }
+
+    int size() {
+        return blobs.size();
+    }
+
+    /** Returns the object ID of a file which did not change since it was staged, or null if it needs to be hashed */
+    byte[] lookup(final String relativePath, final File file) {
+        final Blob blob = blobs.get(relativePath);
+        if (blob == null) {
+            return null;
+        }
+
+        final Map<String, Object> attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), "unix:mode,ino,size,lastModifiedTime,ctime", LinkOption.NOFOLLOW_LINKS);
+        } catch (final IOException | InvalidPathException e) {
+            return null;
+        }
+
+        final Instant mtime = ((FileTime) attributes.get("lastModifiedTime")).toInstant();
+        final Instant ctime = ((FileTime) attributes.get("ctime")).toInstant();
+        if (((Integer) attributes.get("mode") & MODE_TYPE_MASK) != MODE_REGULAR_FILE
+                || (int) (long) (Long) attributes.get("size") != blob.size
+                || (int) (long) (Long) attributes.get("ino") != blob.ino
+                || (int) mtime.getEpochSecond() != blob.mtimeSec || mtime.getNano() != blob.mtimeNsec
+                || (int) ctime.getEpochSecond() != blob.ctimeSec || ctime.getNano() != blob.ctimeNsec) {
+            return null;
+        }
+
+        reused.increment();
+        if (logger.isTraceEnabled()) {
+            logger.trace("Reused object ID of file " + Format.file(file) + " from the Git index: " + Format.hex(blob.id));
+        }
+        return blob.id.clone();
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    private synchronized String[] sortedPaths() {
+        if (sortedPaths == null) {
+            sortedPaths = blobs.keySet().toArray(new String[0]);
+            Arrays.sort(sortedPaths);
+        }
+        return sortedPaths;
+    }
+
+    /** Sends the entries below the relative whitelist paths of a partition to a worker process,
+      * so that the workers do not each read the whole index again - directories carry a trailing slash */
+    void write(final DataOutputStream out, final List<String> relativePaths) throws IOException {
+        final TreeMap<String, Blob> subtree = new TreeMap<>(); // nested whitelist paths would repeat entries
+        for (final String relativePath : relativePaths) {
+            if (relativePath.isEmpty() || relativePath.endsWith("/")) {
+                final String[] paths = sortedPaths();
+                final int from = Arrays.binarySearch(paths, relativePath);
+                for (int i = from < 0 ? -from - 1 : from; i < paths.length && paths[i].startsWith(relativePath); i++) {
+                    subtree.put(paths[i], blobs.get(paths[i]));
+                }
+            } else {
+                final Blob blob = blobs.get(relativePath);
+                if (blob != null) {
+                    subtree.put(relativePath, blob);
+                }
+            }
+        }
+        out.writeInt(subtree.size());
+        for (final Map.Entry<String, Blob> entry : subtree.entrySet()) {
+            WorkerProcess.writeString(out, entry.getKey());
+            entry.getValue().write(out);
+        }
+    }
+
+    /** Receives the entries of a partition which were sent by the coordinator */
+    static IndexedBlobs read(final Logger logger, final DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        final HashMap<String, Blob> blobs = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            final String relativePath = WorkerProcess.readString(in);
+            blobs.put(relativePath, new Blob(in));
+        }
+        return new IndexedBlobs(logger, blobs);
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    /** Finds the Git repository which contains the base path and reads its index,
+      * returns null if there is no repository or if its index cannot be used */
+    static IndexedBlobs load(final Logger logger, final String basePath) {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("unix")) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Reusing the Git index requires a file system with unix attributes, all files will be hashed");
+            }
+            return null;
+        }
+
+        final long startAt = System.nanoTime();
+        GitRepository repository = null;
+        try {
+            repository = GitRepository.find(basePath);
+            if (repository == null) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn("Base path '" + basePath + "' is not inside a Git work tree, all files will be hashed");
+                }
+                return null;
+            }
+            final IndexedBlobs result = parse(logger, new File(repository.gitDir, "index"), repository.prefix);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Read " + Format.i(result.size()) + " reusable object IDs from the Git index in " +
+                        Format.dir(repository.workTree) + Format.timeNanos(startAt));
+            }
+            warnAboutConversions(logger, repository.gitDir, result);
+            return result;
+        } catch (final IOException | RuntimeException e) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Could not read the Git index in " + (repository == null ? "'" + basePath + '\'' : Format.dir(repository.workTree)) +
+                        ", all files will be hashed: " + e.getMessage());
+            }
+            return null;
+        } finally {
+            if (repository != null) {
+                try {
+                    repository.close();
+                } catch (final IOException ignored) {
+                    // only the index was read, there are no packs to release
+                }
+            }
+        }
+    }
+
+    private static IndexedBlobs parse(final Logger logger, final File index, final String prefix) throws IOException {
+        // entries modified at the same time or after the index was written may have changed without
+        // their stat data changing ("racily clean"), so the modification time needs to be taken before reading
+        final Instant indexMtime = Files.getLastModifiedTime(index.toPath()).toInstant();
+        final byte[] data = Files.readAllBytes(index.toPath());
+
+        if (data.length < 12 + ID_LENGTH || !verifyChecksum(data)) {
+            throw new IOException("checksum mismatch, the index is either corrupted or does not use SHA-1 object IDs");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(data, 0, data.length - ID_LENGTH);
+        try {
+            if (buffer.getInt() != 0x44495243) { // "DIRC"
+                throw new IOException("missing index signature");
+            }
+            final int version = buffer.getInt();
+            if (version < 2 || version > 4) {
+                throw new IOException("unsupported index version: " + version);
+            }
+            final int count = buffer.getInt();
+
+            final HashMap<String, Blob> blobs = new HashMap<>();
+            byte[] name = new byte[256];
+            int nameLength = 0;
+            for (int i = 0; i < count; i++) {
+                final int start = buffer.position();
+                final int mode = buffer.getInt(start + 24);
+                buffer.position(start + 40);
+                final byte[] id = new byte[ID_LENGTH];
+                buffer.get(id);
+                final int flags = buffer.getShort() & 0xffff;
+                final int extendedFlags = version >= 3 && (flags & FLAG_EXTENDED) != 0 ? buffer.getShort() & 0xffff : 0;
+
+                if (version == 4) {
+                    // names are prefix compressed against the previous entry
+                    final int strip = readOffset(buffer);
+                    if (strip > nameLength) {
+                        throw new IOException("invalid path compression in entry #" + (i + 1));
+                    }
+                    nameLength -= strip;
+                } else {
+                    nameLength = 0;
+                }
+                final int nameStart = buffer.position();
+                int nameEnd = nameStart;
+                while (data[nameEnd] != 0) {
+                    nameEnd++;
+                }
+                final int suffixLength = nameEnd - nameStart;
+                if (name.length < nameLength + suffixLength) {
+                    name = Arrays.copyOf(name, (nameLength + suffixLength) << 1);
+                }
+                System.arraycopy(data, nameStart, name, nameLength, suffixLength);
+                nameLength += suffixLength;
+                buffer.position(version == 4
+                        ? nameEnd + 1
+                        : start + ((nameEnd - start + 8) & ~7)); // padded with 1 to 8 NUL bytes
+
+                final boolean usable = (flags & 0x3000) == 0 // merge stage 0
+                        && (flags & FLAG_ASSUME_VALID) == 0
+                        && (extendedFlags & (FLAG_SKIP_WORKTREE | FLAG_INTENT_TO_ADD)) == 0
+                        && (mode & MODE_TYPE_MASK) == MODE_REGULAR_FILE; // symbolic links and submodules are followed
+                if (usable) {
+                    final String path = new String(name, 0, nameLength, StandardCharsets.UTF_8);
+                    if (path.startsWith(prefix)) {
+                        final Blob blob = new Blob(ByteBuffer.wrap(data, start, 40).slice(), id);
+                        final long mtimeSec = Integer.toUnsignedLong(blob.mtimeSec);
+                        if (mtimeSec < indexMtime.getEpochSecond()
+                                || mtimeSec == indexMtime.getEpochSecond() && blob.mtimeNsec < indexMtime.getNano()) {
+                            blobs.put(path.substring(prefix.length()), blob);
+                        }
+                    }
+                }
+            }
+
+            while (buffer.hasRemaining()) {
+                final int signature = buffer.getInt();
+                final int size = buffer.getInt();
+                // optional extensions start with an uppercase letter, entries of a sparse index are directories
+                if ((signature >>> 24) < 'A' || (signature >>> 24) > 'Z') {
+                    if (signature != 0x73646972) { // "sdir"
+                        throw new IOException("unsupported index extension: " +
+                                new String(data, buffer.position() - 8, 4, StandardCharsets.ISO_8859_1));
+                    }
+                }
+                buffer.position(buffer.position() + size);
+            }
+            return new IndexedBlobs(logger, blobs);
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("index was truncated", e);
+        }
+    }
+
+    private static boolean verifyChecksum(final byte[] data) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(data, 0, data.length - ID_LENGTH);
+            return Arrays.equals(md.digest(), Arrays.copyOfRange(data, data.length - ID_LENGTH, data.length));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Variable length offset encoding used by Git, which has no redundant representations */
+    private static int readOffset(final ByteBuffer buffer) throws IOException {
+        int b = buffer.get() & 0xff;
+        long value = b & 0x7f;
+        while ((b & 0x80) != 0) {
+            b = buffer.get() & 0xff;
+            value = ((value + 1) << 7) | (b & 0x7f);
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("path compression offset is too large");
+            }
+        }
+        return (int) value;
+    }
+
+    /** The index holds object IDs of the cleaned contents, which differ from the files in the work tree when
+      * Git applies filters or line ending conversion - these cannot be detected reliably, so only a warning is logged */
+    private static void warnAboutConversions(final Logger logger, final File gitDir, final IndexedBlobs result) throws IOException {
+        if (!logger.isWarnEnabled()) {
+            return;
+        }
+        boolean conversions = new File(gitDir, "info/attributes").isFile();
+        for (final String path : result.blobs.keySet()) {
+            if (conversions) {
+                break;
+            }
+            conversions = path.equals(".gitattributes") || path.endsWith("/.gitattributes");
+        }
+        final File config = new File(gitDir, "config");
+        if (!conversions && config.isFile()) {
+            conversions = new String(Files.readAllBytes(config.toPath()), StandardCharsets.UTF_8)
+                    .toLowerCase(Locale.ROOT).contains("autocrlf");
+        }
+        if (conversions) {
+            logger.warn("Git repository uses attributes or line ending conversion - object IDs reused from the " +
+                    "Git index describe the contents stored in Git, which may differ from the files in the work tree");
+        }
+    }
+}
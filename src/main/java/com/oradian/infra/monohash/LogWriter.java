@@ -0,0 +1,75 @@
+package com.oradian.infra.monohash;
+
+import com.oradian.infra.monohash.param.LogLevel;
+
+import java.io.Writer;
+
+/** Hands text to the logger in messages of whole lines, so that a long text such as the diff of a mass change is
+  * logged while it is being written instead of being built in memory first. Text which fits into a single chunk is
+  * logged as one message, and the remainder is logged on close. */
+final class LogWriter extends Writer {
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Logger logger;
+    private final LogLevel logLevel;
+    private final int chunkSize;
+    private final StringBuilder chunk = new StringBuilder();
+
+    LogWriter(final Logger logger, final LogLevel logLevel, final int chunkSize) {
+        if (logLevel != LogLevel.ERROR && logLevel != LogLevel.WARN) {
+            throw new IllegalArgumentException("Log level must be either error or warn, got: " + logLevel);
+        }
+        this.logger = logger;
+        this.logLevel = logLevel;
+        this.chunkSize = chunkSize;
+    }
+
+    LogWriter(final Logger logger, final LogLevel logLevel) {
+        this(logger, logLevel, CHUNK_SIZE);
+    }
+
+    private void log(final String msg) {
+        if (logLevel == LogLevel.ERROR) {
+            logger.error(msg);
+        } else {
+            logger.warn(msg);
+        }
+    }
+
+    /** Logs the complete lines once the chunk is full, a line longer than the chunk is logged once it ends */
+    private void logLines() {
+        if (chunk.length() < chunkSize) {
+            return;
+        }
+        final int end = chunk.lastIndexOf("\n") + 1;
+        if (end != 0) {
+            log(chunk.substring(0, end));
+            chunk.delete(0, end);
+        }
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) {
+        chunk.append(cbuf, off, len);
+        logLines();
+    }
+
+    @Override
+    public void write(final String str, final int off, final int len) {
+        chunk.append(str, off, off + len);
+        logLines();
+    }
+
+    @Override
+    public void flush() {
+        // only whole chunks are logged, so that messages do not split in the middle of a line
+    }
+
+    @Override
+    public void close() {
+        if (chunk.length() != 0) {
+            log(chunk.toString());
+            chunk.setLength(0);
+        }
+    }
+}
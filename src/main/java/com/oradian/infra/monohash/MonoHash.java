@@ -1,18 +1,17 @@
 package com.oradian.infra.monohash;
 
 import com.oradian.infra.monohash.diff.Diff;
+import com.oradian.infra.monohash.diff.DiffRenderer;
 import com.oradian.infra.monohash.impl.PrintStreamLogger;
 import com.oradian.infra.monohash.param.*;
+import com.oradian.infra.monohash.util.BlockDeflate;
+import com.oradian.infra.monohash.util.FlightEvents;
 import com.oradian.infra.monohash.util.Format;
-import com.oradian.infra.monohash.util.Hex;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.PrintStream;
-import java.nio.file.Files;
+import java.io.*;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 public final class MonoHash {
@@ -24,8 +23,9 @@ public final class MonoHash {
     static int main(final String[] args, final PrintStream out, final PrintStream err) {
         try {
             final Function<LogLevel, Logger> loggerFactory = logLevel -> new PrintStreamLogger(err, logLevel);
-            final byte[] hash = CmdLineParser.parse(Arrays.asList(args), loggerFactory).run().hash();
-            out.println(Hex.toHex(hash));
+            // the hash is only printed once the export was written, so that a failed run never prints one
+            final HashResults hashResults = CmdLineParser.parse(Arrays.asList(args), loggerFactory).run();
+            out.println(hashResults.hexHash());
             return ExitException.SUCCESS;
         } catch (final ExitException e) {
             err.println(e.getMessage().replace("\n", PrintStreamLogger.NL));
@@ -58,6 +58,58 @@ public final class MonoHash {
         return MonoHashBuilder.DEFAULT.withVerification(verification);
     }
 
+    public static MonoHashBuilder withFsync(final Fsync fsync) {
+        return MonoHashBuilder.DEFAULT.withFsync(fsync);
+    }
+
+    public static MonoHashBuilder withCompression(final Compression compression) {
+        return MonoHashBuilder.DEFAULT.withCompression(compression);
+    }
+
+    public static MonoHashBuilder withReadMode(final ReadMode readMode) {
+        return MonoHashBuilder.DEFAULT.withReadMode(readMode);
+    }
+
+    public static MonoHashBuilder withSchedule(final Schedule schedule) {
+        return MonoHashBuilder.DEFAULT.withSchedule(schedule);
+    }
+
+    public static MonoHashBuilder withGitIndexMode(final GitIndexMode gitIndexMode) {
+        return MonoHashBuilder.DEFAULT.withGitIndexMode(gitIndexMode);
+    }
+
+    public static MonoHashBuilder withDedupMode(final DedupMode dedupMode) {
+        return MonoHashBuilder.DEFAULT.withDedupMode(dedupMode);
+    }
+
+    public static MonoHashBuilder withWorkers(final Workers workers) {
+        return MonoHashBuilder.DEFAULT.withWorkers(workers);
+    }
+
+    public static MonoHashBuilder withRateLimit(final RateLimit rateLimit) {
+        return MonoHashBuilder.DEFAULT.withRateLimit(rateLimit);
+    }
+
+    public static MonoHashBuilder withPriority(final Priority priority) {
+        return MonoHashBuilder.DEFAULT.withPriority(priority);
+    }
+
+    public static MonoHashBuilder withDiffLimit(final DiffLimit diffLimit) {
+        return MonoHashBuilder.DEFAULT.withDiffLimit(diffLimit);
+    }
+
+    public static MonoHashBuilder withExecutor(final Executor executor) {
+        return MonoHashBuilder.DEFAULT.withExecutor(executor);
+    }
+
+    public static MonoHashBuilder withBufferPool(final BufferPool bufferPool) {
+        return MonoHashBuilder.DEFAULT.withBufferPool(bufferPool);
+    }
+
+    public static MonoHashBuilder withRevision(final String revision) {
+        return MonoHashBuilder.DEFAULT.withRevision(revision);
+    }
+
     public static MonoHashBuilder.Ready withHashPlan(final File hashPlan) {
         return MonoHashBuilder.DEFAULT.withHashPlan(hashPlan);
     }
@@ -111,7 +163,15 @@ public final class MonoHash {
         }
     }
 
-    private static HashResults readPreviousExport(final Logger logger, final File exportFile, final Algorithm algorithm, final Verification verification) throws ExitException {
+    /** Checks the previous export up front, so that a missing one fails the run before hashing,
+      * then reads it in the background while the hash plan is being executed */
+    private static ExportReader readPreviousExport(
+            final Logger logger,
+            final File exportFile,
+            final Algorithm algorithm,
+            final Concurrency concurrency,
+            final Executor executor,
+            final Verification verification) throws ExitException {
         if (exportFile == null) {
             return null;
         }
@@ -126,13 +186,20 @@ public final class MonoHash {
             throw new ExitException("[export file] is not a file: " + Format.dir(exportFile),
                     ExitException.EXPORT_FILE_IS_NOT_A_FILE);
         }
+        // entries are only needed for diffing, which verification off never does
+        return ExportReader.start(logger, exportFile, algorithm, concurrency, executor, verification != Verification.OFF);
+    }
+
+    private static HashResults awaitPreviousExport(
+            final Logger logger,
+            final ExportReader reader,
+            final File exportFile,
+            final Verification verification) throws ExitException {
+        if (reader == null) {
+            return null;
+        }
         try {
-            final long startAt = System.nanoTime();
-            final HashResults previousResults = HashResults.apply(logger, algorithm, Files.readAllBytes(exportFile.toPath()));
-            if (logger.isTraceEnabled()) {
-                logger.trace("Read previous [export file]: " + Format.file(exportFile) + Format.timeNanos(startAt));
-            }
-            return previousResults;
+            return reader.await();
         } catch (final IOException e) {
             if (verification == Verification.REQUIRE) {
                 throw new ExitException("[verification] is set to 'require', but previous [export file] could not be read: " +
@@ -142,6 +209,14 @@ public final class MonoHash {
                 logger.warn("Could not read the previous [export file]: " + e.getMessage());
             }
             return null;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // the previous export is only required with verification set to require, otherwise this is like any
+            // other interruption of the run
+            throw new ExitException("Interrupted while reading the previous [export file]: " + Format.file(exportFile),
+                    verification == Verification.REQUIRE
+                            ? ExitException.EXPORT_FILE_REQUIRED_BUT_CANNOT_READ
+                            : ExitException.MONOHASH_EXECUTION_ERROR, e);
         }
     }
 
@@ -159,53 +234,69 @@ public final class MonoHash {
         }
     }
 
-    private static HashResults executeHashPlan(final Logger logger, final HashPlan plan, final Algorithm algorithm, final Concurrency concurrency) throws ExitException {
+    private static HashResults executeHashPlan(final Logger logger, final HashPlan plan, final Algorithm algorithm, final Concurrency concurrency, final ReadMode readMode, final Schedule schedule, final GitIndexMode gitIndexMode, final DedupMode dedupMode, final Workers workers, final RateLimit rateLimit, final Priority priority, final Executor executor, final BufferPool bufferPool, final String revision, final RunControl control) throws ExitException {
         final long startAt = System.currentTimeMillis();
         try {
-            final HashResults hashResults = WhiteWalker.apply(logger, plan, algorithm, concurrency);
+            final HashResults hashResults;
+            if (revision != null) {
+                if (workers.isDistributed() && logger.isWarnEnabled()) {
+                    logger.warn("Revisions are read from the Git repository in this process, workers will not be started");
+                }
+                if (rateLimit.isLimited() && logger.isWarnEnabled()) {
+                    logger.warn("Revisions are read from the Git repository, the rate limit only applies to files on disk");
+                }
+                hashResults = GitTreeWalker.apply(logger, plan, algorithm, revision, control);
+            } else if (workers.isDistributed()) {
+                hashResults = Coordinator.apply(logger, plan, algorithm, concurrency, readMode, schedule, gitIndexMode, dedupMode, workers.count, rateLimit, priority, control);
+            } else {
+                hashResults = WhiteWalker.apply(logger, plan, algorithm, concurrency, readMode, schedule, gitIndexMode, dedupMode, executor, bufferPool, RateLimiter.create(rateLimit), priority, control);
+            }
             if (logger.isInfoEnabled()) {
                 logger.info("Executed hash plan by hashing " + Format.i(hashResults.size()) + " files: " +
                         Format.hex(hashResults.hash()) + Format.timeMillis(startAt));
             }
             return hashResults;
+        } catch (final CancellationException e) {
+            throw e;
         } catch (final Exception e) {
             throw new ExitException("Error executing [hash plan]: '" + plan.basePath + '\'',
                     ExitException.MONOHASH_EXECUTION_ERROR, e);
         }
     }
 
-    private static void logDiff(final Logger logger, final HashResults previousResults, final HashResults newResults, final Verification verification) {
+    private static void logDiff(final Logger logger, final HashResults previousResults, final HashResults newResults, final Verification verification, final DiffLimit diffLimit, final Concurrency concurrency, final Executor executor) {
         final boolean logWarn = verification == Verification.WARN && logger.isWarnEnabled();
         final boolean logError = verification == Verification.REQUIRE && logger.isErrorEnabled();
 
         if (logWarn || logError) {
-            String msg;
-            try {
-                if (logger.isTraceEnabled()) {
-                    logger.trace("Diffing against previous export ...");
-                }
-                final long startAt = System.nanoTime();
-                final Map<String, byte[]> previousMap = previousResults == null
-                        ? Collections.emptyMap()
-                        : previousResults.toMap();
-                final Diff diff = Diff.apply(previousMap, newResults.toMap());
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Diffed against previous export" + Format.timeNanos(startAt));
-                }
-                if (diff.isEmpty()) {
-                    msg = previousResults != null
-                            ? "Running diff against previous [export file] produced no differences, but the exports were not identical"
-                            : "Previous [export file] were not read and there were no entries in current run to build a diff from";
-                } else {
-                    msg = diff.toString();
+            // the diff of a mass change is logged in chunks while it is rendered, instead of as a single message
+            try (final LogWriter out = new LogWriter(logger, logWarn ? LogLevel.WARN : LogLevel.ERROR)) {
+                try {
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("Diffing against previous export ...");
+                    }
+                    final long startAt = System.nanoTime();
+                    final HashResults previous = previousResults == null
+                            ? HashResults.apply(logger, newResults.algorithm, new byte[0])
+                            : previousResults;
+                    final Object event = FlightEvents.beginDiffComputed();
+                    final Diff diff = Diff.apply(previous, newResults, executor, concurrency.getConcurrency());
+                    FlightEvents.commitDiffComputed(event, diff.adds.size(), diff.renames.size(), diff.modifies.size(), diff.deletes.size());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Diffed against previous export" + Format.timeNanos(startAt));
+                    }
+                    if (diff.isEmpty()) {
+                        out.write(previousResults != null
+                                ? "Running diff against previous [export file] produced no differences, but the exports were not identical"
+                                : "Previous [export file] were not read and there were no entries in current run to build a diff from");
+                    } else {
+                        new DiffRenderer(diffLimit.maxLines, diffLimit.rollUp).render(diff, out);
+                    }
+                } catch (final ExportParsingException e) {
+                    out.write("Could not diff against the previous [export file]: " + e.getMessage());
                 }
-            } catch (final ExportParsingException e) {
-                msg = "Could not diff against the previous [export file]: " + e.getMessage();
-            }
-            if (logWarn) {
-                logger.warn(msg);
-            } else {
-                logger.error(msg);
+            } catch (final IOException e) {
+                throw new RuntimeException("LogWriter does not throw", e);
             }
         }
     }
@@ -215,7 +306,12 @@ public final class MonoHash {
             final File exportFile,
             final HashResults previousResults,
             final HashResults newResults,
-            final Verification verification) throws ExitException {
+            final Verification verification,
+            final DiffLimit diffLimit,
+            final Fsync fsync,
+            final Compression compression,
+            final Concurrency concurrency,
+            final Executor executor) throws ExitException {
 
         if (exportFile == null) {
             if (logger.isTraceEnabled()) {
@@ -224,29 +320,60 @@ public final class MonoHash {
             return;
         }
 
-        if (previousResults == null) {
-            // should not happen with REQUIRE as it should have short-circuited
-            logDiff(logger, null, newResults, verification);
-        } else {
-            if (newResults.equals(previousResults)) {
+        if (previousResults != null && newResults.equals(previousResults)) {
+            if (isCompressed(exportFile) == (compression == Compression.DEFLATE)) {
                 if (logger.isDebugEnabled()) {
                     logger.debug("Previous hash result was identical, no need to update the [export file]: " +
                             Format.file(exportFile));
                 }
                 return;
-            } else {
-                logDiff(logger, previousResults, newResults, verification);
-                if (verification == Verification.REQUIRE) {
-                    throw new ExitException("[verification] was set to 'require', but there was a difference in export results",
-                            ExitException.EXPORT_FILE_VERIFICATION_MISMATCH);
-                }
             }
+            // identical results, but the previous export was written with a different compression
+            if (logger.isDebugEnabled()) {
+                logger.debug("Previous hash result was identical, but the [export file] compression is changing to '" +
+                        compression + "': " + Format.file(exportFile));
+            }
+            final ExportWriter writer = ExportWriter.start(newResults, exportFile, fsync, compression, concurrency, executor);
+            awaitExport(writer, exportFile);
+            return;
+        }
+
+        final ExportWriter writer;
+        if (previousResults == null) {
+            // should not happen with REQUIRE as it should have short-circuited
+            writer = ExportWriter.start(newResults, exportFile, fsync, compression, concurrency, executor);
+            logDiff(logger, null, newResults, verification, diffLimit, concurrency, executor);
+        } else if (verification == Verification.REQUIRE) {
+            logDiff(logger, previousResults, newResults, verification, diffLimit, concurrency, executor);
+            throw new ExitException("[verification] was set to 'require', but there was a difference in export results",
+                    ExitException.EXPORT_FILE_VERIFICATION_MISMATCH);
+        } else {
+            writer = ExportWriter.start(newResults, exportFile, fsync, compression, concurrency, executor);
+            logDiff(logger, previousResults, newResults, verification, diffLimit, concurrency, executor);
+        }
+        awaitExport(writer, exportFile);
+    }
+
+    private static boolean isCompressed(final File exportFile) {
+        final byte[] magic = new byte[16];
+        try (final InputStream is = new FileInputStream(exportFile)) {
+            final int read = is.read(magic);
+            return read > 0 && BlockDeflate.isCompressed(Arrays.copyOf(magic, read));
+        } catch (final IOException e) {
+            return false;
         }
+    }
+
+    private static void awaitExport(final ExportWriter writer, final File exportFile) throws ExitException {
         try {
-            newResults.export(exportFile);
+            writer.await();
         } catch (final IOException e) {
             throw new ExitException("Error occurred while writing to [export file]: " + Format.file(exportFile),
                     ExitException.EXPORT_FILE_CANNOT_WRITE, e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExitException("Interrupted while writing to [export file]: " + Format.file(exportFile),
+                    ExitException.EXPORT_FILE_CANNOT_WRITE, e);
         }
     }
 
@@ -257,14 +384,53 @@ public final class MonoHash {
             final Verification verification,
             final File hashPlan,
             final File export) throws ExitException {
+        return run(logger, algorithm, concurrency, verification, Fsync.DEFAULT, Compression.DEFAULT, ReadMode.DEFAULT, Schedule.DEFAULT, GitIndexMode.DEFAULT, DedupMode.DEFAULT, Workers.DEFAULT, RateLimit.DEFAULT, Priority.DEFAULT, DiffLimit.DEFAULT, null, null, null, hashPlan, export, RunControl.NONE);
+    }
+
+    static HashResults run(
+            final Logger logger,
+            final Algorithm algorithm,
+            final Concurrency concurrency,
+            final Verification verification,
+            final Fsync fsync,
+            final Compression compression,
+            final ReadMode readMode,
+            final Schedule schedule,
+            final GitIndexMode gitIndexMode,
+            final DedupMode dedupMode,
+            final Workers workers,
+            final RateLimit rateLimit,
+            final Priority priority,
+            final DiffLimit diffLimit,
+            final Executor executor,
+            final BufferPool bufferPool,
+            final String revision,
+            final File hashPlan,
+            final File export,
+            final RunControl control) throws ExitException {
         final File planFile = resolvePlanFile(logger, hashPlan);
         final File exportFile = resolveExportFile(logger, export, verification);
-        final HashResults previousResults = readPreviousExport(logger, exportFile, algorithm, verification);
+        final ExportReader previousReader = readPreviousExport(logger, exportFile, algorithm, concurrency, executor, verification);
 
-        final HashPlan plan = parseHashPlan(logger, planFile);
-        final HashResults hashResults = executeHashPlan(logger, plan, algorithm, concurrency);
+        final HashResults hashResults;
+        final HashResults previousResults;
+        try {
+            control.checkCancelled();
+            final HashPlan plan = parseHashPlan(logger, planFile);
+            hashResults = executeHashPlan(logger, plan, algorithm, concurrency, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, executor, bufferPool, revision, control);
+
+            // a cancelled run must not replace the previous export with results nobody is waiting for
+            control.checkCancelled();
+
+            previousResults = awaitPreviousExport(logger, previousReader, exportFile, verification);
+        } finally {
+            // stops reading the previous export if the run failed before awaiting it
+            if (previousReader != null) {
+                previousReader.stop();
+            }
+        }
 
-        exportResults(logger, exportFile, previousResults, hashResults, verification);
+        exportResults(logger, exportFile, previousResults, hashResults, verification, diffLimit, fsync, compression, concurrency, executor);
         return hashResults;
     }
 }
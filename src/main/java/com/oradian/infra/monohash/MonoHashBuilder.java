@@ -2,18 +2,43 @@ package com.oradian.infra.monohash;
 
 import com.oradian.infra.monohash.impl.NoopLogger;
 import com.oradian.infra.monohash.param.Algorithm;
+import com.oradian.infra.monohash.param.Compression;
 import com.oradian.infra.monohash.param.Concurrency;
+import com.oradian.infra.monohash.param.DedupMode;
+import com.oradian.infra.monohash.param.DiffLimit;
+import com.oradian.infra.monohash.param.Fsync;
+import com.oradian.infra.monohash.param.GitIndexMode;
+import com.oradian.infra.monohash.param.Priority;
+import com.oradian.infra.monohash.param.RateLimit;
+import com.oradian.infra.monohash.param.ReadMode;
+import com.oradian.infra.monohash.param.Schedule;
 import com.oradian.infra.monohash.param.Verification;
+import com.oradian.infra.monohash.param.Workers;
 import com.oradian.infra.monohash.util.Format;
 
 import java.io.File;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class MonoHashBuilder {
     public final Logger logger;
     public final Algorithm algorithm;
     public final Concurrency concurrency;
     public final Verification verification;
+    public final Fsync fsync;
+    public final Compression compression;
+    public final ReadMode readMode;
+    public final Schedule schedule;
+    public final GitIndexMode gitIndexMode;
+    public final DedupMode dedupMode;
+    public final Workers workers;
+    public final RateLimit rateLimit;
+    public final Priority priority;
+    public final DiffLimit diffLimit;
+    public final Executor executor;
+    public final BufferPool bufferPool;
+    public final String revision;
     public final File export;
 
     private MonoHashBuilder(
@@ -21,16 +46,42 @@ public class MonoHashBuilder {
             final Algorithm algorithm,
             final Concurrency concurrency,
             final Verification verification,
+            final Fsync fsync,
+            final Compression compression,
+            final ReadMode readMode,
+            final Schedule schedule,
+            final GitIndexMode gitIndexMode,
+            final DedupMode dedupMode,
+            final Workers workers,
+            final RateLimit rateLimit,
+            final Priority priority,
+            final DiffLimit diffLimit,
+            final Executor executor,
+            final BufferPool bufferPool,
+            final String revision,
             final File export) {
         this.logger = logger;
         this.algorithm = algorithm;
         this.concurrency = concurrency;
         this.verification = verification;
+        this.fsync = fsync;
+        this.compression = compression;
+        this.readMode = readMode;
+        this.schedule = schedule;
+        this.gitIndexMode = gitIndexMode;
+        this.dedupMode = dedupMode;
+        this.workers = workers;
+        this.rateLimit = rateLimit;
+        this.priority = priority;
+        this.diffLimit = diffLimit;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.revision = revision;
         this.export = export;
     }
 
     static final MonoHashBuilder DEFAULT =
-            new MonoHashBuilder(NoopLogger.INSTANCE, Algorithm.DEFAULT, Concurrency.DEFAULT, Verification.DEFAULT, null);
+            new MonoHashBuilder(NoopLogger.INSTANCE, Algorithm.DEFAULT, Concurrency.DEFAULT, Verification.DEFAULT, Fsync.DEFAULT, Compression.DEFAULT, ReadMode.DEFAULT, Schedule.DEFAULT, GitIndexMode.DEFAULT, DedupMode.DEFAULT, Workers.DEFAULT, RateLimit.DEFAULT, Priority.DEFAULT, DiffLimit.DEFAULT, null, null, null, null);
 
     public class Ready extends MonoHashBuilder {
         public final File hashPlan;
@@ -40,9 +91,22 @@ public class MonoHashBuilder {
                 final Algorithm algorithm,
                 final Concurrency concurrency,
                 final Verification verification,
+                final Fsync fsync,
+                final Compression compression,
+                final ReadMode readMode,
+                final Schedule schedule,
+                final GitIndexMode gitIndexMode,
+                final DedupMode dedupMode,
+                final Workers workers,
+                final RateLimit rateLimit,
+                final Priority priority,
+                final DiffLimit diffLimit,
+                final Executor executor,
+                final BufferPool bufferPool,
+                final String revision,
                 final File hashPlan,
                 final File export) {
-            super(logger, algorithm, concurrency, verification, export);
+            super(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
             this.hashPlan = hashPlan;
         }
 
@@ -66,6 +130,71 @@ public class MonoHashBuilder {
             return verification == this.verification ? this : super.withVerification(verification).withHashPlan(hashPlan);
         }
 
+        @Override
+        public Ready withFsync(final Fsync fsync) {
+            return fsync == this.fsync ? this : super.withFsync(fsync).withHashPlan(hashPlan);
+        }
+
+        @Override
+        public Ready withCompression(final Compression compression) {
+            return compression == this.compression ? this : super.withCompression(compression).withHashPlan(hashPlan);
+        }
+
+        @Override
+        public Ready withReadMode(final ReadMode readMode) {
+            return readMode == this.readMode ? this : super.withReadMode(readMode).withHashPlan(hashPlan);
+        }
+
+        @Override
+        public Ready withSchedule(final Schedule schedule) {
+            return schedule == this.schedule ? this : super.withSchedule(schedule).withHashPlan(hashPlan);
+        }
+
+        @Override
+        public Ready withGitIndexMode(final GitIndexMode gitIndexMode) {
+            return gitIndexMode == this.gitIndexMode ? this : super.withGitIndexMode(gitIndexMode).withHashPlan(hashPlan);
+        }
+
+        @Override
+        public Ready withDedupMode(final DedupMode dedupMode) {
+            return dedupMode == this.dedupMode ? this : super.withDedupMode(dedupMode).withHashPlan(hashPlan);
+        }
+
+        @Override
+        public Ready withWorkers(final Workers workers) {
+            return workers.equals(this.workers) ? this : super.withWorkers(workers).withHashPlan(hashPlan);
+        }
+
+        @Override
+        public Ready withRateLimit(final RateLimit rateLimit) {
+            return rateLimit.equals(this.rateLimit) ? this : super.withRateLimit(rateLimit).withHashPlan(hashPlan);
+        }
+
+        @Override
+        public Ready withPriority(final Priority priority) {
+            return priority == this.priority ? this : super.withPriority(priority).withHashPlan(hashPlan);
+        }
+
+        @Override
+        public Ready withDiffLimit(final DiffLimit diffLimit) {
+            return diffLimit.equals(this.diffLimit) ? this : super.withDiffLimit(diffLimit).withHashPlan(hashPlan);
+        }
+
+        @Override
+        public Ready withExecutor(final Executor executor) {
+            return executor == this.executor ? this : super.withExecutor(executor).withHashPlan(hashPlan);
+        }
+
+        @Override
+        public Ready withBufferPool(final BufferPool bufferPool) {
+            return bufferPool == this.bufferPool ? this : super.withBufferPool(bufferPool).withHashPlan(hashPlan);
+        }
+
+        @Override
+        public Ready withRevision(final String revision) {
+            return Objects.equals(revision, this.revision) ? this : super.withRevision(revision).withHashPlan(hashPlan);
+        }
+
         @Override
         public Ready withHashPlan(final File hashPlan) {
             return hashPlan == this.hashPlan ? this : super.withHashPlan(hashPlan);
@@ -77,7 +206,34 @@ public class MonoHashBuilder {
         }
 
         public HashResults run() throws ExitException {
-            return MonoHash.run(logger, algorithm, concurrency, verification, hashPlan, export);
+            return MonoHash.run(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, hashPlan, export, RunControl.NONE);
+        }
+
+        public CompletableFuture<HashResults> runAsync() {
+            return runAsync(null);
+        }
+
+        /** Runs on a new thread and completes the future with the results, or with the ExitException of the run.
+          * Cancelling the future stops the run as soon as the workers finish the buffers they are reading, and the
+          * previous export is left untouched - the thread is not interrupted, so no files are left half written.
+          * The progress listener is optional, and is notified about once per second while files are being hashed. */
+        public CompletableFuture<HashResults> runAsync(final ProgressListener progress) {
+            final RunControl control = new RunControl(logger, progress);
+            final CompletableFuture<HashResults> future = new CompletableFuture<>();
+            future.whenComplete((hashResults, error) -> {
+                if (future.isCancelled()) {
+                    control.cancel();
+                }
+            });
+            final Thread runner = new Thread(() -> {
+                try {
+                    future.complete(MonoHash.run(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, hashPlan, export, control));
+                } catch (final Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }, "MonoHash run of " + hashPlan);
+            runner.start();
+            return future;
         }
 
         @Override
@@ -94,7 +250,7 @@ public class MonoHashBuilder {
 
         @Override
         public int hashCode() {
-            return Objects.hash(logger, algorithm, concurrency, verification, hashPlan, export);
+            return Objects.hash(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, hashPlan, export);
         }
 
         @Override
@@ -103,6 +259,19 @@ public class MonoHashBuilder {
                     ", algorithm=" + algorithm +
                     ", concurrency=" + concurrency +
                     ", verification=" + verification +
+                    ", fsync=" + fsync +
+                    ", compression=" + compression +
+                    ", readMode=" + readMode +
+                    ", schedule=" + schedule +
+                    ", gitIndexMode=" + gitIndexMode +
+                    ", dedupMode=" + dedupMode +
+                    ", workers=" + workers +
+                    ", rateLimit=" + rateLimit +
+                    ", priority=" + priority +
+                    ", diffLimit=" + diffLimit +
+                    ", executor=" + formatExecutor(executor) +
+                    ", bufferPool=" + formatBufferPool(bufferPool) +
+                    ", revision=" + formatRevision(revision) +
                     ", hashPlan=" + Format.file(hashPlan) +
                     ", export=" + Format.file(export) +
                     ')';
@@ -110,27 +279,105 @@ public class MonoHashBuilder {
     }
 
     public MonoHashBuilder withLogger(final Logger logger) {
-        return logger == this.logger ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, export);
+        return logger == this.logger ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
     }
 
     public MonoHashBuilder withAlgorithm(final Algorithm algorithm) {
-        return algorithm == this.algorithm ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, export);
+        return algorithm == this.algorithm ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
     }
 
     public MonoHashBuilder withConcurrency(final Concurrency concurrency) {
-        return concurrency == this.concurrency ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, export);
+        return concurrency == this.concurrency ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
     }
 
     public MonoHashBuilder withVerification(final Verification verification) {
-        return verification == this.verification ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, export);
+        return verification == this.verification ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    public MonoHashBuilder withFsync(final Fsync fsync) {
+        return fsync == this.fsync ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    public MonoHashBuilder withCompression(final Compression compression) {
+        return compression == this.compression ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    public MonoHashBuilder withReadMode(final ReadMode readMode) {
+        return readMode == this.readMode ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    public MonoHashBuilder withSchedule(final Schedule schedule) {
+        return schedule == this.schedule ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    public MonoHashBuilder withGitIndexMode(final GitIndexMode gitIndexMode) {
+        return gitIndexMode == this.gitIndexMode ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    public MonoHashBuilder withDedupMode(final DedupMode dedupMode) {
+        return dedupMode == this.dedupMode ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    public MonoHashBuilder withWorkers(final Workers workers) {
+        return workers.equals(this.workers) ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    /** Limits the bytes and files per second which all the workers of a run read together, so that hashing on a busy
+      * machine leaves disk bandwidth for other processes - runs from a Git revision are not limited */
+    public MonoHashBuilder withRateLimit(final RateLimit rateLimit) {
+        return rateLimit.equals(this.rateLimit) ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    /** Low priority runs the hashing threads with the lowest thread priority, which the JVM only honours on Linux when
+      * started with -XX:ThreadPriorityPolicy=1 as root - worker processes are also started through nice there */
+    public MonoHashBuilder withPriority(final Priority priority) {
+        return priority == this.priority ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    /** Limits the diff which is logged when verifying against the previous export: changes past the max lines are only
+      * counted, and a directory with at least the roll up of changes of the same kind is logged as one summary line */
+    public MonoHashBuilder withDiffLimit(final DiffLimit diffLimit) {
+        return diffLimit.equals(this.diffLimit) ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    /** Runs the hashing threads on this executor instead of starting new ones for every run, e.g. in a build server
+      * which hashes many times - it needs to run as many tasks concurrently as the concurrency, and is never shut down.
+      * Diffing against the previous export and (de)compressing the export run on it as well.
+      * With null (the default) every run starts its own threads, diffs on the common fork-join pool, and
+      * (de)compresses the export on new threads. */
+    public MonoHashBuilder withExecutor(final Executor executor) {
+        return executor == this.executor ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    /** Keeps the buffers of the hashing threads between runs instead of allocating new ones for every run, e.g. in a
+      * build server which hashes many times - the pool is shared by all the runs which use it, and is bounded by its
+      * capacity. With null (the default) every run allocates its own buffers, which are left to the GC once it finishes. */
+    public MonoHashBuilder withBufferPool(final BufferPool bufferPool) {
+        return bufferPool == this.bufferPool ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    public MonoHashBuilder withRevision(final String revision) {
+        return Objects.equals(revision, this.revision) ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
     }
 
     public Ready withHashPlan(final File hashPlan) {
-        return new Ready(logger, algorithm, concurrency, verification, hashPlan, export);
+        return new Ready(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, hashPlan, export);
     }
 
     public MonoHashBuilder withExport(final File export) {
-        return export == this.export ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, export);
+        return export == this.export ? this : new MonoHashBuilder(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
+    }
+
+    private static String formatRevision(final String revision) {
+        return revision == null ? "<none>" : '\'' + revision + '\'';
+    }
+
+    private static String formatExecutor(final Executor executor) {
+        return executor == null ? "<none>" : executor.getClass().getName();
+    }
+
+    private static String formatBufferPool(final BufferPool bufferPool) {
+        return bufferPool == null ? "<none>" : bufferPool.toString();
     }
 
     @Override
@@ -146,12 +393,25 @@ public class MonoHashBuilder {
                 algorithm.equals(that.algorithm) &&
                 concurrency.equals(that.concurrency) &&
                 verification == that.verification &&
+                fsync == that.fsync &&
+                compression == that.compression &&
+                readMode == that.readMode &&
+                schedule == that.schedule &&
+                gitIndexMode == that.gitIndexMode &&
+                dedupMode == that.dedupMode &&
+                workers.equals(that.workers) &&
+                rateLimit.equals(that.rateLimit) &&
+                priority == that.priority &&
+                diffLimit.equals(that.diffLimit) &&
+                Objects.equals(executor, that.executor) &&
+                Objects.equals(bufferPool, that.bufferPool) &&
+                Objects.equals(revision, that.revision) &&
                 Objects.equals(export, that.export);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(logger, algorithm, concurrency, verification, export);
+        return Objects.hash(logger, algorithm, concurrency, verification, fsync, compression, readMode, schedule, gitIndexMode, dedupMode, workers, rateLimit, priority, diffLimit, executor, bufferPool, revision, export);
     }
 
     @Override
@@ -160,6 +420,19 @@ public class MonoHashBuilder {
                 ", algorithm=" + algorithm +
                 ", concurrency=" + concurrency +
                 ", verification=" + verification +
+                ", fsync=" + fsync +
+                ", compression=" + compression +
+                ", readMode=" + readMode +
+                ", schedule=" + schedule +
+                ", gitIndexMode=" + gitIndexMode +
+                ", dedupMode=" + dedupMode +
+                ", workers=" + workers +
+                ", rateLimit=" + rateLimit +
+                ", priority=" + priority +
+                ", diffLimit=" + diffLimit +
+                ", executor=" + formatExecutor(executor) +
+                ", bufferPool=" + formatBufferPool(bufferPool) +
+                ", revision=" + formatRevision(revision) +
                 ", export=" + Format.file(export) +
                 ')';
     }
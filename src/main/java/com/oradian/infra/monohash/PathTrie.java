@@ -0,0 +1,105 @@
+package com.oradian.infra.monohash;
+
+import java.nio.charset.StandardCharsets;
+
+/** Relative path stored as a node in a trie, referencing its parent directory node.
+  * Names of all the children in a directory are UTF-8 encoded into a single array which is shared between siblings,
+  * so that directory prefixes are stored only once and no per-path String needs to be retained.
+  * Directory names carry their trailing slash, so concatenating the names from root to leaf yields the relative path. */
+class PathTrie {
+    final PathTrie parent;
+    final boolean isDirectory;
+    final int pathLength;
+
+    private final byte[] names;
+    private final int offset;
+    private final int length;
+
+    /** Root of the trie, holding the whole relative path of a whitelist entry */
+    PathTrie(final String relativePath, final boolean isDirectory) {
+        this.parent = null;
+        this.isDirectory = isDirectory;
+        this.names = relativePath.getBytes(StandardCharsets.UTF_8);
+        this.offset = 0;
+        this.length = names.length;
+        this.pathLength = length;
+    }
+
+    /** Child of a directory, with its name residing inside the shared names array */
+    PathTrie(final PathTrie parent, final byte[] names, final int offset, final int length) {
+        this.parent = parent;
+        this.isDirectory = names[offset + length - 1] == '/';
+        this.names = names;
+        this.offset = offset;
+        this.length = length;
+        this.pathLength = parent.pathLength + length;
+    }
+
+    /** Writes the UTF-8 encoded relative path into the destination array, returns the position after the path */
+    final int writeTo(final byte[] dst, final int dstOff) {
+        final int end = dstOff + pathLength;
+        int pos = end;
+        for (PathTrie node = this; node != null; node = node.parent) {
+            pos -= node.length;
+            System.arraycopy(node.names, node.offset, dst, pos, node.length);
+        }
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        final byte[] path = new byte[pathLength];
+        writeTo(path, 0);
+        return new String(path, StandardCharsets.UTF_8);
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    /** Length of the String when encoded in UTF-8, consistent with String.getBytes(UTF_8) */
+    static int utf8Length(final String value) {
+        int result = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            final char ch = value.charAt(i);
+            if (ch >= 0x80) {
+                if (ch < 0x800) {
+                    result++;
+                } else if (Character.isHighSurrogate(ch) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    result += 2; // 4 bytes for a surrogate pair of 2 chars
+                    i++;
+                } else if (!Character.isSurrogate(ch)) {
+                    result += 2;
+                } // unpaired surrogates are replaced with a single '?'
+            }
+        }
+        return result;
+    }
+
+    /** Encodes the String as UTF-8 into the destination array without allocating, returns the position after the value */
+    static int encodeUtf8(final String value, final byte[] dst, final int dstOff) {
+        int pos = dstOff;
+        for (int i = 0; i < value.length(); i++) {
+            final char ch = value.charAt(i);
+            if (ch < 0x80) {
+                dst[pos++] = (byte) ch;
+            } else if (ch < 0x800) {
+                dst[pos++] = (byte) (0xc0 | (ch >> 6));
+                dst[pos++] = (byte) (0x80 | (ch & 0x3f));
+            } else if (Character.isHighSurrogate(ch) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(ch, value.charAt(++i));
+                dst[pos++] = (byte) (0xf0 | (cp >> 18));
+                dst[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                dst[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                dst[pos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(ch)) {
+                dst[pos++] = '?';
+            } else {
+                dst[pos++] = (byte) (0xe0 | (ch >> 12));
+                dst[pos++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+                dst[pos++] = (byte) (0x80 | (ch & 0x3f));
+            }
+        }
+        return pos;
+    }
+}
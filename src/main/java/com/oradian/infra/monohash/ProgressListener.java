@@ -0,0 +1,9 @@
+package com.oradian.infra.monohash;
+
+/** Receives the progress of a run started with MonoHashBuilder.Ready.runAsync, while the files are being hashed.
+  * Counts are cumulative, bytes are -1 when they are not known, i.e. when hashing a revision or with worker processes.
+  * The listener is called from a thread of the run, so it should return quickly and not block. */
+@FunctionalInterface
+public interface ProgressListener {
+    void onProgress(final long filesHashed, final long bytesHashed);
+}
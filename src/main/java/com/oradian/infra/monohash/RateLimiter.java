@@ -0,0 +1,71 @@
+package com.oradian.infra.monohash;
+
+import com.oradian.infra.monohash.param.RateLimit;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/** Token buckets for the bytes and files which all the workers of a run read from disk.
+  * Workers take the tokens after each read, and sleep for as long as the run is ahead of the limit. Each bucket holds
+  * at most a second worth of tokens, so a run which was idle can read a short burst, but never catches up on more. */
+final class RateLimiter {
+    private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    private final Bucket bytes; // null unless bytes are limited
+    private final Bucket files; // null unless files are limited
+
+    private RateLimiter(final RateLimit rateLimit) {
+        bytes = rateLimit.bytesPerSecond == 0L ? null : new Bucket(rateLimit.bytesPerSecond);
+        files = rateLimit.filesPerSecond == 0L ? null : new Bucket(rateLimit.filesPerSecond);
+    }
+
+    /** Returns null if the rate is not limited, so that the workers do not look at the clock at all */
+    static RateLimiter create(final RateLimit rateLimit) {
+        return rateLimit.isLimited() ? new RateLimiter(rateLimit) : null;
+    }
+
+    void acquireFile() throws InterruptedIOException {
+        if (files != null) {
+            files.acquire(1L);
+        }
+    }
+
+    void acquireBytes(final long count) throws InterruptedIOException {
+        if (bytes != null && count > 0L) {
+            bytes.acquire(count);
+        }
+    }
+
+    private static final class Bucket {
+        private final double nanosPerToken;
+        private long refilledAt; // guarded by this, the time at which the tokens taken so far are refilled
+
+        Bucket(final long perSecond) {
+            nanosPerToken = (double) BURST_NANOS / perSecond;
+            refilledAt = System.nanoTime() - BURST_NANOS;
+        }
+
+        void acquire(final long tokens) throws InterruptedIOException {
+            final long waitNanos;
+            synchronized (this) {
+                final long now = System.nanoTime();
+                // a full bucket does not fill any further
+                if (refilledAt - (now - BURST_NANOS) < 0L) {
+                    refilledAt = now - BURST_NANOS;
+                }
+                refilledAt += (long) (tokens * nanosPerToken);
+                waitNanos = refilledAt - now;
+            }
+            if (waitNanos > 0L) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    final InterruptedIOException iioe = new InterruptedIOException("Interrupted while waiting for the rate limit");
+                    iioe.initCause(e);
+                    throw iioe;
+                }
+            }
+        }
+    }
+}
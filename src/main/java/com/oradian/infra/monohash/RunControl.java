@@ -0,0 +1,47 @@
+package com.oradian.infra.monohash;
+
+import java.util.concurrent.CancellationException;
+
+/** Progress and cancellation of a single run, shared by the threads which do its work.
+  * Cancelling only raises a flag, which is checked between the buffers read, work units and phases of a run,
+  * so that threads are never interrupted while they hold files or sockets open. */
+final class RunControl {
+    /** Synchronous runs cannot be cancelled and do not report progress */
+    static final RunControl NONE = new RunControl(null, null);
+
+    private final Logger logger;
+    private final ProgressListener listener;
+    private volatile boolean cancelled;
+
+    RunControl(final Logger logger, final ProgressListener listener) {
+        this.logger = logger;
+        this.listener = listener;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Run was cancelled");
+        }
+    }
+
+    /** A failing listener is logged, but does not fail the run */
+    void progress(final long filesHashed, final long bytesHashed) {
+        if (listener != null) {
+            try {
+                listener.onProgress(filesHashed, bytesHashed);
+            } catch (final RuntimeException e) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn("Progress listener failed: " + e);
+                }
+            }
+        }
+    }
+}
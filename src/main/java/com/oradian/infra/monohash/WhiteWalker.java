@@ -2,30 +2,63 @@ package com.oradian.infra.monohash;
 
 import com.oradian.infra.monohash.param.Algorithm;
 import com.oradian.infra.monohash.param.Concurrency;
+import com.oradian.infra.monohash.param.DedupMode;
+import com.oradian.infra.monohash.param.GitIndexMode;
+import com.oradian.infra.monohash.param.Priority;
+import com.oradian.infra.monohash.param.ReadMode;
+import com.oradian.infra.monohash.param.Schedule;
+import com.oradian.infra.monohash.util.DirectIo;
+import com.oradian.infra.monohash.util.FlightEvents;
 import com.oradian.infra.monohash.util.Format;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.regex.Pattern;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
 
 final class WhiteWalker {
     private final Logger logger;
     private final Algorithm algorithm;
+    private final ReadMode readMode;
+    private final Schedule schedule;
     private final HashPlan hashPlan;
-    private final Queue<File> workQueue;
+    private final IndexedBlobs indexedBlobs; // null unless object IDs are reused from the Git index
+    private final HardLinks hardLinks; // null unless hard linked files are deduplicated
+    private final RateLimiter rateLimiter; // null unless reads are limited
+    private final Deque<Entry> workQueue;
+    // files are queued here instead of the workQueue when scheduling the largest files first, guarded by the workQueue
+    private final PriorityQueue<SizedUnit> sizedQueue;
 
     private final Semaphore workersFinished;
     private final AtomicReference<Exception> workerError;
+    private final RunControl control;
 
     private final long startAt;
+
+    // in unordered mode, entries are collected into pathHashes and sorted after the walk
+    // in ordered mode, entries are emitted in their final order into the appender while the walk is still running
+    private final boolean ordered;
     private final ConcurrentMap<String, byte[]> pathHashes;
+    private final HashResults.Appender appender;
+
+    private final ReentrantLock emitLock;
+    private final Deque<Entry> pendingEmits;
+    private volatile Entry nextEmit;
 
     private final LongAdder currentlyProcessing;
     private final LongAdder filesHashed;
@@ -34,24 +67,51 @@ final class WhiteWalker {
     private WhiteWalker(
             final Logger logger,
             final Algorithm algorithm,
+            final ReadMode readMode,
+            final Schedule schedule,
             final HashPlan hashPlan,
-            final Queue<File> workQueue,
+            final IndexedBlobs indexedBlobs,
+            final HardLinks hardLinks,
+            final RateLimiter rateLimiter,
+            final List<Entry> roots,
+            final boolean ordered,
             final Semaphore workersFinished,
-            final AtomicReference<Exception> workerError) {
+            final AtomicReference<Exception> workerError,
+            final RunControl control) {
         this.logger = logger;
         this.algorithm = algorithm;
+        this.readMode = readMode;
+        this.schedule = schedule;
         this.hashPlan = hashPlan;
-        this.workQueue = workQueue;
+        this.indexedBlobs = indexedBlobs;
+        this.hardLinks = hardLinks;
+        this.rateLimiter = rateLimiter;
+        this.workQueue = new ArrayDeque<>(roots);
+        this.sizedQueue = schedule == Schedule.LARGEST ? new PriorityQueue<>(LARGEST_FIRST) : null;
 
         // workersFinished is a successful semaphore countdown, workerError is "cancel everything, stop work"
         this.workersFinished = workersFinished;
         this.workerError = workerError;
+        this.control = control;
 
         // not really started, but makes sense to calculate time since initialisation
         this.startAt = System.currentTimeMillis();
 
-        // the results, concurrent map for purpose of putIfAbsent
-        this.pathHashes = new ConcurrentHashMap<>();
+        this.ordered = ordered;
+        if (ordered) {
+            this.pathHashes = null;
+            this.appender = new HashResults.Appender(logger, algorithm, 0);
+            // the emit cursor is a depth-first stack of entries which were not yet emitted
+            this.emitLock = new ReentrantLock();
+            this.pendingEmits = new ArrayDeque<>(roots);
+            this.nextEmit = pendingEmits.peekFirst();
+        } else {
+            // the results, concurrent map for purpose of putIfAbsent
+            this.pathHashes = new ConcurrentHashMap<>();
+            this.appender = null;
+            this.emitLock = null;
+            this.pendingEmits = null;
+        }
 
         // number of workers that are currently active, ensures that no worker quits before all others finished their work,
         // because even though the workQueue may be empty - a currently running worker may produce new items on the queue
@@ -62,72 +122,467 @@ final class WhiteWalker {
         this.bytesHashed = new LongAdder();
     }
 
+    /** A single file or directory in the walk, stored as a node in the path trie.
+      * In ordered mode the entry also acts as a slot in the reorder buffer, which is filled in by a worker
+      * and published to the emitter by setting the volatile `done` flag */
+    private static final class Entry extends PathTrie {
+        Entry[] children; // sorted children of a directory, null for files and skipped paths
+        byte[] hash;      // digest of a file, null for directories and skipped paths
+        Entry nextInBatch; // following sibling file which is processed within the same work unit
+        volatile boolean done;
+
+        Entry(final String relativePath, final boolean isDirectory) {
+            super(relativePath, isDirectory);
+        }
+
+        Entry(final Entry parent, final byte[] names, final int offset, final int length) {
+            super(parent, names, offset, length);
+        }
+    }
+
+    private static final Comparator<Entry> BY_RELATIVE_PATH = Comparator.comparing(Entry::toString);
+
+    /** Work unit waiting in the size-ordered queue, sized by the total of all the files in its batch */
+    private static final class SizedUnit {
+        final Entry head;
+        final long size;
+
+        SizedUnit(final Entry head, final long size) {
+            this.head = head;
+            this.size = size;
+        }
+    }
+
+    private static final Comparator<SizedUnit> LARGEST_FIRST = (a, b) -> Long.compare(b.size, a.size);
+
     private static final byte[] EMPTY = new byte[0];
 
-    private void processWorkInQueue(final Logger logger, final String workerId) throws IOException {
-        if (logger.isTraceEnabled()) {
-            logger.trace("Started worker " + workerId + " ...");
+    /** Consecutive sibling files are handed out as a single work unit, so that small files do not pay
+      * for a queue round-trip each - the limit keeps the work spread across workers in smaller directories */
+    private static final int BATCH_SIZE = 16;
+
+    /** When file sizes are known, a batch is also closed once it reaches this many bytes, so that large files
+      * are not serialised behind each other on a single worker */
+    private static final long BATCH_BYTES = 1024 * 1024;
+
+    /** Links runs of consecutive files into batches, and writes the directories and the heads of the batches
+      * into the units array - returns the number of work units which need to be queued.
+      * Sizes are in the same order as the entries, or null when they were not read from the file system,
+      * the total size of each unit is written into unitSizes unless it is null */
+    private static int batch(final Entry[] entries, final long[] sizes, final Entry[] units, final long[] unitSizes) {
+        int count = 0;
+        Entry tail = null;
+        int batchSize = 0;
+        long batchBytes = 0L;
+        for (int i = 0; i < entries.length; i++) {
+            final Entry entry = entries[i];
+            final long size = sizes == null ? 0L : sizes[i];
+            if (entry.isDirectory) {
+                units[count++] = entry;
+                tail = null;
+            } else if (tail != null && batchSize < BATCH_SIZE && batchBytes + size <= BATCH_BYTES) {
+                tail.nextInBatch = entry;
+                tail = entry;
+                batchSize++;
+                batchBytes += size;
+            } else {
+                units[count++] = entry;
+                tail = entry;
+                batchSize = 1;
+                batchBytes = size;
+            }
+            if (unitSizes != null) {
+                unitSizes[count - 1] = batchBytes;
+            }
         }
-        final HashWorker hasher = new HashWorker(logger, algorithm, bytesHashed);
-        while (true) {
-            if (workerError.get() != null) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug(workerId + " is shutting down due to error in another worker");
-                }
-                return;
+        return count;
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    private static final boolean UNIX_ATTRIBUTES = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    /** Name of a listed child with the attributes which scheduling depends on - the name carries
+      * the trailing slash of a directory, just like the names in a regular listing */
+    private static final class Attributes {
+        final String name;
+        final long size;
+        final long inode; // 0 when the file system does not expose inodes
+
+        Attributes(final String name, final long size, final long inode) {
+            this.name = name;
+            this.size = size;
+            this.inode = inode;
+        }
+    }
+
+    private static final Comparator<Attributes> BY_NAME = Comparator.comparing(attributes -> attributes.name);
+
+    /** Reads the attributes with a single stat, following symbolic links the same way File.isDirectory does */
+    private static Attributes readAttributes(final File directory, final String name) {
+        final File file = new File(directory, name);
+        try {
+            if (UNIX_ATTRIBUTES) {
+                final Map<String, Object> attributes = Files.readAttributes(file.toPath(), "unix:isDirectory,size,ino");
+                return new Attributes(
+                        (Boolean) attributes.get("isDirectory") ? name + '/' : name,
+                        (Long) attributes.get("size"),
+                        (Long) attributes.get("ino"));
             }
+            final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return new Attributes(attributes.isDirectory() ? name + '/' : name, attributes.size(), 0L);
+        } catch (final IOException | InvalidPathException e) {
+            // e.g. a broken symbolic link, which will fail while hashing just like it does in the walk order
+            return new Attributes(file.isDirectory() ? name + '/' : name, 0L, 0L);
+        }
+    }
 
-            final File file;
-            synchronized (workQueue) {
-                file = workQueue.poll();
-                if (file != null) {
-                    // work needs to increment inside the synchronization block
-                    currentlyProcessing.increment();
-                }
+    /** Per-thread state, reused across all the entries processed by a single worker */
+    private final class Worker {
+        private final String workerId;
+        private final HashWorker hasher;
+        private final Matcher blacklist;
+        private final StringBuilder relativePath;
+        private final int basePathLength;
+        private byte[] pathBuffer;
+
+        // attributes of the children from the last listing, in the same order as the children - unless walking
+        private long[] childSizes;
+        private long[] childInodes;
+        private long[] sortKeys; // children packed with their schedule keys, see dispatch
+
+        Worker(final String workerId, final HashWorker.Buffers buffers) {
+            this.workerId = workerId;
+            this.hasher = new HashWorker(logger, algorithm, bytesHashed, buffers, rateLimiter, control);
+            this.blacklist = hashPlan.blacklist == null ? null : hashPlan.blacklist.matcher("");
+            this.relativePath = new StringBuilder();
+            this.pathBuffer = hashPlan.basePath.getBytes(StandardCharsets.UTF_8);
+            this.basePathLength = pathBuffer.length;
+            if (schedule != Schedule.WALK) {
+                this.childSizes = new long[0];
+                this.childInodes = new long[0];
+                this.sortKeys = new long[0];
             }
+        }
 
-            if (file == null) {
-                if (currentlyProcessing.longValue() == 0) {
-                    if (logger.isTraceEnabled()) {
-                        logger.trace(workerId + " is finished");
+        private void processWorkInQueue() throws IOException {
+            if (logger.isTraceEnabled()) {
+                logger.trace("Started worker " + workerId + " ...");
+            }
+            Object idle = null;
+            while (true) {
+                if (workerError.get() != null) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(workerId + " is shutting down due to error in another worker");
                     }
                     return;
                 }
-                continue; // spinlock until new work is available
+                if (control.isCancelled()) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(workerId + " is shutting down as the run was cancelled");
+                    }
+                    return;
+                }
+
+                final Entry entry;
+                synchronized (workQueue) {
+                    Entry next = workQueue.pollFirst();
+                    if (next == null && sizedQueue != null) {
+                        // directories are always listed first, so the sizes of as many files as possible are known
+                        final SizedUnit unit = sizedQueue.poll();
+                        next = unit == null ? null : unit.head;
+                    }
+                    entry = next;
+                    if (entry != null) {
+                        // work needs to increment inside the synchronization block
+                        currentlyProcessing.increment();
+                    }
+                }
+
+                if (entry == null) {
+                    if (currentlyProcessing.longValue() == 0) {
+                        FlightEvents.commitWorkerIdle(idle, workerId);
+                        if (logger.isTraceEnabled()) {
+                            logger.trace(workerId + " is finished");
+                        }
+                        return;
+                    }
+                    if (idle == null) {
+                        idle = FlightEvents.beginWorkerIdle();
+                    }
+                    continue; // spinlock until new work is available
+                }
+                FlightEvents.commitWorkerIdle(idle, workerId);
+                idle = null;
+
+                if (ordered) {
+                    processOrdered(entry);
+                } else {
+                    processUnordered(entry);
+                }
+
+                currentlyProcessing.decrement();
             }
+        }
 
-            final String relativePath = relativise(hashPlan.basePath, file);
+        private void processUnordered(final Entry unit) throws IOException {
+            for (Entry entry = unit; entry != null; entry = entry.nextInBatch) {
+                processUnorderedEntry(entry);
+            }
+        }
+
+        private void processUnorderedEntry(final Entry entry) throws IOException {
             // use the empty array as a marker to reserve this relative path against other
             // concurrent workers who might be about to begin hashing on the same relative path
-            if (pathHashes.putIfAbsent(relativePath, EMPTY) == null
-                    && (hashPlan.blacklist == null || verify(relativePath, hashPlan.blacklist))) {
-                // in case of a directory or a blacklisted path, the empty array will remain as a marker
+            final String path = entry.toString();
+            if (pathHashes.putIfAbsent(path, EMPTY) == null) {
+                // in case of a directory, the empty array will remain as a marker
                 // which will be filtered before returning the results
-                if (file.isDirectory()) {
-                    final File[] children = file.listFiles();
-                    if (children == null) {
-                        throw new IOException("Could not list children for path: " + Format.dir(file));
-                    }
-                    synchronized (workQueue) {
-                        workQueue.addAll(Arrays.asList(children));
-                    }
+                if (entry.isDirectory) {
+                    dispatch(listChildren(entry));
                 } else {
-                    final byte[] hash = hasher.hashFile(file);
+                    final byte[] hash = hashFile(entry);
                     // replace the empty path with the real hash
-                    pathHashes.put(relativePath, hash);
+                    pathHashes.put(path, hash);
 
                     // increase counters
                     filesHashed.increment();
                 }
             }
+        }
+
+        private void processOrdered(final Entry unit) throws IOException {
+            if (unit.isDirectory) {
+                final Entry[] children = listChildren(unit);
+                unit.children = children;
+                dispatch(children);
+                unit.done = true;
+            } else {
+                int files = 0;
+                for (Entry entry = unit; entry != null; entry = entry.nextInBatch) {
+                    entry.hash = hashFile(entry);
+                    entry.done = true;
+                    files++;
+                }
+                filesHashed.add(files);
+            }
+            // a single drain per work unit, the emitter picks up all the entries of a batch at once
+            drainEmits();
+        }
+
+        private byte[] hashFile(final Entry entry) throws IOException {
+            final Object event = FlightEvents.beginFileHashed();
+            final File file = toFile(entry);
+            final byte[] id = indexedBlobs != null ? indexedBlobs.lookup(entry.toString(), file) : null;
+            final byte[] hash = id != null ? id
+                    : hardLinks != null ? hardLinks.hash(file, hasher)
+                    : hasher.hashFile(file);
+            FlightEvents.commitFileHashed(event, entry, file, workerId);
+            return hash;
+        }
+
+        /** Batches the children into work units in the order of the schedule and queues them */
+        private void dispatch(final Entry[] children) {
+            final Entry[] order;
+            final long[] sizes;
+            if (schedule != Schedule.WALK) {
+                // directories first so that the walk keeps discovering work, followed by the files
+                // either in inode order, or from the largest to the smallest
+                final long[] keys = schedule == Schedule.INODE ? childInodes : childSizes;
+                final boolean descending = schedule != Schedule.INODE;
+                final int length = children.length;
+                long minKey = Long.MAX_VALUE;
+                long maxKey = Long.MIN_VALUE;
+                for (int i = 0; i < length; i++) {
+                    minKey = Math.min(minKey, keys[i]);
+                    maxKey = Math.max(maxKey, keys[i]);
+                }
+
+                // each child is packed into a single long of (file flag, key, index), which sorts without boxing,
+                // and the index keeps children with the same key in their listing order - keys are taken relative
+                // to the smallest one, and are only coarsened if their range does not fit next to the index
+                final int indexBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, length - 1));
+                final int keyBits = 62 - indexBits;
+                final int shift = length == 0 ? 0 : Math.max(0, 64 - Long.numberOfLeadingZeros(maxKey - minKey) - keyBits);
+                final long keyMask = (1L << keyBits) - 1;
+                if (sortKeys.length < length) {
+                    sortKeys = new long[length];
+                }
+                for (int i = 0; i < length; i++) {
+                    final long key = (keys[i] - minKey) >>> shift;
+                    sortKeys[i] = (children[i].isDirectory ? 0L : 1L << 62)
+                            | (descending ? keyMask - key : key) << indexBits
+                            | i;
+                }
+                Arrays.sort(sortKeys, 0, length);
+
+                final long indexMask = (1L << indexBits) - 1;
+                order = new Entry[length];
+                sizes = new long[length];
+                for (int i = 0; i < length; i++) {
+                    final int index = (int) (sortKeys[i] & indexMask);
+                    order[i] = children[index];
+                    sizes[i] = childSizes[index];
+                }
+            } else {
+                order = children;
+                sizes = null;
+            }
+
+            final Entry[] units = new Entry[order.length];
+            final long[] unitSizes = sizedQueue != null ? new long[order.length] : null;
+            final int count = batch(order, sizes, units, unitSizes);
+            synchronized (workQueue) {
+                if (ordered) {
+                    // push the units to the front of the queue in reverse, so that workers keep close to the
+                    // depth-first emit order - this keeps the amount of hashed, but not yet emitted entries low
+                    for (int i = count - 1; i >= 0; i--) {
+                        if (unitSizes != null && !units[i].isDirectory) {
+                            sizedQueue.add(new SizedUnit(units[i], unitSizes[i]));
+                        } else {
+                            workQueue.addFirst(units[i]);
+                        }
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        if (unitSizes != null && !units[i].isDirectory) {
+                            sizedQueue.add(new SizedUnit(units[i], unitSizes[i]));
+                        } else {
+                            workQueue.addLast(units[i]);
+                        }
+                    }
+                }
+            }
+        }
+
+        /** Only the absolute path String is allocated, which is needed to access the file system */
+        private File toFile(final PathTrie entry) {
+            final int pathLength = basePathLength + entry.pathLength;
+            if (pathBuffer.length < pathLength) {
+                pathBuffer = Arrays.copyOf(pathBuffer, pathLength << 1);
+            }
+            entry.writeTo(pathBuffer, basePathLength);
+            return new File(new String(pathBuffer, 0, pathLength, StandardCharsets.UTF_8));
+        }
+
+        /** Lists the directory, sorts the children by their relative paths and encodes their names into
+          * a single array shared between the siblings - blacklisted children are skipped before they become entries */
+        private Entry[] listChildren(final Entry directory) throws IOException {
+            final Object event = FlightEvents.beginDirectoryListed();
+            final File file = toFile(directory);
+            final String[] names = file.list();
+            if (names == null) {
+                throw new IOException("Could not list children for path: " + Format.dir(file));
+            }
+            if (childSizes != null) {
+                sortWithAttributes(file, names);
+            } else {
+                for (int i = 0; i < names.length; i++) {
+                    if (new File(file, names[i]).isDirectory()) {
+                        names[i] += '/';
+                    }
+                }
+                // directory names carry the trailing slash, so a plain sort yields the relative path ordering
+                Arrays.sort(names);
+            }
+
+            int count = names.length;
+            if (blacklist != null) {
+                relativePath.setLength(0);
+                relativePath.append(directory);
+                final int directoryLength = relativePath.length();
+                for (int i = 0; i < names.length; i++) {
+                    relativePath.setLength(directoryLength);
+                    relativePath.append(names[i]);
+                    if (!verify(logger, blacklist, relativePath)) {
+                        names[i] = null;
+                        count--;
+                    }
+                }
+            }
+
+            int totalLength = 0;
+            for (final String name : names) {
+                if (name != null) {
+                    totalLength += PathTrie.utf8Length(name);
+                }
+            }
+            final byte[] utf8 = new byte[totalLength];
+            final Entry[] children = new Entry[count];
+            int index = 0;
+            int offset = 0;
+            for (int i = 0; i < names.length; i++) {
+                final String name = names[i];
+                if (name != null) {
+                    final int end = PathTrie.encodeUtf8(name, utf8, offset);
+                    if (childSizes != null) {
+                        // compact the attributes along with the children, skipping the blacklisted ones
+                        childSizes[index] = childSizes[i];
+                        childInodes[index] = childInodes[i];
+                    }
+                    children[index++] = new Entry(directory, utf8, offset, end - offset);
+                    offset = end;
+                }
+            }
+            FlightEvents.commitDirectoryListed(event, directory, count, workerId);
+            return children;
+        }
+
+        /** Same as appending the trailing slashes and sorting the names, but also reads
+          * the attributes of every child, which are stored in the same order as the sorted names */
+        private void sortWithAttributes(final File directory, final String[] names) {
+            final Attributes[] listing = new Attributes[names.length];
+            for (int i = 0; i < names.length; i++) {
+                listing[i] = readAttributes(directory, names[i]);
+            }
+            Arrays.sort(listing, BY_NAME);
+
+            if (childSizes.length < names.length) {
+                childSizes = new long[names.length << 1];
+                childInodes = new long[names.length << 1];
+            }
+            for (int i = 0; i < names.length; i++) {
+                names[i] = listing[i].name;
+                childSizes[i] = listing[i].size;
+                childInodes[i] = listing[i].inode;
+            }
+        }
+    }
 
-            currentlyProcessing.decrement();
+    /** Emits all consecutive entries which are done, starting from the emit cursor.
+      * Whichever worker grabs the lock does the emitting, while others carry on with their work.
+      * After releasing the lock the cursor is re-checked, since the next entry may have been finished by
+      * a worker which failed to acquire the lock in the meantime - otherwise that entry would be stuck. */
+    private void drainEmits() {
+        while (emitLock.tryLock()) {
+            try {
+                Entry entry;
+                while ((entry = pendingEmits.peekFirst()) != null && entry.done) {
+                    pendingEmits.pollFirst();
+                    final Entry[] children = entry.children;
+                    if (children != null) {
+                        for (int i = children.length - 1; i >= 0; i--) {
+                            pendingEmits.addFirst(children[i]);
+                        }
+                    } else if (entry.hash != null) {
+                        appender.append(entry, entry.hash);
+                    }
+                }
+                nextEmit = entry;
+            } finally {
+                emitLock.unlock();
+            }
+            final Entry next = nextEmit;
+            if (next == null || !next.done) {
+                return;
+            }
         }
     }
 
     private static final int LOGGING_INTERVAL_MS = 1000;
 
-    private void logUntilFinished() {
+    /** Returns false if interrupted before all the workers finished */
+    private boolean logUntilFinished() {
         // logging takes some time, measure how long it takes to flush to logger and adjust for better precision
         long lastTookMs = 0L;
         long msAdjustment = 0L;
@@ -140,6 +595,7 @@ final class WhiteWalker {
                     finished = true;
                 }
                 final long filesCount = filesHashed.longValue();
+                control.progress(filesCount, bytesHashed.longValue());
                 // don't log the same timing message twice if logger is exiting, only if it has changed in the meantime
                 if (!finished || filesCount != lastFiles) {
                     lastFiles = filesCount;
@@ -164,26 +620,33 @@ final class WhiteWalker {
                 if (logger.isWarnEnabled()) {
                     logger.warn("Logging thread was interrupted (logger is exiting): " + e.getMessage());
                 }
-                break;
+                return false;
             }
         }
+        return true;
     }
 
+    /** Starts a new thread for every task, unless the run was given an executor */
+    private static final Executor NEW_THREAD = runnable -> new Thread(runnable).start();
+
     /**
-     * Pattern matches against the blacklist to figure out if we should process the file or walk into the folder
+     * Pattern matches against the blacklist to figure out if we should process the file or walk into the folder.
+     * The relative path buffer is reused between calls, and is restored before returning.
      */
-    private boolean verify(final String relativePath, final Pattern blacklist) {
-        final boolean result = !blacklist.matcher(relativePath).matches();
-        if (!result || !relativePath.endsWith("/")) {
+    static boolean verify(final Logger logger, final Matcher blacklist, final StringBuilder relativePath) {
+        final boolean result = !blacklist.reset(relativePath).matches();
+        final int length = relativePath.length();
+        if (!result || length == 0 || relativePath.charAt(length - 1) != '/') {
             return result;
         }
 
-        final String alternativePath = relativePath.substring(0, relativePath.length() - 1);
-        final boolean alterResult = !blacklist.matcher(alternativePath).matches();
+        relativePath.setLength(length - 1);
+        final boolean alterResult = !blacklist.reset(relativePath).matches();
         if (!alterResult && logger.isWarnEnabled()) {
-            logger.warn("Relative path '" + alternativePath +
+            logger.warn("Relative path '" + relativePath +
                     "' is a directory - please append a trailing / to this blacklist pattern");
         }
+        relativePath.append('/');
         return alterResult;
     }
 
@@ -191,62 +654,162 @@ final class WhiteWalker {
      * Subtracts the basePath from the child file path.
      * In case of a folder, a superfluous '/' will be added to the end of the directory name, to make pattern-matching more explicit.
      */
-    private static String relativise(final String basePath, final File file) {
-        final String path = file.getPath().replace('\\', '/') + (file.isDirectory() ? "/" : "");
+    static String relativise(final String basePath, final File file, final boolean isDirectory) {
+        final String path = file.getPath().replace('\\', '/') + (isDirectory ? "/" : "");
         if (!path.startsWith(basePath)) {
             throw new IllegalArgumentException("Child path '" + path + "' does not start with '" + basePath + '\'');
         }
         return path.substring(basePath.length());
     }
 
+    /**
+     * Depth-first traversal with sorted children yields the same order as sorting all the relative paths,
+     * as long as no whitelist root is nested inside another root directory (or duplicated).
+     * Nested roots need to be deduplicated against each other, so they fall back to collecting and sorting.
+     */
+    private static boolean canWalkInOrder(final List<Entry> sortedRoots) {
+        for (int i = 1; i < sortedRoots.size(); i++) {
+            final Entry previous = sortedRoots.get(i - 1);
+            final String previousPath = previous.toString();
+            final String current = sortedRoots.get(i).toString();
+            if (current.equals(previousPath)
+                    || previous.isDirectory && current.startsWith(previousPath)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static HashResults apply(final Logger logger, final HashPlan hashPlan, final Algorithm algorithm, final Concurrency concurrency) throws Exception {
-        final Queue<File> workQueue = new ArrayDeque<>();
+        return apply(logger, hashPlan, algorithm, concurrency, ReadMode.DEFAULT, Schedule.DEFAULT, GitIndexMode.DEFAULT, DedupMode.DEFAULT);
+    }
+
+    public static HashResults apply(final Logger logger, final HashPlan hashPlan, final Algorithm algorithm, final Concurrency concurrency, final ReadMode readMode, final Schedule schedule, final GitIndexMode gitIndexMode, final DedupMode dedupMode) throws Exception {
+        return apply(logger, hashPlan, algorithm, concurrency, readMode, schedule, gitIndexMode, dedupMode, null, null, null, Priority.DEFAULT, RunControl.NONE);
+    }
+
+    static HashResults apply(final Logger logger, final HashPlan hashPlan, final Algorithm algorithm, final Concurrency concurrency, final ReadMode readMode, final Schedule schedule, final GitIndexMode gitIndexMode, final DedupMode dedupMode, final Executor executor, final BufferPool bufferPool, final RateLimiter rateLimiter, final Priority priority, final RunControl control) throws Exception {
+        final IndexedBlobs indexedBlobs = indexedBlobs(logger, hashPlan.basePath, algorithm, gitIndexMode);
+        return apply(logger, hashPlan, algorithm, concurrency, readMode, schedule, indexedBlobs, dedupMode, executor, bufferPool, rateLimiter, priority, control);
+    }
+
+    /** Returns null if object IDs are not reused from the Git index, or if the index cannot be used */
+    static IndexedBlobs indexedBlobs(final Logger logger, final String basePath, final Algorithm algorithm, final GitIndexMode gitIndexMode) {
+        if (gitIndexMode != GitIndexMode.REUSE) {
+            return null;
+        }
+        if (!algorithm.name.equals(Algorithm.GIT)) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Object IDs from the Git index can only be reused with the GIT algorithm, all files will be hashed");
+            }
+            return null;
+        }
+        return IndexedBlobs.load(logger, basePath);
+    }
+
+    /** Workers run on the executor if there is one, they take their buffers from the pool if there is one and return them once finished.
+      * A low priority is only applied to the worker threads while they are hashing, borrowed threads get theirs back. */
+    static HashResults apply(final Logger logger, final HashPlan hashPlan, final Algorithm algorithm, final Concurrency concurrency, final ReadMode readMode, final Schedule schedule, final IndexedBlobs indexedBlobs, final DedupMode dedupMode, final Executor executor, final BufferPool bufferPool, final RateLimiter rateLimiter, final Priority priority, final RunControl control) throws Exception {
+        final Matcher blacklist = hashPlan.blacklist == null ? null : hashPlan.blacklist.matcher("");
+        final ArrayList<Entry> roots = new ArrayList<>();
         for (final String relativePath : hashPlan.whitelist) {
             final File file = new File(relativePath);
-            if (file.isDirectory() && !relativePath.endsWith("/") && logger.isWarnEnabled()) {
+            final boolean isDirectory = file.isDirectory();
+            if (isDirectory && !relativePath.endsWith("/") && logger.isWarnEnabled()) {
                 logger.warn("Relative path '" + relativePath +
                         "' is a directory - please append a trailing / in the [hash plan]");
             }
-            workQueue.add(file);
+            final String rootPath = relativise(hashPlan.basePath, file, isDirectory);
+            if (blacklist == null || verify(logger, blacklist, new StringBuilder(rootPath))) {
+                roots.add(new Entry(rootPath, isDirectory));
+            }
         }
 
-        final int threads = concurrency.getConcurrency();
-        final Thread[] workers = new Thread[threads];
+        final ArrayList<Entry> sortedRoots = new ArrayList<>(roots);
+        sortedRoots.sort(BY_RELATIVE_PATH);
+        final boolean ordered = canWalkInOrder(sortedRoots);
+        if (logger.isDebugEnabled()) {
+            logger.debug(ordered
+                    ? "Walking the whitelist in order, results will be emitted while hashing ..."
+                    : "Whitelist contains nested entries, results will be sorted after hashing ...");
+        }
+
+        if (readMode == ReadMode.DIRECT && !DirectIo.isSupported() && logger.isWarnEnabled()) {
+            logger.warn("Direct I/O requires Java 10 or newer, files will be read through the page cache");
+        }
+
+        final HardLinks hardLinks = dedupMode == DedupMode.HARDLINKS ? HardLinks.create(logger) : null;
 
+        final int threads = concurrency.getConcurrency();
         final Semaphore workersFinished = new Semaphore(1 - threads);
         final AtomicReference<Exception> workerError = new AtomicReference<>();
-        final WhiteWalker ww = new WhiteWalker(logger, algorithm, hashPlan, workQueue, workersFinished, workerError);
+        final WhiteWalker ww = new WhiteWalker(logger, algorithm, readMode, schedule, hashPlan, indexedBlobs, hardLinks,
+                rateLimiter, ordered ? sortedRoots : roots, ordered, workersFinished, workerError, control);
 
-        for (int i = 0; i < workers.length; i++) {
+        final Executor workerExecutor = executor != null ? executor : NEW_THREAD;
+        for (int i = 0; i < threads; i++) {
             final String workerId = "Worker #" + (i + 1);
-            workers[i] = new Thread(() -> {
-                try {
-                    ww.processWorkInQueue(logger, workerId);
-                } catch (final Exception t) {
-                    workerError.set(t);
-                    if (logger.isErrorEnabled()) {
-                        logger.error(workerId + " experienced an exception, shutting down other workers ...");
+            try {
+                workerExecutor.execute(() -> {
+                    final Thread thread = Thread.currentThread();
+                    final int threadPriority = thread.getPriority();
+                    HashWorker.Buffers buffers = null;
+                    try {
+                        if (priority == Priority.LOW) {
+                            thread.setPriority(Thread.MIN_PRIORITY);
+                        }
+                        buffers = bufferPool != null ? bufferPool.acquire(readMode) : new HashWorker.Buffers(readMode);
+                        ww.new Worker(workerId, buffers).processWorkInQueue();
+                    } catch (final CancellationException e) {
+                        // cancelled in the middle of a file, the run reports the cancellation once all workers stopped
+                        if (logger.isDebugEnabled()) {
+                            logger.debug(workerId + " is shutting down as the run was cancelled");
+                        }
+                    } catch (final Exception t) {
+                        workerError.set(t);
+                        if (logger.isErrorEnabled()) {
+                            logger.error(workerId + " experienced an exception, shutting down other workers ...");
+                        }
+                    } finally {
+                        if (bufferPool != null && buffers != null) {
+                            bufferPool.release(buffers);
+                        }
+                        thread.setPriority(threadPriority);
+                        workersFinished.release();
                     }
-                } finally {
-                    workersFinished.release();
-                }
-            });
+                });
+            } catch (final RejectedExecutionException e) {
+                // the workers which did start will stop on this error, and the rejected ones count as finished
+                workerError.compareAndSet(null, e);
+                workersFinished.release();
+            }
         }
 
-        for (final Thread worker : workers) {
-            worker.start();
-        }
-        ww.logUntilFinished();
-        for (final Thread worker : workers) {
-            try {
-                worker.join();
-            } catch (final InterruptedException e) {
-                throw new IOException(e);
-            }
+        // tasks on an executor cannot be joined, the semaphore is released after the last worker finished
+        if (!ww.logUntilFinished()) {
+            workersFinished.acquireUninterruptibly();
+            Thread.currentThread().interrupt();
         }
         if (workerError.get() != null) {
             throw workerError.get();
         }
+        control.checkCancelled();
+        if (indexedBlobs != null && logger.isDebugEnabled()) {
+            logger.debug("Reused " + Format.i(indexedBlobs.reused.longValue()) + " object IDs from the Git index");
+        }
+        if (hardLinks != null && logger.isDebugEnabled()) {
+            logger.debug("Reused " + Format.i(hardLinks.reused.longValue()) + " hashes of " +
+                    Format.i(hardLinks.size()) + " hard linked files");
+        }
+
+        if (ordered) {
+            ww.drainEmits();
+            if (!ww.pendingEmits.isEmpty()) {
+                throw new IllegalStateException("Walk has finished, but there are still " +
+                        ww.pendingEmits.size() + " entries which were not emitted");
+            }
+            return ww.appender.finish();
+        }
 
         // sort the entries by their relative paths
         // also filter out the directories or the blacklisted entries which retained the empty byte array marker
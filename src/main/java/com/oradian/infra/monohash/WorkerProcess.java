@@ -0,0 +1,171 @@
+package com.oradian.infra.monohash;
+
+import com.oradian.infra.monohash.impl.PrintStreamLogger;
+import com.oradian.infra.monohash.param.Algorithm;
+import com.oradian.infra.monohash.param.Concurrency;
+import com.oradian.infra.monohash.param.DedupMode;
+import com.oradian.infra.monohash.param.LogLevel;
+import com.oradian.infra.monohash.param.Priority;
+import com.oradian.infra.monohash.param.RateLimit;
+import com.oradian.infra.monohash.param.ReadMode;
+import com.oradian.infra.monohash.param.Schedule;
+import com.oradian.infra.monohash.util.Format;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/** Worker process started by the Coordinator: it connects back over the loopback interface, authenticates with the
+  * token it was given on its standard input, and hashes the whitelist partitions it receives until told to stop.
+  * Each partition is answered with its export lines, which are already sorted by relative path.
+  * Workers log to their standard error, which is shared with the coordinator. */
+public final class WorkerProcess {
+    private WorkerProcess() {}
+
+    static final int MAGIC = 0x4D484457; // "MHDW"
+    static final int VERSION = 3;
+
+    static final byte STATUS_HASHED = 0;
+    static final byte STATUS_FAILED = 1;
+
+    /** Strings are not limited to 64 KiB like with writeUTF, as the blacklist is a single pattern */
+    static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    static String readString(final DataInputStream in) throws IOException {
+        final byte[] utf8 = new byte[in.readInt()];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    static DataOutputStream output(final Socket socket) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    static DataInputStream input(final Socket socket) throws IOException {
+        return new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    /** Lowers both the CPU and the I/O priority of a process on Linux, as the JVM ignores thread priorities there */
+    private static final File NICE = new File("/usr/bin/nice");
+
+    /** Starts a worker with the class path of this JVM, the token is not passed as an argument so it is not visible to other users */
+    static Process start(final int port, final String token, final LogLevel logLevel, final Priority priority) throws IOException {
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        final List<String> command = new ArrayList<>();
+        if (priority == Priority.LOW && NICE.canExecute()) {
+            command.add(NICE.getPath());
+        }
+        command.add(java);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(WorkerProcess.class.getName());
+        command.add(String.valueOf(port));
+        command.add(logLevel.toString());
+        final Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try (final Writer writer = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8)) {
+            writer.write(token);
+            writer.write('\n');
+        }
+        return process;
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    private static void work(final Logger logger, final int port, final String token) throws Exception {
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            final DataOutputStream out = output(socket);
+            final DataInputStream in = input(socket);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, token);
+            out.flush();
+
+            final Algorithm algorithm = new Algorithm(readString(in));
+            final Concurrency concurrency = Concurrency.fixed(in.readInt());
+            final ReadMode readMode = ReadMode.valueOf(readString(in));
+            final Schedule schedule = Schedule.valueOf(readString(in));
+            final boolean indexed = in.readBoolean(); // entries of the Git index follow each partition
+            final DedupMode dedupMode = DedupMode.valueOf(readString(in));
+            // shared across partitions, so that the limit also holds between them
+            final RateLimiter rateLimiter = RateLimiter.create(RateLimit.of(in.readLong(), in.readLong()));
+            final Priority priority = Priority.valueOf(readString(in));
+            final String basePath = readString(in);
+            final Pattern blacklist = in.readBoolean() ? Pattern.compile(readString(in), in.readInt()) : null;
+
+            // partitions are hashed one after another, so their walks reuse the same threads and buffers
+            final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable, "MonoHash worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final BufferPool bufferPool = new BufferPool(concurrency.getConcurrency());
+
+            while (true) {
+                final int count;
+                try {
+                    count = in.readInt();
+                } catch (final EOFException e) {
+                    return; // the coordinator gave up, e.g. because another worker failed
+                }
+                if (count == 0) {
+                    return;
+                }
+                final List<String> whitelist = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    whitelist.add(basePath + readString(in));
+                }
+                final IndexedBlobs indexedBlobs = indexed ? IndexedBlobs.read(logger, in) : null;
+
+                final long startAt = System.nanoTime();
+                final byte[] lines;
+                try {
+                    final HashPlan hashPlan = new HashPlan(basePath, whitelist, blacklist);
+                    lines = WhiteWalker.apply(logger, hashPlan, algorithm, concurrency, readMode, schedule, indexedBlobs, dedupMode, executor, bufferPool, rateLimiter, priority, RunControl.NONE).lines();
+                } catch (final Exception e) {
+                    out.writeByte(STATUS_FAILED);
+                    writeString(out, String.valueOf(e));
+                    out.flush();
+                    continue;
+                }
+                out.writeByte(STATUS_HASHED);
+                out.writeInt(lines.length);
+                out.write(lines);
+                out.flush();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Worker process hashed a partition of " + Format.i(count) + " whitelist entries" + Format.timeNanos(startAt));
+                }
+            }
+        }
+    }
+
+    public static void main(final String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java -cp monohash.jar " + WorkerProcess.class.getName() + " <port> <log level>, token is read from the standard input");
+            System.exit(ExitException.INVALID_ARGUMENT_GENERIC);
+        }
+        final Logger logger = new PrintStreamLogger(System.err, LogLevel.valueOf(args[1].toUpperCase(Locale.ROOT)));
+        try {
+            final String token = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+            work(logger, Integer.parseInt(args[0]), token);
+        } catch (final Exception e) {
+            if (logger.isErrorEnabled()) {
+                logger.error("Worker process failed: " + e);
+            }
+            System.exit(ExitException.ERROR_GENERIC);
+        }
+        System.exit(ExitException.SUCCESS);
+    }
+}
@@ -1,6 +1,11 @@
 package com.oradian.infra.monohash.diff;
 
+import com.oradian.infra.monohash.ExportParsingException;
+import com.oradian.infra.monohash.HashResults;
+
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 public final class Diff {
     public final List<Add> adds;
@@ -31,14 +36,15 @@ public final class Diff {
         return adds.size() + renames.size() + modifies.size() + deletes.size();
     }
 
-    private static class AddRename {
-        final String dstPath;
-        final byte[] dstHash;
-        String srcPath; // for upgrading Add to Rename
+    /** Adds and sources sharing a digest, which get upgraded to Renames by the RenameMatcher when collecting */
+    private static class AddRenames {
+        final ArrayList<String> dstPaths = new ArrayList<>();
+        final ArrayList<byte[]> dstHashes = new ArrayList<>();
+        final ArrayList<String> srcPaths = new ArrayList<>();
 
-        public AddRename(final String dstPath, final byte[] dstHash) {
-            this.dstPath = dstPath;
-            this.dstHash = dstHash;
+        void add(final String dstPath, final byte[] dstHash) {
+            dstPaths.add(dstPath);
+            dstHashes.add(dstHash);
         }
     }
 
@@ -51,7 +57,7 @@ public final class Diff {
 
         @Override
         public int hashCode() {
-            return (arr[0] << 24) + ((arr[1] & 0xff) << 16) + ((arr[2] & 0xff) << 8) + (arr[3] & 0xff);
+            return Arrays.hashCode(arr);
         }
 
         @Override
@@ -60,6 +66,79 @@ public final class Diff {
         }
     }
 
+    private static boolean isSorted(final HashResults.Entries entries) {
+        for (int i = 1; i < entries.size; i++) {
+            if (entries.comparePaths(i - 1, entries, i) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Diffs the results in place, comparing the raw digests without decoding the paths or copying the digests
+      * of unchanged entries, and grouping the added entries by digest in a primitive DigestTable.
+      * Produces the same Diff as applying it to the results' maps.
+      * Exports are sorted by path, so the entries can be merge-joined - otherwise this falls back to maps. */
+    public static Diff apply(
+            final HashResults src,
+            final HashResults dst) throws ExportParsingException {
+        final HashResults.Entries srcEntries = src.entries();
+        final HashResults.Entries dstEntries = dst.entries();
+        if (!isSorted(srcEntries) || !isSorted(dstEntries)) {
+            return apply(src.toMap(), dst.toMap());
+        }
+
+        final boolean[] srcMatched = new boolean[srcEntries.size];
+        final DigestTable addRenames = new DigestTable(dstEntries);
+        final ArrayList<Modify> modifies = new ArrayList<>();
+        int srcIndex = 0;
+        for (int dstIndex = 0; dstIndex < dstEntries.size; dstIndex++) {
+            int cmp = -1;
+            while (srcIndex < srcEntries.size && (cmp = srcEntries.comparePaths(srcIndex, dstEntries, dstIndex)) < 0) {
+                srcIndex++;
+            }
+            if (srcIndex < srcEntries.size && cmp == 0) {
+                srcMatched[srcIndex] = true;
+                if (!srcEntries.digestEquals(srcIndex, dstEntries, dstIndex)) {
+                    modifies.add(new Modify(dstEntries.path(dstIndex), srcEntries.digest(srcIndex), dstEntries.digest(dstIndex)));
+                }
+                srcIndex++;
+            } else {
+                addRenames.add(dstIndex);
+            }
+        }
+
+        final ArrayList<Delete> deletes = new ArrayList<>();
+        for (int index = 0; index < srcEntries.size; index++) {
+            if (!srcMatched[index] && !addRenames.addSource(srcEntries, index)) {
+                deletes.add(new Delete(srcEntries.path(index), srcEntries.digest(index)));
+            }
+        }
+
+        final ArrayList<Add> adds = new ArrayList<>();
+        final ArrayList<Rename> renames = new ArrayList<>();
+        addRenames.collect(srcEntries, adds, renames);
+        return new Diff(adds, renames, modifies, deletes);
+    }
+
+    /** Diffs the results in place in up to `parallelism` tasks on the executor, see ParallelDiff.
+      * Null runs the tasks on the common fork-join pool.
+      * Produces the same Diff as the sequential apply, which is used for small or unsorted results. */
+    public static Diff apply(
+            final HashResults src,
+            final HashResults dst,
+            final Executor executor,
+            final int parallelism) throws ExportParsingException {
+        final HashResults.Entries srcEntries = src.entries();
+        final HashResults.Entries dstEntries = dst.entries();
+        final int partitions = Math.min(parallelism * 4, Math.max(srcEntries.size, dstEntries.size) / ParallelDiff.MIN_PARTITION_SIZE);
+        if (parallelism < 2 || partitions < 2 || !isSorted(srcEntries) || !isSorted(dstEntries)) {
+            return apply(src, dst);
+        }
+
+        return ParallelDiff.apply(executor != null ? executor : ForkJoinPool.commonPool(), srcEntries, dstEntries, partitions);
+    }
+
     public static Diff apply(
             final Map<String, byte[]> src,
             final Map<String, byte[]> dst) {
@@ -67,7 +146,7 @@ public final class Diff {
         // defensive copy so that we don't exhaust the src collection
         final LinkedHashMap<String, byte[]> srcCopy = new LinkedHashMap<>(src);
 
-        final LinkedHashMap<ArrKey, List<AddRename>> addRenames = new LinkedHashMap<>();
+        final LinkedHashMap<ArrKey, AddRenames> addRenames = new LinkedHashMap<>();
         final ArrayList<Modify> modifies = new ArrayList<>();
         for (final Map.Entry<String, byte[]> dstEntry : dst.entrySet()) {
             final String dstPath = dstEntry.getKey();
@@ -76,8 +155,8 @@ public final class Diff {
             final byte[] srcHash = srcCopy.remove(dstPath);
             if (srcHash == null) {
                 final ArrKey reverseKey = new ArrKey(dstHash);
-                addRenames.computeIfAbsent(reverseKey, unused -> new ArrayList<>())
-                        .add(new AddRename(dstPath, dstHash));
+                addRenames.computeIfAbsent(reverseKey, unused -> new AddRenames())
+                        .add(dstPath, dstHash);
             } else if (!Arrays.equals(dstHash, srcHash)) {
                 modifies.add(new Modify(dstPath, srcHash, dstHash));
             }
@@ -89,27 +168,31 @@ public final class Diff {
             final byte[] srcHash = srcEntry.getValue();
 
             final ArrKey reverseKey = new ArrKey(srcHash);
-            final List<AddRename> adds = addRenames.get(reverseKey);
+            final AddRenames adds = addRenames.get(reverseKey);
             if (adds == null) {
                 deletes.add(new Delete(srcPath, srcHash));
             } else {
-                for (final AddRename addRename : adds) {
-                    if (addRename.srcPath == null) {
-                        addRename.srcPath = srcPath;
-                        break;
-                    }
-                }
+                adds.srcPaths.add(srcPath);
             }
         }
 
+        return collect(addRenames.values(), modifies, deletes);
+    }
+
+    private static Diff collect(
+            final Collection<AddRenames> addRenames,
+            final List<Modify> modifies,
+            final List<Delete> deletes) {
         final ArrayList<Add> adds = new ArrayList<>();
         final ArrayList<Rename> renames = new ArrayList<>();
-        for (final List<AddRename> ars : addRenames.values()) {
-            for (final AddRename ar : ars) {
-                if (ar.srcPath == null) {
-                    adds.add(new Add(ar.dstPath, ar.dstHash));
+        for (final AddRenames ars : addRenames) {
+            final String[] srcPaths = ars.srcPaths.toArray(new String[0]);
+            final int[] pairs = RenameMatcher.match(srcPaths, ars.dstPaths.toArray(new String[0]));
+            for (int i = 0; i < pairs.length; i++) {
+                if (pairs[i] == -1) {
+                    adds.add(new Add(ars.dstPaths.get(i), ars.dstHashes.get(i)));
                 } else {
-                    renames.add(new Rename(ar.srcPath, ar.dstPath, ar.dstHash));
+                    renames.add(new Rename(srcPaths[pairs[i]], ars.dstPaths.get(i), ars.dstHashes.get(i)));
                 }
             }
         }
@@ -119,39 +202,6 @@ public final class Diff {
 
     @Override
     public String toString() {
-        final StringBuilder sb = new StringBuilder();
-        if (!adds.isEmpty()) {
-            sb.append("Added files:").append('\n');
-            for (final Add add : adds) {
-                add.appendTo(sb);
-                sb.append('\n');
-            }
-            sb.append('\n');
-        }
-        if (!renames.isEmpty()) {
-            sb.append("Renamed files:").append('\n');
-            for (final Rename rename : renames) {
-                rename.appendTo(sb);
-                sb.append('\n');
-            }
-            sb.append('\n');
-        }
-        if (!modifies.isEmpty()) {
-            sb.append("Modified files:").append('\n');
-            for (final Modify modify : modifies) {
-                modify.appendTo(sb);
-                sb.append('\n');
-            }
-            sb.append('\n');
-        }
-        if (!deletes.isEmpty()) {
-            sb.append("Deleted files:").append('\n');
-            for (final Delete delete : deletes) {
-                delete.appendTo(sb);
-                sb.append('\n');
-            }
-            sb.append('\n');
-        }
-        return sb.toString();
+        return DiffRenderer.UNLIMITED.render(this);
     }
 }
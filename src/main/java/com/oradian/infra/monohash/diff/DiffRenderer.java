@@ -0,0 +1,146 @@
+package com.oradian.infra.monohash.diff;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+
+/** Writes a Diff to a Writer change by change, in the same format as Diff.toString, without building it in memory.
+  * With a line limit, the changes past the limit are omitted and only counted in a closing line. Directories holding
+  * at least `rollUp` changes of the same kind are collapsed into a single summary line, in place of their first change. */
+public final class DiffRenderer {
+    /** Renders every change on its own line */
+    public static final DiffRenderer UNLIMITED = new DiffRenderer(0, 0);
+
+    private static final String[] HEADERS = { "Added files:", "Renamed files:", "Modified files:", "Deleted files:" };
+    private static final char[] PREFIXES = { '+', '~', '!', '-' };
+    private static final String[] KINDS = { "added", "renamed", "modified", "deleted" };
+
+    /** Change lines to write before omitting the rest, 0 writes all of them */
+    public final int maxLines;
+
+    /** Changes of the same kind under one directory which get collapsed into a summary line, 0 never collapses them */
+    public final int rollUp;
+
+    public DiffRenderer(final int maxLines, final int rollUp) {
+        if (maxLines < 0) {
+            throw new IllegalArgumentException("Max lines cannot be negative, got: " + maxLines);
+        }
+        if (rollUp < 0) {
+            throw new IllegalArgumentException("Roll up cannot be negative, got: " + rollUp);
+        }
+        this.maxLines = maxLines;
+        this.rollUp = rollUp;
+    }
+
+    private static String path(final Change change) {
+        if (change instanceof Add) {
+            return ((Add) change).dstPath;
+        }
+        if (change instanceof Rename) {
+            return ((Rename) change).dstPath;
+        }
+        if (change instanceof Modify) {
+            return ((Modify) change).path;
+        }
+        return ((Delete) change).srcPath;
+    }
+
+    /** Directory of the path including the trailing slash, empty for paths in the root */
+    private static String directory(final String path) {
+        return path.substring(0, path.lastIndexOf('/') + 1);
+    }
+
+    /** Counts the changes per directory, keeping only the directories which get rolled up */
+    private HashMap<String, int[]> rolledUp(final List<? extends Change> changes) {
+        final HashMap<String, int[]> counts = new HashMap<>();
+        if (rollUp == 0 || changes.size() < rollUp) {
+            return counts;
+        }
+        for (final Change change : changes) {
+            counts.computeIfAbsent(directory(path(change)), unused -> new int[1])[0]++;
+        }
+        counts.values().removeIf(count -> count[0] < rollUp);
+        return counts;
+    }
+
+    public String render(final Diff diff) {
+        final StringWriter sw = new StringWriter();
+        try {
+            render(diff, sw);
+        } catch (final IOException e) {
+            throw new RuntimeException("StringWriter does not throw", e);
+        }
+        return sw.toString();
+    }
+
+    public void render(final Diff diff, final Writer out) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        final int[] omitted = new int[HEADERS.length];
+        int lines = 0;
+        for (int kind = 0; kind < HEADERS.length; kind++) {
+            final List<? extends Change> changes = diff.changes.get(kind);
+            if (changes.isEmpty()) {
+                continue;
+            }
+            if (maxLines != 0 && lines >= maxLines) {
+                omitted[kind] = changes.size();
+                continue;
+            }
+
+            out.write(HEADERS[kind]);
+            out.write('\n');
+            final HashMap<String, int[]> rolledUp = rolledUp(changes);
+            int rendered = 0;
+            for (final Change change : changes) {
+                if (maxLines != 0 && lines >= maxLines) {
+                    break;
+                }
+                line.setLength(0);
+                if (rolledUp.isEmpty()) {
+                    change.appendTo(line);
+                    rendered++;
+                } else {
+                    final String directory = directory(path(change));
+                    final int[] count = rolledUp.get(directory);
+                    if (count == null) {
+                        change.appendTo(line);
+                        rendered++;
+                    } else if (count[0] > 0) {
+                        line.append(PREFIXES[kind]).append(' ').append(count[0]).append(count[0] == 1 ? " file in " : " files in ")
+                                .append(directory.isEmpty() ? "./" : directory);
+                        rendered += count[0];
+                        count[0] = 0; // rendered in place of the first change in the directory
+                    } else {
+                        continue;
+                    }
+                }
+                line.append('\n');
+                out.append(line);
+                lines++;
+            }
+            omitted[kind] = changes.size() - rendered;
+            out.write('\n');
+        }
+
+        int omittedTotal = 0;
+        for (final int count : omitted) {
+            omittedTotal += count;
+        }
+        if (omittedTotal != 0) {
+            line.setLength(0);
+            line.append("... omitted ").append(omittedTotal).append(omittedTotal == 1 ? " change" : " changes")
+                    .append(" past the first ").append(maxLines).append(maxLines == 1 ? " line (" : " lines (");
+            String separator = "";
+            for (int kind = 0; kind < KINDS.length; kind++) {
+                if (omitted[kind] != 0) {
+                    line.append(separator).append(omitted[kind]).append(' ').append(KINDS[kind]);
+                    separator = ", ";
+                }
+            }
+            line.append(")\n");
+            out.append(line);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.oradian.infra.monohash.diff;
+
+import com.oradian.infra.monohash.HashResults;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** Groups the added entries by their digest, in an open-addressing table over primitive arrays.
+  * Entries are referenced by their index and their digests are compared in place, so diffing millions of entries
+  * does not allocate a key, a list and a map node per added entry.
+  * Groups keep the order in which their digest was first added, and the entries within a group keep their own order.
+  * Sources of the same digest are gathered per group, and paired with the adds by the RenameMatcher when collecting. */
+final class DigestTable {
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final HashResults.Entries dst;
+
+    private int[] slots; // group + 1, 0 marks an empty slot
+    private int shift;
+
+    private int groupCount;
+    private int[] groupHashes;
+    private int[] groupFirst;
+    private int[] groupLast;
+    private int[] groupAdds;
+    private int[] groupSources;
+    private int[] groupFirstSource;
+    private int[] groupLastSource;
+
+    private int addCount;
+    private int[] addDst;  // index of the added entry
+    private int[] addNext; // next add with the same digest
+
+    private int sourceCount;
+    private int[] sourceSrc;  // index of the source entry
+    private int[] sourceNext; // next source with the same digest
+
+    DigestTable(final HashResults.Entries dst) {
+        this.dst = dst;
+        slots = new int[INITIAL_CAPACITY << 1];
+        shift = Integer.numberOfLeadingZeros(slots.length - 1);
+        groupHashes = new int[INITIAL_CAPACITY];
+        groupFirst = new int[INITIAL_CAPACITY];
+        groupLast = new int[INITIAL_CAPACITY];
+        groupAdds = new int[INITIAL_CAPACITY];
+        groupSources = new int[INITIAL_CAPACITY];
+        groupFirstSource = new int[INITIAL_CAPACITY];
+        groupLastSource = new int[INITIAL_CAPACITY];
+        addDst = new int[INITIAL_CAPACITY];
+        addNext = new int[INITIAL_CAPACITY];
+        sourceSrc = new int[INITIAL_CAPACITY];
+        sourceNext = new int[INITIAL_CAPACITY];
+    }
+
+    /** Fibonacci hashing spreads the digest hash over the slots, then collisions are probed linearly */
+    private int home(final int hash) {
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+
+    /** Returns the slot holding the group with the same digest, or the empty slot where such a group belongs */
+    private int slotOf(final HashResults.Entries entries, final int index, final int hash) {
+        final int mask = slots.length - 1;
+        int slot = home(hash);
+        while (true) {
+            final int group = slots[slot] - 1;
+            if (group == NONE || groupHashes[group] == hash &&
+                    dst.digestEquals(addDst[groupFirst[group]], entries, index)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /** Adds the dst entry to the group of its digest */
+    void add(final int dstIndex) {
+        if (addCount == addDst.length) {
+            final int capacity = addCount << 1;
+            addDst = Arrays.copyOf(addDst, capacity);
+            addNext = Arrays.copyOf(addNext, capacity);
+        }
+        final int add = addCount++;
+        addDst[add] = dstIndex;
+        addNext[add] = NONE;
+
+        final int hash = dst.digestHashCode(dstIndex);
+        final int slot = slotOf(dst, dstIndex, hash);
+        final int group = slots[slot] - 1;
+        if (group == NONE) {
+            newGroup(slot, hash, add);
+        } else {
+            addNext[groupLast[group]] = add;
+            groupLast[group] = add;
+            groupAdds[group]++;
+        }
+    }
+
+    private void newGroup(final int slot, final int hash, final int add) {
+        if (groupCount == groupHashes.length) {
+            final int capacity = groupCount << 1;
+            groupHashes = Arrays.copyOf(groupHashes, capacity);
+            groupFirst = Arrays.copyOf(groupFirst, capacity);
+            groupLast = Arrays.copyOf(groupLast, capacity);
+            groupAdds = Arrays.copyOf(groupAdds, capacity);
+            groupSources = Arrays.copyOf(groupSources, capacity);
+            groupFirstSource = Arrays.copyOf(groupFirstSource, capacity);
+            groupLastSource = Arrays.copyOf(groupLastSource, capacity);
+        }
+        final int group = groupCount++;
+        groupHashes[group] = hash;
+        groupFirst[group] = add;
+        groupLast[group] = add;
+        groupAdds[group] = 1;
+        groupSources[group] = 0;
+        groupFirstSource[group] = NONE;
+        groupLastSource[group] = NONE;
+        slots[slot] = group + 1;
+        // keep the table at most half full, so that the probe sequences stay short
+        if (groupCount << 1 > slots.length) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        slots = new int[slots.length << 1];
+        shift--;
+        final int mask = slots.length - 1;
+        for (int group = 0; group < groupCount; group++) {
+            int slot = home(groupHashes[group]);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = group + 1;
+        }
+    }
+
+    /** Gathers the src entry into the group of its digest, to be paired with one of its adds when collecting.
+      * Returns false if no dst entry was added with this digest, i.e. the src entry was deleted. */
+    boolean addSource(final HashResults.Entries src, final int srcIndex) {
+        final int group = slots[slotOf(src, srcIndex, src.digestHashCode(srcIndex))] - 1;
+        if (group == NONE) {
+            return false;
+        }
+        if (sourceCount == sourceSrc.length) {
+            final int capacity = sourceCount << 1;
+            sourceSrc = Arrays.copyOf(sourceSrc, capacity);
+            sourceNext = Arrays.copyOf(sourceNext, capacity);
+        }
+        final int source = sourceCount++;
+        sourceSrc[source] = srcIndex;
+        sourceNext[source] = NONE;
+        if (groupSources[group]++ == 0) {
+            groupFirstSource[group] = source;
+        } else {
+            sourceNext[groupLastSource[group]] = source;
+        }
+        groupLastSource[group] = source;
+        return true;
+    }
+
+    int groupCount() {
+        return groupCount;
+    }
+
+    /** Groups are ordered by their first add, so this orders groups of different tables over the same dst */
+    int groupFirstDst(final int group) {
+        return addDst[groupFirst[group]];
+    }
+
+    /** Decodes the paths and copies the digests of the paired and unpaired entries, group by group */
+    void collect(final HashResults.Entries src, final List<Add> adds, final List<Rename> renames) {
+        for (int group = 0; group < groupCount; group++) {
+            collect(src, group, adds, renames);
+        }
+    }
+
+    void collect(final HashResults.Entries src, final int group, final List<Add> adds, final List<Rename> renames) {
+        final String[] dstPaths = new String[groupAdds[group]];
+        final int[] dstIndices = new int[dstPaths.length];
+        int i = 0;
+        for (int add = groupFirst[group]; add != NONE; add = addNext[add]) {
+            dstIndices[i] = addDst[add];
+            dstPaths[i++] = dst.path(addDst[add]);
+        }
+
+        final String[] srcPaths = new String[groupSources[group]];
+        i = 0;
+        for (int source = groupFirstSource[group]; source != NONE; source = sourceNext[source]) {
+            srcPaths[i++] = src.path(sourceSrc[source]);
+        }
+
+        final int[] pairs = RenameMatcher.match(srcPaths, dstPaths);
+        for (i = 0; i < dstPaths.length; i++) {
+            final byte[] digest = dst.digest(dstIndices[i]);
+            if (pairs[i] == NONE) {
+                adds.add(new Add(dstPaths[i], digest));
+            } else {
+                renames.add(new Rename(srcPaths[pairs[i]], dstPaths[i], digest));
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.oradian.infra.monohash.diff;
+
+import com.oradian.infra.monohash.HashResults;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.IntConsumer;
+
+/** Diffs sorted results across an executor, producing the same Diff as the sequential merge-join.
+  * <ol>
+  *   <li>Entries are partitioned into ranges of paths, which are merge-joined in parallel. This finds the Modifies,
+  *       and scatters the unmatched entries of both sides into buckets by their digest partition</li>
+  *   <li>Every digest partition pairs the sources of its buckets with the adds in its own DigestTable - this finds
+  *       the Adds and the Renames</li>
+  *   <li>Remaining sources become Deletes, decoded per range of paths</li>
+  * </ol>
+  * Results are concatenated in range order, and the Add and Rename groups of the digest partitions are merged by their
+  * first add - so the order of the changes does not depend on the partitioning. */
+final class ParallelDiff {
+    /** Ranges smaller than this are not worth the scheduling */
+    static final int MIN_PARTITION_SIZE = 1 << 14;
+
+    private final HashResults.Entries src;
+    private final HashResults.Entries dst;
+    private final int partitions;
+
+    private final int[] srcStarts;
+    private final int[] dstStarts;
+    private final boolean[] srcMatched;
+    private final boolean[] srcDeleted;
+
+    private final Ints[] unmatchedSrc;
+    private final Ints[][] unmatchedSrcByDigest; // [path range][digest partition]
+    private final Ints[][] unmatchedDstByDigest; // [path range][digest partition]
+    private final List<Modify>[] modifies;
+    private final List<Delete>[] deletes;
+
+    private final List<Add>[] adds;
+    private final List<Rename>[] renames;
+    private final Ints[] groupFirstDst;
+    private final Ints[] groupAddEnds;
+    private final Ints[] groupRenameEnds;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ParallelDiff(final HashResults.Entries src, final HashResults.Entries dst, final int partitions) {
+        this.src = src;
+        this.dst = dst;
+        this.partitions = partitions;
+
+        srcStarts = new int[partitions + 1];
+        dstStarts = new int[partitions + 1];
+        for (int i = 1; i < partitions; i++) {
+            dstStarts[i] = (int) ((long) dst.size * i / partitions);
+            srcStarts[i] = dstStarts[i] < dst.size ? lowerBound(dstStarts[i]) : src.size;
+        }
+        srcStarts[partitions] = src.size;
+        dstStarts[partitions] = dst.size;
+        srcMatched = new boolean[src.size];
+        srcDeleted = new boolean[src.size];
+
+        unmatchedSrc = new Ints[partitions];
+        unmatchedSrcByDigest = new Ints[partitions][];
+        unmatchedDstByDigest = new Ints[partitions][];
+        modifies = new List[partitions];
+        deletes = new List[partitions];
+        adds = new List[partitions];
+        renames = new List[partitions];
+        groupFirstDst = new Ints[partitions];
+        groupAddEnds = new Ints[partitions];
+        groupRenameEnds = new Ints[partitions];
+    }
+
+    /** Returns the first src entry whose path is not less than the path of the dst entry */
+    private int lowerBound(final int dstIndex) {
+        int low = 0;
+        int high = src.size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (src.comparePaths(mid, dst, dstIndex) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Mixes the hash differently than the DigestTable does, otherwise every partition would crowd into
+      * a fraction of its table's slots */
+    private int digestPartition(final HashResults.Entries entries, final int index) {
+        int hash = entries.digestHashCode(index);
+        hash = (hash ^ (hash >>> 16)) * 0x85EBCA6B;
+        hash = (hash ^ (hash >>> 13)) * 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return (int) (((hash & 0xffffffffL) * partitions) >>> 32);
+    }
+
+    private Ints[] newBuckets() {
+        final Ints[] buckets = new Ints[partitions];
+        for (int i = 0; i < partitions; i++) {
+            buckets[i] = new Ints();
+        }
+        return buckets;
+    }
+
+    private void joinPaths(final int partition) {
+        final ArrayList<Modify> partitionModifies = new ArrayList<>();
+        final Ints[] dstBuckets = newBuckets();
+        final int srcEnd = srcStarts[partition + 1];
+        int srcIndex = srcStarts[partition];
+        for (int dstIndex = dstStarts[partition]; dstIndex < dstStarts[partition + 1]; dstIndex++) {
+            int cmp = -1;
+            while (srcIndex < srcEnd && (cmp = src.comparePaths(srcIndex, dst, dstIndex)) < 0) {
+                srcIndex++;
+            }
+            if (srcIndex < srcEnd && cmp == 0) {
+                srcMatched[srcIndex] = true;
+                if (!src.digestEquals(srcIndex, dst, dstIndex)) {
+                    partitionModifies.add(new Modify(dst.path(dstIndex), src.digest(srcIndex), dst.digest(dstIndex)));
+                }
+                srcIndex++;
+            } else {
+                dstBuckets[digestPartition(dst, dstIndex)].add(dstIndex);
+            }
+        }
+
+        final Ints partitionUnmatchedSrc = new Ints();
+        final Ints[] srcBuckets = newBuckets();
+        for (int index = srcStarts[partition]; index < srcEnd; index++) {
+            if (!srcMatched[index]) {
+                partitionUnmatchedSrc.add(index);
+                srcBuckets[digestPartition(src, index)].add(index);
+            }
+        }
+
+        modifies[partition] = partitionModifies;
+        unmatchedSrc[partition] = partitionUnmatchedSrc;
+        unmatchedDstByDigest[partition] = dstBuckets;
+        unmatchedSrcByDigest[partition] = srcBuckets;
+    }
+
+    private void pairDigests(final int partition) {
+        // buckets are visited in path range order, so the adds and the sources keep their order
+        final DigestTable table = new DigestTable(dst);
+        for (final Ints[] dstBuckets : unmatchedDstByDigest) {
+            final Ints dstIndices = dstBuckets[partition];
+            for (int i = 0; i < dstIndices.size; i++) {
+                table.add(dstIndices.values[i]);
+            }
+        }
+        for (final Ints[] srcBuckets : unmatchedSrcByDigest) {
+            final Ints srcIndices = srcBuckets[partition];
+            for (int i = 0; i < srcIndices.size; i++) {
+                final int srcIndex = srcIndices.values[i];
+                if (!table.addSource(src, srcIndex)) {
+                    srcDeleted[srcIndex] = true;
+                }
+            }
+        }
+
+        final ArrayList<Add> partitionAdds = new ArrayList<>();
+        final ArrayList<Rename> partitionRenames = new ArrayList<>();
+        final Ints firstDst = new Ints();
+        final Ints addEnds = new Ints();
+        final Ints renameEnds = new Ints();
+        for (int group = 0; group < table.groupCount(); group++) {
+            table.collect(src, group, partitionAdds, partitionRenames);
+            firstDst.add(table.groupFirstDst(group));
+            addEnds.add(partitionAdds.size());
+            renameEnds.add(partitionRenames.size());
+        }
+
+        adds[partition] = partitionAdds;
+        renames[partition] = partitionRenames;
+        groupFirstDst[partition] = firstDst;
+        groupAddEnds[partition] = addEnds;
+        groupRenameEnds[partition] = renameEnds;
+    }
+
+    private void collectDeletes(final int partition) {
+        final ArrayList<Delete> partitionDeletes = new ArrayList<>();
+        final Ints srcIndices = unmatchedSrc[partition];
+        for (int i = 0; i < srcIndices.size; i++) {
+            final int srcIndex = srcIndices.values[i];
+            if (srcDeleted[srcIndex]) {
+                partitionDeletes.add(new Delete(src.path(srcIndex), src.digest(srcIndex)));
+            }
+        }
+        deletes[partition] = partitionDeletes;
+    }
+
+    private static <T> ArrayList<T> concat(final List<T>[] lists) {
+        int size = 0;
+        for (final List<T> list : lists) {
+            size += list.size();
+        }
+        final ArrayList<T> result = new ArrayList<>(size);
+        for (final List<T> list : lists) {
+            result.addAll(list);
+        }
+        return result;
+    }
+
+    /** Merges the groups of all the digest partitions in the order of their first add */
+    private void mergeGroups(final List<Add> mergedAdds, final List<Rename> mergedRenames) {
+        final int[] cursors = new int[partitions];
+        while (true) {
+            int next = -1;
+            for (int partition = 0; partition < partitions; partition++) {
+                final int cursor = cursors[partition];
+                if (cursor < groupFirstDst[partition].size && (next == -1 ||
+                        groupFirstDst[partition].values[cursor] < groupFirstDst[next].values[cursors[next]])) {
+                    next = partition;
+                }
+            }
+            if (next == -1) {
+                return;
+            }
+            final int group = cursors[next]++;
+            final int addStart = group == 0 ? 0 : groupAddEnds[next].values[group - 1];
+            mergedAdds.addAll(adds[next].subList(addStart, groupAddEnds[next].values[group]));
+            final int renameStart = group == 0 ? 0 : groupRenameEnds[next].values[group - 1];
+            mergedRenames.addAll(renames[next].subList(renameStart, groupRenameEnds[next].values[group]));
+        }
+    }
+
+    private static void fork(final Executor executor, final int tasks, final IntConsumer task) {
+        final CompletableFuture<?>[] forks = new CompletableFuture<?>[tasks];
+        for (int i = 0; i < tasks; i++) {
+            final int index = i;
+            forks[i] = CompletableFuture.runAsync(() -> task.accept(index), executor);
+        }
+        CompletableFuture.allOf(forks).join();
+    }
+
+    /** Both entries must be sorted by path */
+    static Diff apply(
+            final Executor executor,
+            final HashResults.Entries src,
+            final HashResults.Entries dst,
+            final int partitions) {
+        final ParallelDiff diff = new ParallelDiff(src, dst, partitions);
+        fork(executor, partitions, diff::joinPaths);
+        fork(executor, partitions, diff::pairDigests);
+        fork(executor, partitions, diff::collectDeletes);
+
+        int addCount = 0;
+        int renameCount = 0;
+        for (int partition = 0; partition < partitions; partition++) {
+            addCount += diff.adds[partition].size();
+            renameCount += diff.renames[partition].size();
+        }
+        final ArrayList<Add> adds = new ArrayList<>(addCount);
+        final ArrayList<Rename> renames = new ArrayList<>(renameCount);
+        diff.mergeGroups(adds, renames);
+        return new Diff(adds, renames, concat(diff.modifies), concat(diff.deletes));
+    }
+
+    /** Growable list of primitive ints */
+    private static final class Ints {
+        int[] values = new int[4];
+        int size;
+
+        void add(final int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+    }
+}
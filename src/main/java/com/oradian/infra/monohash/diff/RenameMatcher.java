@@ -0,0 +1,126 @@
+package com.oradian.infra.monohash.diff;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Pairs the deleted and the added paths which share a digest, so that each pair becomes a Rename.
+  * Paths sharing the most trailing segments are paired first - moving a directory of identical files (e.g. empty
+  * __init__.py files) pairs each file with its counterpart under the new directory, not with an arbitrary one.
+  * Whatever remains is paired in order, the first remaining source with the first remaining add.
+  * Each level of trailing segments looks every path up once, so the cost grows with the number of paths times their
+  * depth - never with the number of sources times the number of adds. */
+final class RenameMatcher {
+    private static final int NONE = -1;
+
+    private RenameMatcher() {}
+
+    private static int depth(final String path) {
+        int depth = 1;
+        for (int i = path.indexOf('/'); i != -1; i = path.indexOf('/', i + 1)) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /** Tracks the trailing segments of a path, dropping its leading segments as the level decreases */
+    private static final class Suffixes {
+        private final String[] paths;
+        private final int[] depths;
+        private final int[] starts;
+
+        Suffixes(final String[] paths) {
+            this.paths = paths;
+            depths = new int[paths.length];
+            starts = new int[paths.length];
+            for (int i = 0; i < paths.length; i++) {
+                depths[i] = depth(paths[i]);
+            }
+        }
+
+        int maxDepth() {
+            int max = 0;
+            for (final int depth : depths) {
+                max = Math.max(max, depth);
+            }
+            return max;
+        }
+
+        /** Returns the last `level` segments of the path, or null if the path is not that deep */
+        String suffix(final int index, final int level) {
+            final String path = paths[index];
+            if (depths[index] < level) {
+                return null;
+            }
+            while (depths[index] > level) {
+                starts[index] = path.indexOf('/', starts[index]) + 1;
+                depths[index]--;
+            }
+            return path.substring(starts[index]);
+        }
+    }
+
+    /** Returns the index of the source paired with each add, or -1 for the adds which remained unpaired */
+    static int[] match(final String[] srcPaths, final String[] dstPaths) {
+        final int[] pairs = new int[dstPaths.length];
+        Arrays.fill(pairs, NONE);
+        if (srcPaths.length == 0 || dstPaths.length == 0) {
+            return pairs;
+        }
+
+        final boolean[] srcPaired = new boolean[srcPaths.length];
+        int unpaired = Math.min(srcPaths.length, dstPaths.length);
+        if (srcPaths.length > 1 || dstPaths.length > 1) {
+            final Suffixes srcSuffixes = new Suffixes(srcPaths);
+            final Suffixes dstSuffixes = new Suffixes(dstPaths);
+            final int[] nextDst = new int[dstPaths.length];
+            final HashMap<String, Integer> firstDst = new HashMap<>();
+
+            for (int level = Math.min(srcSuffixes.maxDepth(), dstSuffixes.maxDepth()); level > 0 && unpaired > 0; level--) {
+                // chain the unpaired adds by their suffix, in reverse so that the chains keep the order of the adds
+                firstDst.clear();
+                for (int dst = dstPaths.length - 1; dst >= 0; dst--) {
+                    if (pairs[dst] == NONE) {
+                        final String suffix = dstSuffixes.suffix(dst, level);
+                        if (suffix != null) {
+                            final Integer next = firstDst.put(suffix, dst);
+                            nextDst[dst] = next == null ? NONE : next;
+                        }
+                    }
+                }
+                if (firstDst.isEmpty()) {
+                    continue;
+                }
+                for (int src = 0; src < srcPaths.length && unpaired > 0; src++) {
+                    if (!srcPaired[src]) {
+                        final String suffix = srcSuffixes.suffix(src, level);
+                        final Integer dst = suffix == null ? null : firstDst.get(suffix);
+                        if (dst != null) {
+                            pairs[dst] = src;
+                            srcPaired[src] = true;
+                            unpaired--;
+                            if (nextDst[dst] == NONE) {
+                                firstDst.remove(suffix);
+                            } else {
+                                firstDst.put(suffix, nextDst[dst]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        // per-digest cursors over the remaining sources and adds
+        int src = 0;
+        for (int dst = 0; dst < dstPaths.length && unpaired > 0; dst++) {
+            if (pairs[dst] == NONE) {
+                while (srcPaired[src]) {
+                    src++;
+                }
+                pairs[dst] = src;
+                srcPaired[src] = true;
+                unpaired--;
+            }
+        }
+        return pairs;
+    }
+}
@@ -50,21 +50,25 @@ public final class Algorithm {
 
         this.provider = testDigest.getProvider();
         this.lengthInBytes = testDigest.getDigestLength();
-        this.digestFactory = ThreadLocal.withInitial(() -> {
-            try {
-                // lock the provider for this particular algorithm
-                return MessageDigest.getInstance(underlying, this.provider);
-            } catch (final NoSuchAlgorithmException e) {
-                // should not happen - something is very wrong
-                throw new RuntimeException("Unable to resolve '" + underlying +
-                        "' MessageDigest via provider '" + this.provider.getName() +
-                        "', even though this was previously successful", e);
-            }
-        });
+        this.digestFactory = ThreadLocal.withInitial(this::newDigest);
     }
 
     // =================================================================================================================
 
+    /** Creates a new MessageDigest of the underlying algorithm which is not bound to the current thread.
+      * Does not prepend the GIT header, as the length may not be known up front. */
+    public MessageDigest newDigest() {
+        try {
+            // lock the provider for this particular algorithm
+            return MessageDigest.getInstance(underlying, provider);
+        } catch (final NoSuchAlgorithmException e) {
+            // should not happen - something is very wrong
+            throw new RuntimeException("Unable to resolve '" + underlying +
+                    "' MessageDigest via provider '" + provider.getName() +
+                    "', even though this was previously successful", e);
+        }
+    }
+
     public MessageDigest init(final long length) {
         final MessageDigest md = digestFactory.get();
         md.reset();
@@ -9,6 +9,7 @@ import com.oradian.infra.monohash.util.Format;
 import java.io.File;
 import java.util.*;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 public abstract class CmdLineParser {
     private CmdLineParser() {}
@@ -16,22 +17,33 @@ public abstract class CmdLineParser {
     private static final String STOP_PARSING_FLAG = "--";
 
     private enum Option {
-        LOG_LEVEL   ("-l", "log level",    LogLevel.DEFAULT, ", allowed values: " + formatSupportedLogLevels()),
-        ALGORITHM   ("-a", "algorithm",    Algorithm.DEFAULT.name, ", some allowed values: " + formatSupportedAlgorithms(false)),
-        CONCURRENCY ("-c", "concurrency",  Concurrency.DEFAULT.getConcurrency(), " - taken from number of CPUs"),
-        VERIFICATION("-v", "verification", Verification.DEFAULT, ", allowed values: " + formatSupportedVerifications()),
+        LOG_LEVEL     ("-l", "log level",      LogLevel.DEFAULT, () -> ", allowed values: " + formatSupportedLogLevels()),
+        ALGORITHM     ("-a", "algorithm",      Algorithm.DEFAULT.name, () -> ", some allowed values: " + formatSupportedAlgorithms(false)),
+        CONCURRENCY   ("-c", "concurrency",    Concurrency.DEFAULT.getConcurrency(), () -> " - taken from number of CPUs"),
+        VERIFICATION  ("-v", "verification",   Verification.DEFAULT, () -> ", allowed values: " + formatSupportedVerifications()),
+        FSYNC         ("-f", "fsync",          Fsync.DEFAULT, () -> ", allowed values: " + formatSupportedFsyncs()),
+        COMPRESSION   ("-z", "compression",    Compression.DEFAULT, () -> ", allowed values: " + formatSupportedCompressions()),
+        READ_MODE     ("-r", "read mode",      ReadMode.DEFAULT, () -> ", allowed values: " + formatSupportedReadModes()),
+        SCHEDULE      ("-s", "schedule",       Schedule.DEFAULT, () -> ", allowed values: " + formatSupportedSchedules()),
+        GIT_INDEX_MODE("-g", "git index mode", GitIndexMode.DEFAULT, () -> ", allowed values: " + formatSupportedGitIndexModes()),
+        DEDUP_MODE    ("-d", "dedup mode",     DedupMode.DEFAULT, () -> ", allowed values: " + formatSupportedDedupModes()),
+        WORKERS       ("-w", "workers",        Workers.DEFAULT, () -> " - hashes in this process, otherwise the number of local worker processes which split the whitelist"),
+        RATE_LIMIT    ("-b", "rate limit",     RateLimit.DEFAULT, () -> ", otherwise bytes per second with an optional k/m/g suffix, followed by an optional ,<files per second>"),
+        PRIORITY      ("-p", "priority",       Priority.DEFAULT, () -> ", allowed values: " + formatSupportedPriorities()),
+        DIFF_LIMIT    ("-m", "diff limit",     DiffLimit.DEFAULT, () -> ", otherwise max lines of changes logged by verification, followed by an optional ,<roll up> to log directories with that many changes as one line"),
+        REVISION      ("-t", "revision",       "<none>", () -> " - hashes the files on disk, otherwise a commit, tag or tree of the Git repository containing the base path"),
         ;
 
         final String flag;
         final String name;
         final Object defaultValue;
-        final String description;
+        final Supplier<String> description;
 
         Option(
                 final String flag,
                 final String name,
                 final Object defaultValue,
-                final String description) {
+                final Supplier<String> description) {
             this.flag = flag;
             this.name = name;
             this.defaultValue = defaultValue;
@@ -47,7 +59,7 @@ public abstract class CmdLineParser {
         for (final Option option : Option.values()) {
             sb.append("  ").append(option.flag).append(" <").append(option.name)
                     .append("> (default: ").append(option.defaultValue)
-                    .append(option.description).append(")\n");
+                    .append(option.description.get()).append(")\n");
         }
         sb.append("  ")
                 .append(STOP_PARSING_FLAG)
@@ -231,6 +243,304 @@ public abstract class CmdLineParser {
 
     // -----------------------------------------------------------------------------------------------------------------
 
+    private static String formatSupportedFsyncs() {
+        final StringBuilder sb = new StringBuilder();
+        for (final Fsync fsync : Fsync.values()) {
+            sb.append(fsync).append(", ");
+        }
+        sb.setLength(sb.length() - 2);
+        return sb.toString();
+    }
+
+    private static Fsync parseFsync(final Queue<String> remainingArgs, final Logger logger) throws ExitException {
+        final String fsync = seekOption(remainingArgs, Option.FSYNC);
+        try {
+            final Fsync result;
+            if (fsync == null) {
+                result = Fsync.DEFAULT;
+            } else {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Parsed fsync: " + fsync);
+                }
+                result = Fsync.parseString(fsync);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Using fsync: " + result);
+            }
+            return result;
+        } catch (final ParamParseException e) {
+            throw buildExitWithHelp("Unknown fsync: '" + fsync + "', supported fsyncs are: " +
+                    formatSupportedFsyncs(), ExitException.INVALID_ARGUMENT_FSYNC);
+        }
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    private static String formatSupportedCompressions() {
+        final StringBuilder sb = new StringBuilder();
+        for (final Compression compression : Compression.values()) {
+            sb.append(compression).append(", ");
+        }
+        sb.setLength(sb.length() - 2);
+        return sb.toString();
+    }
+
+    private static Compression parseCompression(final Queue<String> remainingArgs, final Logger logger) throws ExitException {
+        final String compression = seekOption(remainingArgs, Option.COMPRESSION);
+        try {
+            final Compression result;
+            if (compression == null) {
+                result = Compression.DEFAULT;
+            } else {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Parsed compression: " + compression);
+                }
+                result = Compression.parseString(compression);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Using compression: " + result);
+            }
+            return result;
+        } catch (final ParamParseException e) {
+            throw buildExitWithHelp("Unknown compression: '" + compression + "', supported compressions are: " +
+                    formatSupportedCompressions(), ExitException.INVALID_ARGUMENT_COMPRESSION);
+        }
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    private static String formatSupportedReadModes() {
+        final StringBuilder sb = new StringBuilder();
+        for (final ReadMode readMode : ReadMode.values()) {
+            sb.append(readMode).append(", ");
+        }
+        sb.setLength(sb.length() - 2);
+        return sb.toString();
+    }
+
+    private static ReadMode parseReadMode(final Queue<String> remainingArgs, final Logger logger) throws ExitException {
+        final String readMode = seekOption(remainingArgs, Option.READ_MODE);
+        try {
+            final ReadMode result;
+            if (readMode == null) {
+                result = ReadMode.DEFAULT;
+            } else {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Parsed read mode: " + readMode);
+                }
+                result = ReadMode.parseString(readMode);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Using read mode: " + result);
+            }
+            return result;
+        } catch (final ParamParseException e) {
+            throw buildExitWithHelp("Unknown read mode: '" + readMode + "', supported read modes are: " +
+                    formatSupportedReadModes(), ExitException.INVALID_ARGUMENT_READ_MODE);
+        }
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    private static String formatSupportedSchedules() {
+        final StringBuilder sb = new StringBuilder();
+        for (final Schedule schedule : Schedule.values()) {
+            sb.append(schedule).append(", ");
+        }
+        sb.setLength(sb.length() - 2);
+        return sb.toString();
+    }
+
+    private static Schedule parseSchedule(final Queue<String> remainingArgs, final Logger logger) throws ExitException {
+        final String schedule = seekOption(remainingArgs, Option.SCHEDULE);
+        try {
+            final Schedule result;
+            if (schedule == null) {
+                result = Schedule.DEFAULT;
+            } else {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Parsed schedule: " + schedule);
+                }
+                result = Schedule.parseString(schedule);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Using schedule: " + result);
+            }
+            return result;
+        } catch (final ParamParseException e) {
+            throw buildExitWithHelp("Unknown schedule: '" + schedule + "', supported schedules are: " +
+                    formatSupportedSchedules(), ExitException.INVALID_ARGUMENT_SCHEDULE);
+        }
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    private static String formatSupportedGitIndexModes() {
+        final StringBuilder sb = new StringBuilder();
+        for (final GitIndexMode gitIndexMode : GitIndexMode.values()) {
+            sb.append(gitIndexMode).append(", ");
+        }
+        sb.setLength(sb.length() - 2);
+        return sb.toString();
+    }
+
+    private static GitIndexMode parseGitIndexMode(final Queue<String> remainingArgs, final Logger logger) throws ExitException {
+        final String gitIndexMode = seekOption(remainingArgs, Option.GIT_INDEX_MODE);
+        try {
+            final GitIndexMode result;
+            if (gitIndexMode == null) {
+                result = GitIndexMode.DEFAULT;
+            } else {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Parsed git index mode: " + gitIndexMode);
+                }
+                result = GitIndexMode.parseString(gitIndexMode);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Using git index mode: " + result);
+            }
+            return result;
+        } catch (final ParamParseException e) {
+            throw buildExitWithHelp("Unknown git index mode: '" + gitIndexMode + "', supported git index modes are: " +
+                    formatSupportedGitIndexModes(), ExitException.INVALID_ARGUMENT_GIT_INDEX_MODE);
+        }
+    }
+
+    private static String formatSupportedDedupModes() {
+        final StringBuilder sb = new StringBuilder();
+        for (final DedupMode dedupMode : DedupMode.values()) {
+            sb.append(dedupMode).append(", ");
+        }
+        sb.setLength(sb.length() - 2);
+        return sb.toString();
+    }
+
+    private static DedupMode parseDedupMode(final Queue<String> remainingArgs, final Logger logger) throws ExitException {
+        final String dedupMode = seekOption(remainingArgs, Option.DEDUP_MODE);
+        try {
+            final DedupMode result;
+            if (dedupMode == null) {
+                result = DedupMode.DEFAULT;
+            } else {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Parsed dedup mode: " + dedupMode);
+                }
+                result = DedupMode.parseString(dedupMode);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Using dedup mode: " + result);
+            }
+            return result;
+        } catch (final ParamParseException e) {
+            throw buildExitWithHelp("Unknown dedup mode: '" + dedupMode + "', supported dedup modes are: " +
+                    formatSupportedDedupModes(), ExitException.INVALID_ARGUMENT_DEDUP_MODE);
+        }
+    }
+
+    private static Workers parseWorkers(final Queue<String> remainingArgs, final Logger logger) throws ExitException {
+        final String workers = seekOption(remainingArgs, Option.WORKERS);
+        try {
+            final Workers result;
+            if (workers == null) {
+                result = Workers.DEFAULT;
+            } else {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Parsed workers: " + workers);
+                }
+                result = Workers.parseString(workers);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Using workers: " + result);
+            }
+            return result;
+        } catch (final ParamParseException e) {
+            throw buildExitWithHelp(e.getMessage(), ExitException.INVALID_ARGUMENT_WORKERS);
+        }
+    }
+
+    private static RateLimit parseRateLimit(final Queue<String> remainingArgs, final Logger logger) throws ExitException {
+        final String rateLimit = seekOption(remainingArgs, Option.RATE_LIMIT);
+        try {
+            final RateLimit result;
+            if (rateLimit == null) {
+                result = RateLimit.DEFAULT;
+            } else {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Parsed rate limit: " + rateLimit);
+                }
+                result = RateLimit.parseString(rateLimit);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Using rate limit: " + result);
+            }
+            return result;
+        } catch (final ParamParseException e) {
+            throw buildExitWithHelp(e.getMessage(), ExitException.INVALID_ARGUMENT_RATE_LIMIT);
+        }
+    }
+
+    private static String formatSupportedPriorities() {
+        final StringBuilder sb = new StringBuilder();
+        for (final Priority priority : Priority.values()) {
+            sb.append(priority).append(", ");
+        }
+        sb.setLength(sb.length() - 2);
+        return sb.toString();
+    }
+
+    private static Priority parsePriority(final Queue<String> remainingArgs, final Logger logger) throws ExitException {
+        final String priority = seekOption(remainingArgs, Option.PRIORITY);
+        try {
+            final Priority result;
+            if (priority == null) {
+                result = Priority.DEFAULT;
+            } else {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Parsed priority: " + priority);
+                }
+                result = Priority.parseString(priority);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Using priority: " + result);
+            }
+            return result;
+        } catch (final ParamParseException e) {
+            throw buildExitWithHelp("Unknown priority: '" + priority + "', supported priorities are: " +
+                    formatSupportedPriorities(), ExitException.INVALID_ARGUMENT_PRIORITY);
+        }
+    }
+
+    private static DiffLimit parseDiffLimit(final Queue<String> remainingArgs, final Logger logger) throws ExitException {
+        final String diffLimit = seekOption(remainingArgs, Option.DIFF_LIMIT);
+        try {
+            final DiffLimit result;
+            if (diffLimit == null) {
+                result = DiffLimit.DEFAULT;
+            } else {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Parsed diff limit: " + diffLimit);
+                }
+                result = DiffLimit.parseString(diffLimit);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Using diff limit: " + result);
+            }
+            return result;
+        } catch (final ParamParseException e) {
+            throw buildExitWithHelp(e.getMessage(), ExitException.INVALID_ARGUMENT_DIFF_LIMIT);
+        }
+    }
+
+    private static String parseRevision(final Queue<String> remainingArgs, final Logger logger) throws ExitException {
+        final String revision = seekOption(remainingArgs, Option.REVISION);
+        if (revision != null && logger.isDebugEnabled()) {
+            logger.debug("Using revision: '" + revision + '\'');
+        }
+        return revision;
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
     private static void skipStopFlag(final Queue<String> remainingArgs, final Logger logger) {
         if (!remainingArgs.isEmpty() && remainingArgs.peek().equals(STOP_PARSING_FLAG)) {
             if (logger.isTraceEnabled()) {
@@ -304,6 +614,17 @@ public abstract class CmdLineParser {
         final Algorithm algorithm = parseAlgorithm(remainingArgs, logger);
         final Concurrency concurrency = parseConcurrency(remainingArgs, logger);
         final Verification verification = parseVerification(remainingArgs, logger);
+        final Fsync fsync = parseFsync(remainingArgs, logger);
+        final Compression compression = parseCompression(remainingArgs, logger);
+        final ReadMode readMode = parseReadMode(remainingArgs, logger);
+        final Schedule schedule = parseSchedule(remainingArgs, logger);
+        final GitIndexMode gitIndexMode = parseGitIndexMode(remainingArgs, logger);
+        final DedupMode dedupMode = parseDedupMode(remainingArgs, logger);
+        final Workers workers = parseWorkers(remainingArgs, logger);
+        final RateLimit rateLimit = parseRateLimit(remainingArgs, logger);
+        final Priority priority = parsePriority(remainingArgs, logger);
+        final DiffLimit diffLimit = parseDiffLimit(remainingArgs, logger);
+        final String revision = parseRevision(remainingArgs, logger);
 
         skipStopFlag(remainingArgs, logger);
         if (logger.isTraceEnabled()) {
@@ -318,6 +639,17 @@ public abstract class CmdLineParser {
                 .withAlgorithm(algorithm)
                 .withConcurrency(concurrency)
                 .withVerification(verification)
+                .withFsync(fsync)
+                .withCompression(compression)
+                .withReadMode(readMode)
+                .withSchedule(schedule)
+                .withGitIndexMode(gitIndexMode)
+                .withDedupMode(dedupMode)
+                .withWorkers(workers)
+                .withRateLimit(rateLimit)
+                .withPriority(priority)
+                .withDiffLimit(diffLimit)
+                .withRevision(revision)
                 .withHashPlan(hashPlan)
                 .withExport(export);
     }
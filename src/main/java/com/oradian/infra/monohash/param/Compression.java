@@ -0,0 +1,33 @@
+package com.oradian.infra.monohash.param;
+
+import java.util.Locale;
+
+public enum Compression {
+    OFF,     // plain text export, one line per file
+    DEFLATE, // independently deflated blocks with a block index, compressed and decompressed in parallel
+    ;
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    // #################################################################################################################
+
+    public static final Compression DEFAULT;
+    static {
+        try {
+            DEFAULT = parseString(Config.getString("Compression.DEFAULT"));
+        } catch (final ParamParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static Compression parseString(final String value) throws ParamParseException {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new ParamParseException("Could not parse Compression: " + value, e);
+        }
+    }
+}
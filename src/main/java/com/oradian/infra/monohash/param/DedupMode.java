@@ -0,0 +1,33 @@
+package com.oradian.infra.monohash.param;
+
+import java.util.Locale;
+
+public enum DedupMode {
+    OFF,       // hash every path
+    HARDLINKS, // read files with multiple hard links only once per run, and reuse the digest for each of their paths
+    ;
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    // #################################################################################################################
+
+    public static final DedupMode DEFAULT;
+    static {
+        try {
+            DEFAULT = parseString(Config.getString("DedupMode.DEFAULT"));
+        } catch (final ParamParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static DedupMode parseString(final String value) throws ParamParseException {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new ParamParseException("Could not parse DedupMode: " + value, e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.oradian.infra.monohash.param;
+
+import java.util.Locale;
+
+public final class DiffLimit {
+    /** Lines of changes logged before the rest of the diff is only counted, 0 logs all of them */
+    public final int maxLines;
+
+    /** Changes of the same kind under one directory which get logged as a single summary line, 0 never rolls them up */
+    public final int rollUp;
+
+    private DiffLimit(final int maxLines, final int rollUp) {
+        if (maxLines < 0) {
+            throw new IllegalArgumentException("Max diff lines cannot be negative, got: " + maxLines);
+        }
+        if (rollUp < 0) {
+            throw new IllegalArgumentException("Diff roll up cannot be negative, got: " + rollUp);
+        }
+        this.maxLines = maxLines;
+        this.rollUp = rollUp;
+    }
+
+    public static DiffLimit of(final int maxLines, final int rollUp) {
+        return maxLines == DEFAULT.maxLines && rollUp == DEFAULT.rollUp
+                ? DEFAULT
+                : new DiffLimit(maxLines, rollUp);
+    }
+
+    public boolean isLimited() {
+        return maxLines != 0 || rollUp != 0;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DiffLimit)) {
+            return false;
+        }
+        final DiffLimit that = (DiffLimit) obj;
+        return maxLines == that.maxLines &&
+                rollUp == that.rollUp;
+    }
+
+    @Override
+    public int hashCode() {
+        return maxLines * 31 + rollUp;
+    }
+
+    /** Formats the limit in the same way it is parsed */
+    @Override
+    public String toString() {
+        if (!isLimited()) {
+            return OFF;
+        }
+        return rollUp == 0 ? String.valueOf(maxLines) : maxLines + "," + rollUp;
+    }
+
+    // #################################################################################################################
+
+    private static final String OFF = "off";
+
+    public static final DiffLimit DEFAULT;
+    static {
+        try {
+            DEFAULT = parseString(Config.getString("DiffLimit.DEFAULT"));
+        } catch (final ParamParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Parses "off", or the max lines followed by an optional ",<roll up>" */
+    static DiffLimit parseString(final String value) throws ParamParseException {
+        final String lowerCase = value.toLowerCase(Locale.ROOT);
+        if (lowerCase.equals(OFF)) {
+            return new DiffLimit(0, 0);
+        }
+        final int comma = lowerCase.indexOf(',');
+        final int maxLines;
+        final int rollUp;
+        try {
+            maxLines = Integer.parseInt(comma == -1 ? lowerCase : lowerCase.substring(0, comma));
+            rollUp = comma == -1 ? 0 : Integer.parseInt(lowerCase.substring(comma + 1));
+        } catch (final NumberFormatException e) {
+            throw new ParamParseException("Could not parse diff limit: " + value, e);
+        }
+        try {
+            return new DiffLimit(maxLines, rollUp);
+        } catch (final IllegalArgumentException e) {
+            throw new ParamParseException(e.getMessage());
+        }
+    }
+}
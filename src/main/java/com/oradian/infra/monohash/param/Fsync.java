@@ -0,0 +1,34 @@
+package com.oradian.infra.monohash.param;
+
+import java.util.Locale;
+
+public enum Fsync {
+    OFF,  // leave flushing of the export file to the OS, the atomic rename still prevents truncated exports
+    FILE, // force the temporary export file to disk before renaming it into place
+    FULL, // additionally force the parent directory after the rename, so that the rename itself survives a crash
+    ;
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    // #################################################################################################################
+
+    public static final Fsync DEFAULT;
+    static {
+        try {
+            DEFAULT = parseString(Config.getString("Fsync.DEFAULT"));
+        } catch (final ParamParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static Fsync parseString(final String value) throws ParamParseException {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new ParamParseException("Could not parse Fsync: " + value, e);
+        }
+    }
+}
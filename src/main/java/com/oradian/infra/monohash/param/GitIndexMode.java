@@ -0,0 +1,33 @@
+package com.oradian.infra.monohash.param;
+
+import java.util.Locale;
+
+public enum GitIndexMode {
+    OFF,   // hash every file
+    REUSE, // with the GIT algorithm, reuse the object IDs from the Git index for tracked files whose stat data is unchanged
+    ;
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    // #################################################################################################################
+
+    public static final GitIndexMode DEFAULT;
+    static {
+        try {
+            DEFAULT = parseString(Config.getString("GitIndexMode.DEFAULT"));
+        } catch (final ParamParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static GitIndexMode parseString(final String value) throws ParamParseException {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new ParamParseException("Could not parse GitIndexMode: " + value, e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.oradian.infra.monohash.param;
+
+import java.util.Locale;
+
+public enum Priority {
+    NORMAL, // workers run with the priority of the thread which started them
+    LOW,    // workers run with the lowest thread priority, worker processes are also started through nice where available
+    ;
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    // #################################################################################################################
+
+    public static final Priority DEFAULT;
+    static {
+        try {
+            DEFAULT = parseString(Config.getString("Priority.DEFAULT"));
+        } catch (final ParamParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static Priority parseString(final String value) throws ParamParseException {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new ParamParseException("Could not parse Priority: " + value, e);
+        }
+    }
+}
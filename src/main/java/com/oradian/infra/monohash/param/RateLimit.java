@@ -0,0 +1,118 @@
+package com.oradian.infra.monohash.param;
+
+import java.util.Locale;
+
+public final class RateLimit {
+    /** Bytes read per second by all the workers of a run, 0 does not limit them */
+    public final long bytesPerSecond;
+
+    /** Files read per second by all the workers of a run, 0 does not limit them */
+    public final long filesPerSecond;
+
+    private RateLimit(final long bytesPerSecond, final long filesPerSecond) {
+        if (bytesPerSecond < 0L) {
+            throw new IllegalArgumentException("Bytes per second cannot be negative, got: " + bytesPerSecond);
+        }
+        if (filesPerSecond < 0L) {
+            throw new IllegalArgumentException("Files per second cannot be negative, got: " + filesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.filesPerSecond = filesPerSecond;
+    }
+
+    public static RateLimit of(final long bytesPerSecond, final long filesPerSecond) {
+        return bytesPerSecond == DEFAULT.bytesPerSecond && filesPerSecond == DEFAULT.filesPerSecond
+                ? DEFAULT
+                : new RateLimit(bytesPerSecond, filesPerSecond);
+    }
+
+    public boolean isLimited() {
+        return bytesPerSecond != 0L || filesPerSecond != 0L;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RateLimit)) {
+            return false;
+        }
+        final RateLimit that = (RateLimit) obj;
+        return bytesPerSecond == that.bytesPerSecond &&
+                filesPerSecond == that.filesPerSecond;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(bytesPerSecond) * 31 + Long.hashCode(filesPerSecond);
+    }
+
+    /** Formats the limit in the same way it is parsed, with the largest binary unit which divides the bytes */
+    @Override
+    public String toString() {
+        if (!isLimited()) {
+            return OFF;
+        }
+        final StringBuilder sb = new StringBuilder();
+        int unit = 0;
+        long bytes = bytesPerSecond;
+        while (bytes != 0L && bytes % 1024L == 0L && unit < UNITS.length()) {
+            bytes /= 1024L;
+            unit++;
+        }
+        sb.append(bytes);
+        if (unit != 0) {
+            sb.append(UNITS.charAt(unit - 1));
+        }
+        if (filesPerSecond != 0L) {
+            sb.append(',').append(filesPerSecond);
+        }
+        return sb.toString();
+    }
+
+    // #################################################################################################################
+
+    private static final String OFF = "off";
+    private static final String UNITS = "kmg";
+
+    public static final RateLimit DEFAULT;
+    static {
+        try {
+            DEFAULT = parseString(Config.getString("RateLimit.DEFAULT"));
+        } catch (final ParamParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long parseBytes(final String value) {
+        final int unit = value.isEmpty() ? -1 : UNITS.indexOf(value.charAt(value.length() - 1));
+        long bytes = Long.parseLong(unit == -1 ? value : value.substring(0, value.length() - 1));
+        for (int i = 0; i <= unit; i++) {
+            bytes = Math.multiplyExact(bytes, 1024L);
+        }
+        return bytes;
+    }
+
+    /** Parses "off", or bytes per second with an optional k, m or g suffix followed by an optional ",<files per second>" */
+    static RateLimit parseString(final String value) throws ParamParseException {
+        final String lowerCase = value.toLowerCase(Locale.ROOT);
+        if (lowerCase.equals(OFF)) {
+            return new RateLimit(0L, 0L);
+        }
+        final int comma = lowerCase.indexOf(',');
+        final long bytesPerSecond;
+        final long filesPerSecond;
+        try {
+            bytesPerSecond = parseBytes(comma == -1 ? lowerCase : lowerCase.substring(0, comma));
+            filesPerSecond = comma == -1 ? 0L : Long.parseLong(lowerCase.substring(comma + 1));
+        } catch (final NumberFormatException | ArithmeticException e) {
+            throw new ParamParseException("Could not parse rate limit: " + value, e);
+        }
+        try {
+            return new RateLimit(bytesPerSecond, filesPerSecond);
+        } catch (final IllegalArgumentException e) {
+            throw new ParamParseException(e.getMessage());
+        }
+    }
+}
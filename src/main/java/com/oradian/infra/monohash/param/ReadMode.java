@@ -0,0 +1,34 @@
+package com.oradian.infra.monohash.param;
+
+import java.util.Locale;
+
+public enum ReadMode {
+    SYNC,  // read and digest in turns, the digest waits for every read
+    ASYNC, // read the next chunk in the background while the current one is being digested
+    DIRECT, // like async, but bypass the page cache where supported (JDK 10+), otherwise fall back to regular reads
+    ;
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    // #################################################################################################################
+
+    public static final ReadMode DEFAULT;
+    static {
+        try {
+            DEFAULT = parseString(Config.getString("ReadMode.DEFAULT"));
+        } catch (final ParamParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static ReadMode parseString(final String value) throws ParamParseException {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new ParamParseException("Could not parse ReadMode: " + value, e);
+        }
+    }
+}
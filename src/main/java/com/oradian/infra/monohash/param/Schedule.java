@@ -0,0 +1,34 @@
+package com.oradian.infra.monohash.param;
+
+import java.util.Locale;
+
+public enum Schedule {
+    WALK,  // hash files in the order they were discovered, which follows the walk
+    INODE, // hash the files of each directory in inode order, which reduces seeking on rotational and network storage
+    LARGEST, // hash the largest files of the whole walk first, so that no single large file is left for the very end
+    ;
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    // #################################################################################################################
+
+    public static final Schedule DEFAULT;
+    static {
+        try {
+            DEFAULT = parseString(Config.getString("Schedule.DEFAULT"));
+        } catch (final ParamParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static Schedule parseString(final String value) throws ParamParseException {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new ParamParseException("Could not parse Schedule: " + value, e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.oradian.infra.monohash.param;
+
+public final class Workers {
+    public static final int MIN = Config.getInt("Workers.MIN");
+    public static final int MAX = Config.getInt("Workers.MAX");
+
+    /** Number of worker processes, 0 hashes the whitelist in this process */
+    public final int count;
+
+    private Workers(final int count) {
+        if (count < MIN) {
+            throw new IllegalArgumentException("Number of workers cannot be lower than " + MIN + ", got: " + count);
+        }
+        if (count > MAX) {
+            throw new IllegalArgumentException("Number of workers cannot be higher than " + MAX + ", got: " + count);
+        }
+        this.count = count;
+    }
+
+    public static Workers of(final int count) {
+        return count == DEFAULT.count ? DEFAULT : new Workers(count);
+    }
+
+    public boolean isDistributed() {
+        return count != 0;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Workers)) {
+            return false;
+        }
+        final Workers that = (Workers) obj;
+        return count == that.count;
+    }
+
+    @Override
+    public int hashCode() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(count);
+    }
+
+    // #################################################################################################################
+
+    public static final Workers DEFAULT;
+    static {
+        try {
+            DEFAULT = parseString(Config.getString("Workers.DEFAULT"));
+        } catch (final ParamParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static Workers parseString(final String value) throws ParamParseException {
+        final int count;
+        try {
+            count = Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            throw new ParamParseException("Could not parse workers: " + value, e);
+        }
+        try {
+            return new Workers(count);
+        } catch (final IllegalArgumentException e) {
+            throw new ParamParseException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.oradian.infra.monohash.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** Container of independently deflated blocks, so that both compression and decompression can run in parallel.
+  * Layout (big endian): magic, block count, (uncompressed length, compressed length) for every block, block data.
+  * The magic starts with a non-ASCII byte, so it can never be mistaken for a plain text export line. */
+public final class BlockDeflate {
+    private BlockDeflate() {}
+
+    private static final byte[] MAGIC = { (byte) 0x89, 'M', 'H', 'Z', 1 };
+
+    /** Blocks are large enough for deflate to reach its usual ratio, but small enough to spread across threads */
+    static final int BLOCK_SIZE = 1024 * 1024;
+
+    public static boolean isCompressed(final byte[] data) {
+        if (data.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the header followed by the compressed blocks, ready for a gathering write */
+    public static ByteBuffer[] compress(final byte[] data, final int threads) throws IOException {
+        return compress(data, threads, null);
+    }
+
+    /** Blocks are compressed on the executor if there is one, otherwise on new threads */
+    public static ByteBuffer[] compress(final byte[] data, final int threads, final Executor executor) throws IOException {
+        final int blockCount = (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final byte[][] blocks = new byte[blockCount][];
+        runParallel(blockCount, threads, executor, index -> {
+            final int offset = index * BLOCK_SIZE;
+            final int length = Math.min(BLOCK_SIZE, data.length - offset);
+            final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(data, offset, length);
+                deflater.finish();
+                byte[] buffer = new byte[length + (length >>> 3) + 64];
+                int written = 0;
+                while (!deflater.finished()) {
+                    if (written == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length << 1);
+                    }
+                    written += deflater.deflate(buffer, written, buffer.length - written);
+                }
+                blocks[index] = Arrays.copyOf(buffer, written);
+            } finally {
+                deflater.end();
+            }
+        });
+
+        final ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4 + blockCount * 8);
+        header.put(MAGIC).putInt(blockCount);
+        for (int index = 0; index < blockCount; index++) {
+            header.putInt(Math.min(BLOCK_SIZE, data.length - index * BLOCK_SIZE)).putInt(blocks[index].length);
+        }
+        header.flip();
+
+        final ByteBuffer[] result = new ByteBuffer[blockCount + 1];
+        result[0] = header;
+        for (int index = 0; index < blockCount; index++) {
+            result[index + 1] = ByteBuffer.wrap(blocks[index]);
+        }
+        return result;
+    }
+
+    public static byte[] decompress(final byte[] data, final int threads) throws IOException {
+        return decompress(data, threads, null);
+    }
+
+    /** Blocks are decompressed on the executor if there is one, otherwise on new threads */
+    public static byte[] decompress(final byte[] data, final int threads, final Executor executor) throws IOException {
+        if (!isCompressed(data)) {
+            throw new IOException("Not a compressed export, magic header is missing");
+        }
+        final ByteBuffer header = ByteBuffer.wrap(data);
+        header.position(MAGIC.length);
+        final int blockCount = readInt(header);
+        if (blockCount < 0 || blockCount > (data.length - header.position()) / 8) {
+            throw new IOException("Corrupted compressed export, invalid block count: " + blockCount);
+        }
+
+        final int[] rawOffsets = new int[blockCount + 1];
+        final int[] compressedOffsets = new int[blockCount + 1];
+        compressedOffsets[0] = header.position() + blockCount * 8;
+        for (int index = 0; index < blockCount; index++) {
+            final int rawLength = header.getInt();
+            final int compressedLength = header.getInt();
+            if (rawLength < 0 || compressedLength < 0
+                    || (long) rawOffsets[index] + rawLength > Integer.MAX_VALUE - 8
+                    || (long) compressedOffsets[index] + compressedLength > data.length) {
+                throw new IOException("Corrupted compressed export, invalid lengths for block #" + (index + 1));
+            }
+            rawOffsets[index + 1] = rawOffsets[index] + rawLength;
+            compressedOffsets[index + 1] = compressedOffsets[index] + compressedLength;
+        }
+        if (compressedOffsets[blockCount] != data.length) {
+            throw new IOException("Corrupted compressed export, expected " + compressedOffsets[blockCount] +
+                    " bytes but got: " + data.length);
+        }
+
+        final byte[] result = new byte[rawOffsets[blockCount]];
+        runParallel(blockCount, threads, executor, index -> {
+            final Inflater inflater = new Inflater(true);
+            try {
+                final int compressedLength = compressedOffsets[index + 1] - compressedOffsets[index];
+                final int rawLength = rawOffsets[index + 1] - rawOffsets[index];
+                // nowrap inflation may need an extra dummy byte to signal the end of input
+                final byte[] input = Arrays.copyOfRange(data, compressedOffsets[index], compressedOffsets[index] + compressedLength + 1);
+                inflater.setInput(input);
+                int read = 0;
+                while (read < rawLength) {
+                    final int inflated = inflater.inflate(result, rawOffsets[index] + read, rawLength - read);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    read += inflated;
+                }
+                if (read != rawLength || !inflater.finished()) {
+                    throw new IOException("Corrupted compressed export, block #" + (index + 1) +
+                            " did not inflate to " + rawLength + " bytes");
+                }
+            } catch (final DataFormatException e) {
+                throw new IOException("Corrupted compressed export, could not inflate block #" + (index + 1), e);
+            } finally {
+                inflater.end();
+            }
+        });
+        return result;
+    }
+
+    private static int readInt(final ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) {
+            throw new IOException("Corrupted compressed export, header was truncated");
+        }
+        return buffer.getInt();
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    private interface BlockTask {
+        void process(int index) throws IOException;
+    }
+
+    /** Blocks are claimed from a shared counter, the calling thread takes part in processing.
+      * Only the blocks which were claimed are waited for, so helpers which an executor starts late (or never)
+      * do not hold up the caller - they find all the blocks claimed and return. */
+    private static void runParallel(final int blockCount, final int threads, final Executor executor, final BlockTask task) throws IOException {
+        final AtomicInteger nextBlock = new AtomicInteger();
+        final CountDownLatch blocksFinished = new CountDownLatch(blockCount);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Runnable worker = () -> {
+            int index;
+            while ((index = nextBlock.getAndIncrement()) < blockCount) {
+                try {
+                    // after an error the remaining blocks are only claimed, so that the caller stops waiting for them
+                    if (error.get() == null) {
+                        task.process(index);
+                    }
+                } catch (final IOException | Error e) {
+                    error.compareAndSet(null, e);
+                } catch (final RuntimeException e) {
+                    error.compareAndSet(null, new IOException("Could not process compressed block #" + (index + 1), e));
+                } finally {
+                    blocksFinished.countDown();
+                }
+            }
+        };
+
+        final int helpers = Math.max(0, Math.min(threads, blockCount) - 1);
+        for (int i = 0; i < helpers; i++) {
+            if (executor == null) {
+                new Thread(worker, "BlockDeflate #" + (i + 1)).start();
+            } else {
+                try {
+                    executor.execute(worker);
+                } catch (final RejectedExecutionException e) {
+                    break; // the calling thread processes the blocks on its own
+                }
+            }
+        }
+        worker.run();
+        try {
+            blocksFinished.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing compressed blocks", e);
+        }
+        final Throwable e = error.get();
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        if (e != null) {
+            throw (IOException) e;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.oradian.infra.monohash.util;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Reads which bypass the page cache, so that hashing huge trees does not evict everything else from it.
+  * Direct I/O is only exposed from JDK 10 onwards, it is looked up reflectively to keep running on JDK 8. */
+public final class DirectIo {
+    private DirectIo() {}
+
+    /** Buffers, file positions and read lengths must all be aligned to the block size of the file system.
+      * Rather than querying every file store, align to the largest block size in common use. */
+    public static final int ALIGNMENT = 4096;
+
+    private static final OpenOption DIRECT;
+    private static final Method ALIGNED_SLICE;
+    static {
+        OpenOption direct = null;
+        Method alignedSlice = null;
+        try {
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            final Class<? extends Enum> options = (Class<? extends Enum>) Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            @SuppressWarnings("unchecked")
+            final OpenOption option = (OpenOption) Enum.valueOf(options, "DIRECT");
+            alignedSlice = ByteBuffer.class.getMethod("alignedSlice", int.class);
+            direct = option;
+        } catch (final ReflectiveOperationException | IllegalArgumentException e) {
+            // JDK 9 or older, direct I/O is not supported
+        }
+        DIRECT = direct;
+        ALIGNED_SLICE = direct != null ? alignedSlice : null;
+    }
+
+    public static boolean isSupported() {
+        return DIRECT != null;
+    }
+
+    /** Allocates a direct buffer which can be used for direct I/O, size must be a multiple of the alignment */
+    public static ByteBuffer allocate(final int size) {
+        if (ALIGNED_SLICE == null) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        try {
+            final ByteBuffer aligned = (ByteBuffer) ALIGNED_SLICE.invoke(ByteBuffer.allocateDirect(size + ALIGNMENT), ALIGNMENT);
+            aligned.limit(size);
+            return aligned.slice();
+        } catch (final ReflectiveOperationException e) {
+            throw new RuntimeException("Could not allocate an aligned buffer", e);
+        }
+    }
+
+    /** Opens the file for direct reads, returns null if that is not possible and the file should be read regularly,
+      * e.g. because of an older JDK or a file system such as tmpfs which does not support direct I/O */
+    public static FileChannel open(final Path path) {
+        if (DIRECT == null) {
+            return null;
+        }
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ, DIRECT);
+        } catch (final IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
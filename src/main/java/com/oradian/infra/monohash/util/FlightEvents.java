@@ -0,0 +1,48 @@
+package com.oradian.infra.monohash.util;
+
+import java.io.File;
+
+/** JDK Flight Recorder events for the phases of a run, so that listing, hashing and waiting can be told apart in a
+  * recording. Each begin* call returns the event to pass to its commit* counterpart, or null if it is not recorded.
+  * This is the Java 8 version which records nothing - the multi-release jar carries a Java 11 version of this class in
+  * META-INF/versions/11 which emits the events, and only checks whether they are enabled while recording is off. */
+public final class FlightEvents {
+    private FlightEvents() {}
+
+    public static Object beginFileHashed() {
+        return null;
+    }
+
+    /** The relative path is only converted to a String, and the size only looked up, if the event is recorded */
+    public static void commitFileHashed(final Object event, final Object relativePath, final File file, final String workerId) {}
+
+    public static Object beginDirectoryListed() {
+        return null;
+    }
+
+    public static void commitDirectoryListed(final Object event, final Object relativePath, final int children, final String workerId) {}
+
+    public static Object beginWorkerIdle() {
+        return null;
+    }
+
+    public static void commitWorkerIdle(final Object event, final String workerId) {}
+
+    public static Object beginExportRead() {
+        return null;
+    }
+
+    public static void commitExportRead(final Object event, final File exportFile, final long size, final boolean compressed) {}
+
+    public static Object beginExportWritten() {
+        return null;
+    }
+
+    public static void commitExportWritten(final Object event, final File exportFile, final boolean compressed) {}
+
+    public static Object beginDiffComputed() {
+        return null;
+    }
+
+    public static void commitDiffComputed(final Object event, final int adds, final int renames, final int modifies, final int deletes) {}
+}
@@ -8,6 +8,17 @@ public final class Hex {
 
     private static final byte[] TO_LC_HEX = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
 
+    /** Both hex characters of every byte value, so that encoding takes a single lookup per byte.
+      * A SWAR (long-at-a-time) encoder was benched against this (see HexBench in the benchmark project),
+      * but without unaligned wide array access on Java 8, assembling and scattering the longs ate up the gains. */
+    private static final byte[] TO_LC_HEX_PAIRS = new byte[0x200];
+    static {
+        for (int i = 0; i < 0x100; i++) {
+            TO_LC_HEX_PAIRS[i << 1] = TO_LC_HEX[i >>> 4];
+            TO_LC_HEX_PAIRS[(i << 1) + 1] = TO_LC_HEX[i & 0xf];
+        }
+    }
+
     public static String toHex(final byte[] binary) {
         final byte[] buffer = new byte[binary.length << 1];
         toHex(binary, 0, binary.length, buffer, 0);
@@ -16,27 +27,11 @@ public final class Hex {
 
     public static void toHex(final byte[] src, final int srcOff, final int srcLen, final byte[] dst, final int dstOff) {
         int writeIndex = dstOff;
-        int readIndex = srcOff;
-        while (readIndex < srcLen - 4) {
-            final int b1 = src[readIndex];
-            final int b2 = src[readIndex + 1];
-            final int b3 = src[readIndex + 2];
-            final int b4 = src[readIndex + 3];
-            dst[writeIndex] = TO_LC_HEX[(b1 >>> 4) & 0xf];
-            dst[writeIndex + 1] = TO_LC_HEX[b1 & 0xf];
-            dst[writeIndex + 2] = TO_LC_HEX[(b2 >>> 4) & 0xf];
-            dst[writeIndex + 3] = TO_LC_HEX[b2 & 0xf];
-            dst[writeIndex + 4] = TO_LC_HEX[(b3 >>> 4) & 0xf];
-            dst[writeIndex + 5] = TO_LC_HEX[b3 & 0xf];
-            dst[writeIndex + 6] = TO_LC_HEX[(b4 >>> 4) & 0xf];
-            dst[writeIndex + 7] = TO_LC_HEX[b4 & 0xf];
-            readIndex += 4;
-            writeIndex += 8;
-        }
-        while (readIndex < srcLen) {
-            final int b = src[readIndex++];
-            dst[writeIndex++] = TO_LC_HEX[(b >>> 4) & 0xf];
-            dst[writeIndex++] = TO_LC_HEX[b & 0xf];
+        final int srcEnd = srcOff + srcLen;
+        for (int readIndex = srcOff; readIndex < srcEnd; readIndex++) {
+            final int pair = (src[readIndex] & 0xff) << 1;
+            dst[writeIndex++] = TO_LC_HEX_PAIRS[pair];
+            dst[writeIndex++] = TO_LC_HEX_PAIRS[pair + 1];
         }
     }
 
@@ -59,16 +54,25 @@ public final class Hex {
             throw new IllegalArgumentException("Length must be an even number, got: " + length);
         }
         final byte[] binary = new byte[length >>> 1];
+        fromHex(hex, offset, length, binary, 0);
+        return binary;
+    }
+
+    /** Decodes straight into the destination array, e.g. when packing multiple digests back to back */
+    public static void fromHex(final byte[] hex, final int offset, final int length, final byte[] dst, final int dstOff) {
+        if ((length & 1) == 1) {
+            throw new IllegalArgumentException("Length must be an even number, got: " + length);
+        }
+        final int dstEnd = dstOff + (length >>> 1);
         int readIndex = offset;
-        for (int i = 0; i < binary.length; i++) {
+        for (int i = dstOff; i < dstEnd; i++) {
             final int hi = FROM_HEX[hex[readIndex++] & 0xff];
             final int lo = FROM_HEX[hex[readIndex++] & 0xff];
             if ((hi | lo) < 0) {
                 final int index = readIndex - (hi < 0 ? 2 : 1);
                 throw new NumberFormatException("Cannot parse hex digit at index " + index + " - expected a lowercase hexadecimal digit [0-9, a-f] but got: '" + (char) hex[index] + '\'');
             }
-            binary[i] = (byte) ((hi << 4) + lo);
+            dst[i] = (byte) ((hi << 4) + lo);
         }
-        return binary;
     }
 }
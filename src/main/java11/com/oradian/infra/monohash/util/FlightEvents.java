@@ -0,0 +1,260 @@
+package com.oradian.infra.monohash.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.File;
+
+/** JDK Flight Recorder events for the phases of a run, loaded from the multi-release jar on Java 11 and newer.
+  * The event classes are only loaded once the Flight Recorder has been initialised by a recording, so runs without one
+  * do not pay for the start-up of JFR, and after that the begin* calls check whether the event is enabled before
+  * allocating anything. Per-file events are recorded without stack traces. */
+public final class FlightEvents {
+    private FlightEvents() {}
+
+    private static final String CATEGORY = "MonoHash";
+
+    @Name("com.oradian.infra.monohash.FileHashed")
+    @Label("File Hashed")
+    @Category(CATEGORY)
+    @Description("Digest of a file, read from disk or reused from the Git index or a hard link")
+    @StackTrace(false)
+    static final class FileHashed extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Worker")
+        String worker;
+    }
+
+    @Name("com.oradian.infra.monohash.DirectoryListed")
+    @Label("Directory Listed")
+    @Category(CATEGORY)
+    @Description("Listing, sorting and blacklisting the children of a directory")
+    @StackTrace(false)
+    static final class DirectoryListed extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Children")
+        int children;
+
+        @Label("Worker")
+        String worker;
+    }
+
+    @Name("com.oradian.infra.monohash.WorkerIdle")
+    @Label("Worker Idle")
+    @Category(CATEGORY)
+    @Description("Worker waiting for other workers to queue more work")
+    @StackTrace(false)
+    static final class WorkerIdle extends Event {
+        @Label("Worker")
+        String worker;
+    }
+
+    @Name("com.oradian.infra.monohash.ExportRead")
+    @Label("Export Read")
+    @Category(CATEGORY)
+    @Description("Reading the previous export file")
+    static final class ExportRead extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Compressed")
+        boolean compressed;
+    }
+
+    @Name("com.oradian.infra.monohash.ExportWritten")
+    @Label("Export Written")
+    @Category(CATEGORY)
+    @Description("Writing the export file")
+    static final class ExportWritten extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Compressed")
+        boolean compressed;
+    }
+
+    @Name("com.oradian.infra.monohash.DiffComputed")
+    @Label("Diff Computed")
+    @Category(CATEGORY)
+    @Description("Diffing the results against the previous export")
+    static final class DiffComputed extends Event {
+        @Label("Adds")
+        int adds;
+
+        @Label("Renames")
+        int renames;
+
+        @Label("Modifies")
+        int modifies;
+
+        @Label("Deletes")
+        int deletes;
+    }
+
+    /* Enablement is per event class, so a single instance of each is enough to check it without allocating.
+     * These live in a holder which is initialised on first use, as loading the first event class starts up JFR. */
+    private static final class Probes {
+        static final FileHashed FILE_HASHED = new FileHashed();
+        static final DirectoryListed DIRECTORY_LISTED = new DirectoryListed();
+        static final WorkerIdle WORKER_IDLE = new WorkerIdle();
+        static final ExportRead EXPORT_READ = new ExportRead();
+        static final ExportWritten EXPORT_WRITTEN = new ExportWritten();
+        static final DiffComputed DIFF_COMPUTED = new DiffComputed();
+    }
+
+    // -----------------------------------------------------------------------------------------------------------------
+
+    public static Object beginFileHashed() {
+        if (!FlightRecorder.isInitialized() || !Probes.FILE_HASHED.isEnabled()) {
+            return null;
+        }
+        final FileHashed event = new FileHashed();
+        event.begin();
+        return event;
+    }
+
+    /** The relative path is only converted to a String, and the size only looked up, if the event is recorded */
+    public static void commitFileHashed(final Object event, final Object relativePath, final File file, final String workerId) {
+        if (event != null) {
+            final FileHashed fileHashed = (FileHashed) event;
+            fileHashed.end();
+            if (fileHashed.shouldCommit()) {
+                fileHashed.path = String.valueOf(relativePath);
+                fileHashed.size = file.length();
+                fileHashed.worker = workerId;
+                fileHashed.commit();
+            }
+        }
+    }
+
+    public static Object beginDirectoryListed() {
+        if (!FlightRecorder.isInitialized() || !Probes.DIRECTORY_LISTED.isEnabled()) {
+            return null;
+        }
+        final DirectoryListed event = new DirectoryListed();
+        event.begin();
+        return event;
+    }
+
+    public static void commitDirectoryListed(final Object event, final Object relativePath, final int children, final String workerId) {
+        if (event != null) {
+            final DirectoryListed directoryListed = (DirectoryListed) event;
+            directoryListed.end();
+            if (directoryListed.shouldCommit()) {
+                directoryListed.path = String.valueOf(relativePath);
+                directoryListed.children = children;
+                directoryListed.worker = workerId;
+                directoryListed.commit();
+            }
+        }
+    }
+
+    public static Object beginWorkerIdle() {
+        if (!FlightRecorder.isInitialized() || !Probes.WORKER_IDLE.isEnabled()) {
+            return null;
+        }
+        final WorkerIdle event = new WorkerIdle();
+        event.begin();
+        return event;
+    }
+
+    public static void commitWorkerIdle(final Object event, final String workerId) {
+        if (event != null) {
+            final WorkerIdle workerIdle = (WorkerIdle) event;
+            workerIdle.end();
+            if (workerIdle.shouldCommit()) {
+                workerIdle.worker = workerId;
+                workerIdle.commit();
+            }
+        }
+    }
+
+    public static Object beginExportRead() {
+        if (!FlightRecorder.isInitialized() || !Probes.EXPORT_READ.isEnabled()) {
+            return null;
+        }
+        final ExportRead event = new ExportRead();
+        event.begin();
+        return event;
+    }
+
+    public static void commitExportRead(final Object event, final File exportFile, final long size, final boolean compressed) {
+        if (event != null) {
+            final ExportRead exportRead = (ExportRead) event;
+            exportRead.end();
+            if (exportRead.shouldCommit()) {
+                exportRead.file = exportFile.getPath();
+                exportRead.size = size;
+                exportRead.compressed = compressed;
+                exportRead.commit();
+            }
+        }
+    }
+
+    public static Object beginExportWritten() {
+        if (!FlightRecorder.isInitialized() || !Probes.EXPORT_WRITTEN.isEnabled()) {
+            return null;
+        }
+        final ExportWritten event = new ExportWritten();
+        event.begin();
+        return event;
+    }
+
+    public static void commitExportWritten(final Object event, final File exportFile, final boolean compressed) {
+        if (event != null) {
+            final ExportWritten exportWritten = (ExportWritten) event;
+            exportWritten.end();
+            if (exportWritten.shouldCommit()) {
+                exportWritten.file = exportFile.getPath();
+                exportWritten.size = exportFile.length();
+                exportWritten.compressed = compressed;
+                exportWritten.commit();
+            }
+        }
+    }
+
+    public static Object beginDiffComputed() {
+        if (!FlightRecorder.isInitialized() || !Probes.DIFF_COMPUTED.isEnabled()) {
+            return null;
+        }
+        final DiffComputed event = new DiffComputed();
+        event.begin();
+        return event;
+    }
+
+    public static void commitDiffComputed(final Object event, final int adds, final int renames, final int modifies, final int deletes) {
+        if (event != null) {
+            final DiffComputed diffComputed = (DiffComputed) event;
+            diffComputed.end();
+            if (diffComputed.shouldCommit()) {
+                diffComputed.adds = adds;
+                diffComputed.renames = renames;
+                diffComputed.modifies = modifies;
+                diffComputed.deletes = deletes;
+                diffComputed.commit();
+            }
+        }
+    }
+}
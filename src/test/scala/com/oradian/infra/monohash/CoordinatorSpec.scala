@@ -0,0 +1,96 @@
+package com.oradian.infra.monohash
+
+import java.io.IOException
+import java.nio.file.{Files, Paths}
+
+import com.oradian.infra.monohash.param._
+
+class CoordinatorSpec extends Specification {
+  sequential
+
+  private[this] val logger = new LoggingLogger(LogLevel.TRACE)
+
+  private[this] def write(ws: String, file: String, body: String): Unit = {
+    val path = Paths.get(ws + file)
+    Files.createDirectories(path.getParent)
+    Files.write(path, body.getBytes(UTF_8))
+  }
+
+  /** A few levels of directories, so that the whitelist can be split into more partitions than there are workers */
+  private[this] def inTree[T](plan: String)(f: HashPlan => T): T = inWorkspace { ws =>
+    for (a <- 1 to 3; b <- 1 to 3; c <- 1 to 4) {
+      write(ws, s"d$a/e$b/f$c", s"$a/$b/$c")
+    }
+    write(ws, "top", "top")
+    write(ws, "d2/ignored/x", "x")
+    write(ws, "ä/€", "unicode")
+    write(ws, ".monohash", plan)
+    f(HashPlan.apply(logger, new File(ws + ".monohash")))
+  }
+
+  private[this] def walk(hashPlan: HashPlan): Seq[(String, Seq[Byte])] =
+    WhiteWalker.apply(logger, hashPlan, Algorithm.DEFAULT, Concurrency.fixed(2))
+      .toMap.asScala.view.mapValues(_.toSeq).toSeq
+
+  private[this] def distribute(hashPlan: HashPlan, workers: Int): Seq[(String, Seq[Byte])] =
+    Coordinator.apply(logger, hashPlan, Algorithm.DEFAULT, Concurrency.fixed(2), ReadMode.DEFAULT, Schedule.DEFAULT, GitIndexMode.DEFAULT, DedupMode.DEFAULT, workers)
+      .toMap.asScala.view.mapValues(_.toSeq).toSeq
+
+  "Partitions cover the whitelist without the blacklisted paths" >> {
+    inTree("!.monohash\n!**/ignored/\n") { hashPlan =>
+      val partitions = Coordinator.partition(logger, hashPlan, 8).asScala.map(_.asScala.toSeq).toSeq
+      partitions.size must be_>=(8)
+      partitions.flatten.filter(_.contains("ignored")) ==== Nil
+      partitions.flatten must contain("top")
+      partitions.flatten.distinct.size ==== partitions.flatten.size
+    }
+  }
+
+  "Workers produce the same results as a single process" >> {
+    inTree("!.monohash\n!**/ignored/\n") { hashPlan =>
+      val expected = walk(hashPlan)
+      expected.map(_._1) must contain("ä/€")
+      for (workers <- 1 to 3) yield {
+        logger.clear()
+        distribute(hashPlan, workers) ==== expected
+      }
+    }
+  }
+
+  "Nested whitelist entries are merged once" >> {
+    inTree("!.monohash\nd1/\nd1/e2/\nd1/e2/f3\ntop\n") { hashPlan =>
+      val expected = walk(hashPlan)
+      expected.size ==== 13
+      distribute(hashPlan, 2) ==== expected
+    }
+  }
+
+  "Rate limit and priority are handed to the workers" >> {
+    inTree("!.monohash\n") { hashPlan =>
+      val expected = walk(hashPlan)
+      Coordinator.apply(logger, hashPlan, Algorithm.DEFAULT, Concurrency.fixed(2), ReadMode.DEFAULT, Schedule.DEFAULT, GitIndexMode.DEFAULT, DedupMode.DEFAULT, 2,
+          RateLimit.of(1024L * 1024, 1000L), Priority.LOW, RunControl.NONE)
+        .toMap.asScala.view.mapValues(_.toSeq).toSeq ==== expected
+    }
+  }
+
+  "Errors in a worker fail the run" >> {
+    inTree("!.monohash\nd1/\nmissing\n") { hashPlan =>
+      distribute(hashPlan, 2) must throwAn[IOException]("Worker process #\\d could not hash partition starting with 'missing': java.io.FileNotFoundException: .*missing.*")
+    }
+  }
+
+  "Merging keeps the path order of String.compareTo" >> {
+    val algorithm = Algorithm.DEFAULT
+    def results(paths: String*): HashResults =
+      HashResults.apply(logger, algorithm, paths.map(p => new java.util.AbstractMap.SimpleEntry(p, algorithm.init(p.length).digest(p.getBytes(UTF_8))): java.util.Map.Entry[String, Array[Byte]]).asJava)
+
+    val merged = Coordinator.merge(logger, algorithm, Array(
+      results("a", "c", "�"),
+      results("b", "c", "😀"),
+      results(),
+    ))
+    merged.toMap.keySet.asScala.toSeq ==== Seq("a", "b", "c", "😀", "�")
+    merged ==== results("a", "b", "c", "😀", "�")
+  }
+}
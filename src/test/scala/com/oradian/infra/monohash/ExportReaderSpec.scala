@@ -0,0 +1,63 @@
+package com.oradian.infra.monohash
+
+import java.nio.file.Files
+
+import com.oradian.infra.monohash.param.{Algorithm, Compression, Concurrency, Fsync, LogLevel}
+
+class ExportReaderSpec extends Specification {
+  sequential
+
+  private[this] val logger = new LoggingLogger(LogLevel.TRACE)
+  private[this] val algorithm = Algorithm.DEFAULT
+  private[this] val concurrency = Concurrency.fixed(2)
+
+  private[this] def results(count: Int): HashResults = HashResults.apply(
+    logger,
+    algorithm,
+    new java.util.TreeMap[String, Array[Byte]]((1 to count).map { i =>
+      s"dir/$i" -> Random.nextBytes(algorithm.lengthInBytes)
+    }.toMap.asJava).entrySet(),
+  )
+
+  "Reads plain and compressed exports in the background" >> {
+    inWorkspace { ws =>
+      val expected = results(1000)
+      for (compression <- Seq(Compression.OFF, Compression.DEFLATE)) yield {
+        val exportFile = new File(ws + "export-" + compression)
+        expected.export(exportFile, Fsync.OFF, compression, concurrency.getConcurrency)
+        val previous = ExportReader.start(logger, exportFile, algorithm, concurrency, null, true).await()
+        previous ==== expected
+        previous.toMap.asScala.keySet ==== expected.toMap.asScala.keySet
+      }
+    }
+  }
+
+  "Leaves broken exports to the diff" >> {
+    inWorkspace { ws =>
+      val exportFile = new File(ws + "export")
+      Files.write(exportFile.toPath, "garbage\n".getBytes(UTF_8))
+      val previous = ExportReader.start(logger, exportFile, algorithm, concurrency, null, true).await()
+      previous.size ==== 1
+      previous.entries() must throwAn[ExportParsingException]("Cannot parse export line #1: garbage")
+    }
+  }
+
+  "Errors are rethrown by await" >> {
+    inWorkspace { ws =>
+      val exportFile = new File(ws + "export")
+      results(10).export(exportFile)
+      val failingLogger = new LoggingLogger(LogLevel.TRACE) {
+        override def trace(msg: String): Unit = throw new OutOfMemoryError("while tracing")
+      }
+      val reader = ExportReader.start(failingLogger, exportFile, algorithm, concurrency, null, true)
+      reader.await() must throwAn[OutOfMemoryError]("while tracing")
+    }
+  }
+
+  "Read errors are rethrown by await" >> {
+    inWorkspace { ws =>
+      val reader = ExportReader.start(logger, new File(ws + "missing"), algorithm, concurrency, null, false)
+      reader.await() must throwAn[java.io.IOException]
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package com.oradian.infra.monohash
+
+import com.oradian.infra.monohash.param.{Algorithm, Compression, Concurrency, Fsync, LogLevel}
+
+class ExportWriterSpec extends Specification {
+  sequential
+
+  private[this] val algorithm = Algorithm.DEFAULT
+  private[this] val concurrency = Concurrency.fixed(2)
+
+  private[this] def results(logger: Logger, count: Int): HashResults = HashResults.apply(
+    logger,
+    algorithm,
+    new java.util.TreeMap[String, Array[Byte]]((1 to count).map { i =>
+      s"dir/$i" -> Random.nextBytes(algorithm.lengthInBytes)
+    }.toMap.asJava).entrySet(),
+  )
+
+  "Writes the export in the background" >> {
+    inWorkspace { ws =>
+      val logger = new LoggingLogger(LogLevel.TRACE)
+      val expected = results(logger, 1000)
+      val exportFile = new File(ws + "export")
+      ExportWriter.start(expected, exportFile, Fsync.OFF, Compression.DEFLATE, concurrency, null).await()
+      ExportReader.start(logger, exportFile, algorithm, concurrency, null, true).await() ==== expected
+    }
+  }
+
+  "Errors are rethrown by await" >> {
+    inWorkspace { ws =>
+      var failing = false
+      val failingLogger = new LoggingLogger(LogLevel.TRACE) {
+        override def trace(msg: String): Unit =
+          if (failing) throw new OutOfMemoryError("while tracing") else super.trace(msg)
+      }
+      val failingResults = results(failingLogger, 10)
+      failing = true
+
+      val exportFile = new File(ws + "export")
+      val writer = ExportWriter.start(failingResults, exportFile, Fsync.OFF, Compression.DEFLATE, concurrency, null)
+      writer.await() must throwAn[OutOfMemoryError]("while tracing")
+      exportFile.exists() ==== false
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package com.oradian.infra.monohash
+
+import java.io.IOException
+import java.nio.file.{Files, Paths}
+
+import com.oradian.infra.monohash.param._
+
+import scala.sys.process._
+
+class GitTreeWalkerSpec extends Specification {
+  sequential
+
+  private[this] val logger = new LoggingLogger(LogLevel.TRACE)
+  private[this] val plan = "!.git\n!.git/\n!.monohash\n!**/ignored/\n"
+
+  private[this] def git(ws: String, args: String*): String =
+    Process("git" +: args, new File(ws)).!!.trim
+
+  private[this] def write(ws: String, file: String, body: String): Unit = {
+    val path = Paths.get(ws + file)
+    Files.createDirectories(path.getParent)
+    Files.write(path, body.getBytes(UTF_8))
+  }
+
+  /** Three commits with renames, deletions, symbolic links and a file large enough to be deltified when packed */
+  private[this] def inRepository[T](f: String => T): T = inWorkspace { ws =>
+    git(ws, "init", "-q")
+    git(ws, "config", "user.name", "MonoHash")
+    git(ws, "config", "user.email", "monohash@oradian.com")
+    val lines = (1 to 5000).map(_.toString)
+    write(ws, ".monohash", plan)
+    write(ws, "big.txt", lines.mkString("\n"))
+    write(ws, "dir/a", "a")
+    write(ws, "dir/ignored/b", "b")
+    write(ws, "ä/c", "c")
+    Files.createDirectories(Paths.get(ws + "sub"))
+    Files.createSymbolicLink(Paths.get(ws + "sub/link"), Paths.get("../dir"))
+    Files.createSymbolicLink(Paths.get(ws + "dir/up"), Paths.get("../ä/c"))
+    git(ws, "add", ".")
+    git(ws, "commit", "-q", "-m", "first")
+    git(ws, "tag", "first")
+
+    write(ws, "big.txt", lines.updated(2500, "changed").mkString("\n"))
+    git(ws, "mv", "dir/a", "dir/moved")
+    git(ws, "rm", "-q", "ä/c", "dir/up")
+    git(ws, "commit", "-q", "-a", "-m", "second")
+    git(ws, "tag", "-a", "-m", "annotated", "second")
+
+    write(ws, "big.txt", lines.updated(1000, "again").mkString("\n"))
+    Files.delete(Paths.get(ws + "sub/link"))
+    git(ws, "commit", "-q", "-a", "-m", "third")
+    f(ws)
+  }
+
+  private[this] def hashPlan(path: String): HashPlan = {
+    write(path, ".monohash", plan)
+    HashPlan.apply(logger, new File(path + ".monohash"))
+  }
+
+  private[this] def walkRevision(ws: String, algorithm: Algorithm, revision: String): Seq[(String, Seq[Byte])] =
+    GitTreeWalker.apply(logger, hashPlan(ws), algorithm, revision).toMap.asScala.view.mapValues(_.toSeq).toSeq
+
+  /** Reference results, hashed from a checkout of the revision in a linked work tree */
+  private[this] def walkCheckout(ws: String, algorithm: Algorithm, revision: String, subPath: String = ""): Seq[(String, Seq[Byte])] = {
+    val checkout = ws + "checkout-" + revision.replaceAll("\\W", "_") + "/"
+    if (!new File(checkout).isDirectory) {
+      git(ws, "worktree", "add", "-q", "--detach", checkout, revision)
+    }
+    WhiteWalker.apply(logger, hashPlan(checkout + subPath), algorithm, Concurrency.fixed(2))
+      .toMap.asScala.view.mapValues(_.toSeq).toSeq
+  }
+
+  private[this] val revisions = Seq("HEAD", "HEAD~1", "HEAD^^", "first", "second")
+  private[this] val algorithms = Seq(new Algorithm(Algorithm.GIT), Algorithm.DEFAULT, new Algorithm("SHA-256"))
+
+  "Revisions read from loose objects match their checkouts" >> {
+    inRepository { ws =>
+      for (revision <- revisions; algorithm <- algorithms) yield {
+        walkRevision(ws, algorithm, revision) ==== walkCheckout(ws, algorithm, revision)
+      }
+    }
+  }
+
+  "Revisions read from packs match their checkouts" >> {
+    inRepository { ws =>
+      git(ws, "gc", "-q", "--aggressive")
+      new File(ws + ".git/objects/pack").list().count(_.endsWith(".pack")) ==== 1
+      for (revision <- revisions; algorithm <- algorithms) yield {
+        walkRevision(ws, algorithm, revision) ==== walkCheckout(ws, algorithm, revision)
+      }
+    }
+  }
+
+  "Symbolic links are followed inside the tree, relative to the directory they are in" >> {
+    inRepository { ws =>
+      val gitAlgorithm = new Algorithm(Algorithm.GIT)
+      walkRevision(ws, gitAlgorithm, "first").map(_._1) ==== Seq(
+        "big.txt",
+        "dir/a",
+        "dir/up",
+        "sub/link/a",
+        "sub/link/up",
+        "ä/c",
+      )
+    }
+  }
+
+  "Revision syntax" >> {
+    inRepository { ws =>
+      val gitAlgorithm = new Algorithm(Algorithm.GIT)
+      val second = walkRevision(ws, gitAlgorithm, "HEAD~")
+      Seq(
+        "second",
+        "second^{}",
+        "second^{commit}",
+        "second^{tree}",
+        "tags/second",
+        "refs/tags/second",
+        "HEAD^1^0",
+        git(ws, "rev-parse", "HEAD~1"),
+        git(ws, "rev-parse", "--short=7", "HEAD~1"),
+        git(ws, "rev-parse", "HEAD~1^{tree}"),
+      ).map(walkRevision(ws, gitAlgorithm, _)).distinct ==== Seq(second)
+
+      walkRevision(ws, gitAlgorithm, "nope") must throwAn[IOException]("Unknown revision: 'nope'")
+      walkRevision(ws, gitAlgorithm, "HEAD~3") must throwAn[IOException]("Revision 'HEAD~3' does not exist, commit [0-9a-f]{40} has 0 parent\\(s\\)")
+      walkRevision(ws, gitAlgorithm, "HEAD^{blob}") must throwAn[IOException]("Unsupported peeling in revision: 'HEAD\\^\\{blob}'")
+    }
+  }
+
+  "Paths are relative to the base path inside the work tree" >> {
+    inRepository { ws =>
+      val gitAlgorithm = new Algorithm(Algorithm.GIT)
+      walkRevision(ws + "dir/", gitAlgorithm, "first") ==== walkCheckout(ws, gitAlgorithm, "first", "dir/")
+    }
+  }
+}
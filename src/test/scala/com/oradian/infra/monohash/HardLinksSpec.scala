@@ -0,0 +1,84 @@
+package com.oradian.infra.monohash
+
+import java.nio.file.attribute.FileTime
+import java.nio.file.{Files, Paths}
+import java.util.concurrent.atomic.LongAdder
+
+import com.oradian.infra.monohash.param._
+
+class HardLinksSpec extends Specification {
+  sequential
+
+  private[this] val logger = new LoggingLogger(LogLevel.TRACE)
+
+  "Each physical file is read once" >> {
+    inWorkspace { ws =>
+      val original = Paths.get(ws + "original")
+      Files.write(original, "linked".getBytes(UTF_8))
+      for (i <- 1 to 9) {
+        Files.createLink(Paths.get(ws + "link" + i), original)
+      }
+      Files.write(Paths.get(ws + "single"), "single".getBytes(UTF_8))
+
+      val hardLinks = HardLinks.create(logger)
+      val bytesHashed = new LongAdder
+      val hasher = new HashWorker(logger, Algorithm.DEFAULT, bytesHashed)
+      val hashes = (Seq("original", "single", "single") ++ (1 to 9).map("link" + _)).map { name =>
+        name -> hardLinks.hash(new File(ws + name), hasher).toSeq
+      }
+
+      // files with a single link are not deduplicated
+      bytesHashed.longValue ==== "linked".length + 2 * "single".length
+      hardLinks.size ==== 1
+      hardLinks.reused.longValue ==== 9
+      hashes.toMap.values.toSet.size ==== 2
+      hashes.toMap.apply("link9") ==== hasher.hashFile(original.toFile).toSeq
+    }
+  }
+
+  "Changed files are hashed again" >> {
+    inWorkspace { ws =>
+      val original = Paths.get(ws + "original")
+      Files.write(original, "before".getBytes(UTF_8))
+      Files.createLink(Paths.get(ws + "link"), original)
+      val hardLinks = HardLinks.create(logger)
+      val hasher = new HashWorker(logger, Algorithm.DEFAULT, new LongAdder)
+      val before = hardLinks.hash(original.toFile, hasher).toSeq
+
+      // same size and modification time is indistinguishable, just like it is for the Git index
+      Files.write(original, "after!".getBytes(UTF_8))
+      Files.setLastModifiedTime(original, FileTime.fromMillis(System.currentTimeMillis() + 1000))
+      val after = hardLinks.hash(new File(ws + "link"), hasher).toSeq
+      after !=== before
+      after ==== hasher.hashFile(original.toFile).toSeq
+      hardLinks.reused.longValue ==== 0
+    }
+  }
+
+  "Walking with deduplication produces the same results" >> {
+    inWorkspace { ws =>
+      for (dir <- 1 to 4) {
+        Files.createDirectories(Paths.get(ws + s"d$dir"))
+        Files.write(Paths.get(ws + s"d$dir/own"), s"own $dir".getBytes(UTF_8))
+      }
+      val original = Paths.get(ws + "d1/shared")
+      Files.write(original, Array.fill[Byte](100000)(42))
+      for (dir <- 2 to 4; i <- 1 to 25) {
+        Files.createLink(Paths.get(ws + s"d$dir/shared$i"), original)
+      }
+      val planPath = Paths.get(ws + ".monohash")
+      Files.write(planPath, "!.monohash\n".getBytes(UTF_8))
+      val hashPlan = HashPlan.apply(logger, planPath.toFile)
+
+      def walk(schedule: Schedule, dedupMode: DedupMode): Seq[(String, Seq[Byte])] =
+        WhiteWalker.apply(logger, hashPlan, Algorithm.DEFAULT, Concurrency.fixed(4), ReadMode.DEFAULT, schedule, GitIndexMode.DEFAULT, dedupMode)
+          .toMap.asScala.view.mapValues(_.toSeq).toSeq
+
+      Schedule.values.toSeq.map { schedule =>
+        logger.clear()
+        walk(schedule, DedupMode.HARDLINKS) ==== walk(schedule, DedupMode.OFF)
+        logger.messages(LogLevel.DEBUG).map(_.msg) must contain("Reused 75 hashes of 1 hard linked files")
+      }
+    }
+  }
+}
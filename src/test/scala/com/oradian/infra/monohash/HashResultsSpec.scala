@@ -3,8 +3,8 @@ package com.oradian.infra.monohash
 import java.nio.file.Files
 import java.security.MessageDigest
 
-import com.oradian.infra.monohash.param.{Algorithm, LogLevel}
-import com.oradian.infra.monohash.util.Hex
+import com.oradian.infra.monohash.param.{Algorithm, Compression, Fsync, LogLevel}
+import com.oradian.infra.monohash.util.{BlockDeflate, Hex}
 
 class HashResultsSpec extends Specification {
   sequential
@@ -45,6 +45,34 @@ class HashResultsSpec extends Specification {
     }
   }
 
+  "Export atomically replaces the previous export" >> {
+    inWorkspace { ws =>
+      val export = new File(ws + "export.txt")
+      Files.write(export.toPath, "previous".getBytes(UTF_8))
+
+      Fsync.values.toSeq.map { fsync =>
+        val hashResults = genRandomHashResults()
+        hashResults.export(export, fsync)
+        HashResults.apply(logger, algorithm, Files.readAllBytes(export.toPath)) ==== hashResults and
+        new File(ws).list().toSeq ==== Seq("export.txt") // no temporary files left behind
+      }
+    }
+  }
+
+  "Compressed export decompresses into the plain export" >> {
+    inWorkspace { ws =>
+      val hashResults = genRandomHashResults()
+      val plain = new File(ws + "export.txt")
+      val compressed = new File(ws + "export.z")
+      hashResults.export(plain)
+      hashResults.export(compressed, Fsync.OFF, Compression.DEFLATE, 4)
+
+      val bytes = Files.readAllBytes(compressed.toPath)
+      BlockDeflate.isCompressed(bytes) ==== true
+      BlockDeflate.decompress(bytes, 4).toSeq ==== Files.readAllBytes(plain.toPath).toSeq
+    }
+  }
+
   private[this] def test(actual: HashResults, expected: Seq[(String, Array[Byte])]): MatchResult[_] =
     actual.toMap.asScala.view.mapValues(_.toSeq).toSeq ====
     expected.map(k => (k._1, k._2.toSeq))
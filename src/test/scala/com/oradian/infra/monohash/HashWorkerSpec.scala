@@ -0,0 +1,124 @@
+package com.oradian.infra.monohash
+
+import java.nio.file.Files
+import java.security.MessageDigest
+import java.util.concurrent.atomic.LongAdder
+
+import com.oradian.infra.monohash.param.{Algorithm, LogLevel, RateLimit, ReadMode}
+
+class HashWorkerSpec extends Specification {
+  sequential
+
+  private[this] val logger = new LoggingLogger(LogLevel.TRACE)
+  private[this] val algorithm = Algorithm.DEFAULT
+
+  "All read modes produce the same digest around buffer and small file boundaries" >> {
+    inWorkspace { ws =>
+      val sizes = Seq(0, 1, 8191, 8192, 8193, 65535, 65536, 65537, 262143, 262144, 262145, 3 * 262144, 1024 * 1024 + 12345)
+      val files = sizes.map { size =>
+        val file = new File(ws + s"blob-$size.bin")
+        Files.write(file.toPath, Random.nextBytes(size))
+        file
+      }
+
+      ReadMode.values.toSeq.map { readMode =>
+        val bytesHashed = new LongAdder
+        // a single worker is reused across all files, to check that no buffer leaks into the next file
+        val worker = new HashWorker(logger, algorithm, readMode, bytesHashed)
+        files.map { file =>
+          val expected = MessageDigest.getInstance(algorithm.underlying).digest(Files.readAllBytes(file.toPath))
+          worker.hashFile(file).toSeq ==== expected.toSeq
+        }
+        bytesHashed.longValue ==== sizes.map(_.toLong).sum
+      }
+    }
+  }
+
+  "Files which report no length are read to their end in all read modes" >> {
+    val procFile = new File("/proc/version")
+    // only on Linux
+    ReadMode.values.toSeq.filter(_ => procFile.canRead).map { readMode =>
+      val bytesHashed = new LongAdder
+      val worker = new HashWorker(logger, algorithm, readMode, bytesHashed)
+      val bytes = Files.readAllBytes(procFile.toPath)
+      procFile.length ==== 0L
+      worker.hashFile(procFile).toSeq ==== MessageDigest.getInstance(algorithm.underlying).digest(bytes).toSeq
+      bytesHashed.longValue ==== bytes.length.toLong
+    }
+  }
+
+  "Missing files are reported in all read modes" >> {
+    inWorkspace { ws =>
+      ReadMode.values.toSeq.map { readMode =>
+        val worker = new HashWorker(logger, algorithm, readMode, new LongAdder)
+        worker.hashFile(new File(ws + "missing.bin")) must throwA[java.io.FileNotFoundException]
+      }
+    }
+  }
+
+  "Rate limited reads produce the same digest and are paced in all read modes" >> {
+    inWorkspace { ws =>
+      val file = new File(ws + "blob.bin")
+      Files.write(file.toPath, Random.nextBytes(3 * 256 * 1024 + 12345))
+      val expected = MessageDigest.getInstance(algorithm.underlying).digest(Files.readAllBytes(file.toPath))
+
+      ReadMode.values.toSeq.map { readMode =>
+        // the first second worth of bytes is read at once, the remaining third of the file takes half a second
+        val rateLimiter = RateLimiter.create(RateLimit.of(512L * 1024, 0L))
+        val worker = new HashWorker(logger, algorithm, new LongAdder, new HashWorker.Buffers(readMode), rateLimiter, RunControl.NONE)
+        val startAt = System.nanoTime()
+        worker.hashFile(file).toSeq ==== expected.toSeq
+        (System.nanoTime() - startAt) must be_>=(400L * 1000 * 1000)
+      }
+    }
+  }
+
+  "Cancelling the run stops hashing in the middle of a large file in all read modes" >> {
+    inWorkspace { ws =>
+      val file = new File(ws + "large.bin")
+      Files.write(file.toPath, Random.nextBytes(16 * 1024 * 1024))
+
+      ReadMode.values.toSeq.map { readMode =>
+        // paced reads would take 15 seconds after the first second worth of bytes
+        val rateLimiter = RateLimiter.create(RateLimit.of(1024L * 1024, 0L))
+        val control = new RunControl(logger, null)
+        val bytesHashed = new LongAdder
+        val worker = new HashWorker(logger, algorithm, bytesHashed, new HashWorker.Buffers(readMode), rateLimiter, control)
+        val canceller = new Thread(() => {
+          Thread.sleep(300)
+          control.cancel()
+        })
+        val startAt = System.nanoTime()
+        canceller.start()
+        worker.hashFile(file) must throwA[java.util.concurrent.CancellationException]("Run was cancelled")
+        canceller.join()
+        (System.nanoTime() - startAt) must be_<(5L * 1000 * 1000 * 1000)
+        bytesHashed.longValue must be_<(file.length)
+      }
+    }
+  }
+
+  "Pooled buffers are reused for the same read mode" >> {
+    val pool = new BufferPool(2)
+    val buffers = pool.acquire(ReadMode.ASYNC)
+    buffers.readMode ==== ReadMode.ASYNC
+    pool.release(buffers)
+    pool.size ==== 1
+    pool.acquire(ReadMode.SYNC) must not(beTheSameAs(buffers))
+    pool.acquire(ReadMode.ASYNC) must beTheSameAs(buffers)
+    pool.size ==== 0
+  }
+
+  "Buffer pools are bounded by their capacity and can be cleared" >> {
+    val pool = new BufferPool(2)
+    val buffers = Seq.fill(3)(pool.acquire(ReadMode.SYNC))
+    buffers.foreach(pool.release)
+    pool.size ==== 2
+    pool.release(pool.acquire(ReadMode.ASYNC))
+    pool.size ==== 3
+    pool.clear()
+    pool.size ==== 0
+    pool.acquire(ReadMode.SYNC) must not(beOneOf(buffers: _*))
+    new BufferPool(0) must throwAn[IllegalArgumentException]("Buffer pool capacity cannot be lower than 1, got: 0")
+  }
+}
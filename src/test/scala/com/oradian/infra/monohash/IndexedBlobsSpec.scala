@@ -0,0 +1,147 @@
+package com.oradian.infra.monohash
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, DataInputStream, DataOutputStream}
+import java.nio.file.attribute.FileTime
+import java.nio.file.{Files, Paths}
+import java.util.concurrent.TimeUnit
+
+import com.oradian.infra.monohash.param._
+import com.oradian.infra.monohash.util.Hex
+
+import scala.sys.process._
+
+class IndexedBlobsSpec extends Specification {
+  sequential
+
+  private[this] val logger = new LoggingLogger(LogLevel.TRACE)
+  private[this] val files = Seq("a", "dir/b", "dir/sub/c", "ä/d")
+
+  private[this] def git(ws: String, args: String*): String =
+    Process("git" +: args, new File(ws)).!!.trim
+
+  /** Files are modified well before staging, so that none of them are racily clean */
+  private[this] def inRepository[T](indexVersion: Int)(f: String => T): T = inWorkspace { ws =>
+    val past = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1))
+    for (file <- files) {
+      val path = Paths.get(ws + file)
+      Files.createDirectories(path.getParent)
+      Files.write(path, file.getBytes(UTF_8))
+      Files.setLastModifiedTime(path, past)
+    }
+    git(ws, "init", "-q")
+    git(ws, "add", ".")
+    git(ws, "update-index", "--index-version", indexVersion.toString)
+    f(ws)
+  }
+
+  "Object IDs of unchanged files are reused in all index versions" >> {
+    Seq(2, 3, 4).map { indexVersion =>
+      inRepository(indexVersion) { ws =>
+        val blobs = IndexedBlobs.load(logger, ws)
+        blobs.size ==== files.size
+        files.map { file =>
+          Hex.toHex(blobs.lookup(file, new File(ws + file))) ==== git(ws, "hash-object", file)
+        }
+      }
+    }
+  }
+
+  "Paths are relative to the base path inside the work tree" >> {
+    inRepository(4) { ws =>
+      val blobs = IndexedBlobs.load(logger, ws + "dir/")
+      blobs.size ==== 2
+      Hex.toHex(blobs.lookup("sub/c", new File(ws + "dir/sub/c"))) ==== git(ws, "hash-object", "dir/sub/c")
+      blobs.lookup("a", new File(ws + "a")) ==== null
+    }
+  }
+
+  "Changed, missing and untracked files need to be hashed" >> {
+    inRepository(2) { ws =>
+      val blobs = IndexedBlobs.load(logger, ws)
+
+      // same size and modification time, only the change time gives it away
+      val path = Paths.get(ws + "a")
+      val mtime = Files.getLastModifiedTime(path)
+      Files.write(path, "b".getBytes(UTF_8))
+      Files.setLastModifiedTime(path, mtime)
+      blobs.lookup("a", path.toFile) ==== null
+
+      Files.delete(Paths.get(ws + "dir/b"))
+      blobs.lookup("dir/b", new File(ws + "dir/b")) ==== null
+
+      Files.write(Paths.get(ws + "untracked"), Array.emptyByteArray)
+      blobs.lookup("untracked", new File(ws + "untracked")) ==== null
+    }
+  }
+
+  "Racily clean files are not reused" >> {
+    inRepository(2) { ws =>
+      val path = Paths.get(ws + "racy")
+      Files.write(path, "racy".getBytes(UTF_8))
+      Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+      git(ws, "add", "racy")
+
+      val blobs = IndexedBlobs.load(logger, ws)
+      blobs.lookup("racy", path.toFile) ==== null
+      blobs.lookup("a", new File(ws + "a")) !=== null
+    }
+  }
+
+  "Unusable indexes fall back to hashing" >> {
+    inRepository(2) { ws =>
+      val index = Paths.get(ws + ".git/index")
+      val bytes = Files.readAllBytes(index)
+      bytes(20) = (bytes(20) ^ 1).toByte
+      Files.write(index, bytes)
+
+      logger.clear()
+      IndexedBlobs.load(logger, ws) ==== null
+      logger.messages(LogLevel.WARN) ==== Seq(LogMsg(LogLevel.WARN, "Could not read the Git index in '" + ws +
+        "', all files will be hashed: checksum mismatch, the index is either corrupted or does not use SHA-1 object IDs"))
+    }
+  }
+
+  "Workers receive the entries below the paths of their partition" >> {
+    inRepository(4) { ws =>
+      val blobs = IndexedBlobs.load(logger, ws)
+
+      def send(relativePaths: String*): IndexedBlobs = {
+        val bytes = new ByteArrayOutputStream()
+        val out = new DataOutputStream(bytes)
+        blobs.write(out, relativePaths.asJava)
+        out.flush()
+        IndexedBlobs.read(logger, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray)))
+      }
+
+      send("").size ==== files.size
+      send("missing", "dir/").size ==== 2
+      send("dir/", "dir/sub/", "a").size ==== 3
+
+      val partition = send("dir/sub/", "a")
+      Hex.toHex(partition.lookup("dir/sub/c", new File(ws + "dir/sub/c"))) ==== git(ws, "hash-object", "dir/sub/c")
+      Hex.toHex(partition.lookup("a", new File(ws + "a"))) ==== git(ws, "hash-object", "a")
+      partition.lookup("dir/b", new File(ws + "dir/b")) ==== null
+    }
+  }
+
+  "Walking with the Git index produces the same results" >> {
+    inRepository(3) { ws =>
+      val planPath = Paths.get(ws + ".monohash")
+      Files.write(planPath, "!.monohash\n!.git/\n".getBytes(UTF_8))
+      Files.write(Paths.get(ws + "dir/b"), "changed".getBytes(UTF_8))
+      val hashPlan = HashPlan.apply(logger, planPath.toFile)
+
+      def walk(algorithm: Algorithm, gitIndexMode: GitIndexMode): Seq[(String, Seq[Byte])] =
+        WhiteWalker.apply(logger, hashPlan, algorithm, Concurrency.fixed(2), ReadMode.DEFAULT, Schedule.DEFAULT, gitIndexMode, DedupMode.DEFAULT)
+          .toMap.asScala.view.mapValues(_.toSeq).toSeq
+
+      val gitAlgorithm = new Algorithm(Algorithm.GIT)
+      walk(gitAlgorithm, GitIndexMode.REUSE) ==== walk(gitAlgorithm, GitIndexMode.OFF)
+
+      logger.clear()
+      walk(Algorithm.DEFAULT, GitIndexMode.REUSE) ==== walk(Algorithm.DEFAULT, GitIndexMode.OFF)
+      logger.messages(LogLevel.WARN) ==== Seq(LogMsg(LogLevel.WARN,
+        "Object IDs from the Git index can only be reused with the GIT algorithm, all files will be hashed"))
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.oradian.infra.monohash
+
+import com.oradian.infra.monohash.param.LogLevel
+
+class LogWriterSpec extends Specification {
+  sequential
+
+  private[this] val logger = new LoggingLogger(LogLevel.TRACE)
+
+  "Short texts are logged as a single message on close" >> {
+    logger.clear()
+    val out = new LogWriter(logger, LogLevel.WARN, 100)
+    out.write("Added files:\n")
+    out.append("+ a\n").append("+ b\n")
+    logger.messages() ==== Nil
+    out.close()
+    logger.messages() ==== Seq(LogMsg(LogLevel.WARN, "Added files:\n+ a\n+ b\n"))
+  }
+
+  "Long texts are logged in chunks of whole lines" >> {
+    logger.clear()
+    val lines = (1 to 100).map(i => f"! file-$i%03d\n")
+    val out = new LogWriter(logger, LogLevel.ERROR, 50)
+    lines.foreach(out.write)
+    out.close()
+
+    val messages = logger.messages()
+    messages.size must be_>(1)
+    messages.map(_.logLevel).distinct ==== Seq(LogLevel.ERROR)
+    messages.map(_.msg).mkString ==== lines.mkString
+    messages.forall(_.msg.endsWith("\n")) ==== true
+    messages.forall(_.msg.length < 50 + lines.head.length) ==== true
+  }
+
+  "Lines longer than a chunk are not split" >> {
+    logger.clear()
+    val out = new LogWriter(logger, LogLevel.WARN, 10)
+    val longLine = "x" * 25
+    out.write(longLine.substring(0, 15))
+    out.write(longLine.substring(15) + "\ny")
+    out.close()
+    logger.messages() ==== Seq(LogMsg(LogLevel.WARN, longLine + "\n"), LogMsg(LogLevel.WARN, "y"))
+  }
+
+  "Only errors and warnings can be logged" >> {
+    new LogWriter(logger, LogLevel.INFO) must throwAn[IllegalArgumentException]("Log level must be either error or warn, got: info")
+  }
+}
@@ -13,6 +13,22 @@ class MonoHashBuilderSpec extends Specification with BouncyCastleHelpers {
         MonoHash.withAlgorithm(Algorithm.DEFAULT),
         MonoHash.withConcurrency(Concurrency.DEFAULT),
         MonoHash.withVerification(Verification.DEFAULT),
+        MonoHash.withFsync(Fsync.DEFAULT),
+        MonoHash.withCompression(Compression.DEFAULT),
+        MonoHash.withReadMode(ReadMode.DEFAULT),
+        MonoHash.withSchedule(Schedule.DEFAULT),
+        MonoHash.withGitIndexMode(GitIndexMode.DEFAULT),
+        MonoHash.withDedupMode(DedupMode.DEFAULT),
+        MonoHash.withWorkers(Workers.DEFAULT),
+        MonoHash.withWorkers(Workers.of(0)),
+        MonoHash.withRateLimit(RateLimit.DEFAULT),
+        MonoHash.withRateLimit(RateLimit.of(0L, 0L)),
+        MonoHash.withPriority(Priority.DEFAULT),
+        MonoHash.withDiffLimit(DiffLimit.DEFAULT),
+        MonoHash.withDiffLimit(DiffLimit.of(0, 0)),
+        MonoHash.withExecutor(null),
+        MonoHash.withBufferPool(null),
+        MonoHash.withRevision(null),
         MonoHash.withExport(null),
       ).forall { mhb =>
         mhb must beTheSameAs(MonoHashBuilder.DEFAULT)
@@ -32,6 +48,45 @@ class MonoHashBuilderSpec extends Specification with BouncyCastleHelpers {
       val verification = Verification.WARN
       MonoHash.withVerification(verification).verification must beTheSameAs(verification)
 
+      val fsync = Fsync.FULL
+      MonoHash.withFsync(fsync).fsync must beTheSameAs(fsync)
+
+      val compression = Compression.DEFLATE
+      MonoHash.withCompression(compression).compression must beTheSameAs(compression)
+
+      val readMode = ReadMode.ASYNC
+      MonoHash.withReadMode(readMode).readMode must beTheSameAs(readMode)
+
+      val schedule = Schedule.INODE
+      MonoHash.withSchedule(schedule).schedule must beTheSameAs(schedule)
+
+      val gitIndexMode = GitIndexMode.REUSE
+      MonoHash.withGitIndexMode(gitIndexMode).gitIndexMode must beTheSameAs(gitIndexMode)
+
+      val dedupMode = DedupMode.HARDLINKS
+      MonoHash.withDedupMode(dedupMode).dedupMode must beTheSameAs(dedupMode)
+
+      val workers = Workers.of(4)
+      MonoHash.withWorkers(workers).workers must beTheSameAs(workers)
+
+      val rateLimit = RateLimit.of(1024L, 0L)
+      MonoHash.withRateLimit(rateLimit).rateLimit must beTheSameAs(rateLimit)
+
+      val priority = Priority.LOW
+      MonoHash.withPriority(priority).priority must beTheSameAs(priority)
+
+      val diffLimit = DiffLimit.of(100, 10)
+      MonoHash.withDiffLimit(diffLimit).diffLimit must beTheSameAs(diffLimit)
+
+      val executor: java.util.concurrent.Executor = _.run()
+      MonoHash.withExecutor(executor).executor must beTheSameAs(executor)
+
+      val bufferPool = new BufferPool(4)
+      MonoHash.withBufferPool(bufferPool).bufferPool must beTheSameAs(bufferPool)
+
+      val revision = "HEAD~1"
+      MonoHash.withRevision(revision).revision must beTheSameAs(revision)
+
       val hashPlan = new File("hashPlan.file")
       MonoHash.withHashPlan(hashPlan).hashPlan must beTheSameAs(hashPlan)
 
@@ -48,6 +103,19 @@ class MonoHashBuilderSpec extends Specification with BouncyCastleHelpers {
         "algorithm=Algorithm(name=SHA-1, provider=" + mhbDefault.algorithm.provider.getName + "), " +
         "concurrency=Concurrency.CpuRelative(1.0), " +
         "verification=off, " +
+        "fsync=off, " +
+        "compression=off, " +
+        "readMode=sync, " +
+        "schedule=walk, " +
+        "gitIndexMode=off, " +
+        "dedupMode=off, " +
+        "workers=0, " +
+        "rateLimit=off, " +
+        "priority=normal, " +
+        "diffLimit=off, " +
+        "executor=<none>, " +
+        "bufferPool=<none>, " +
+        "revision=<none>, " +
         "export=<none>" +
       ")"
 
@@ -56,6 +124,19 @@ class MonoHashBuilderSpec extends Specification with BouncyCastleHelpers {
       .withAlgorithm(new Algorithm("sHa-256"))
       .withConcurrency(Concurrency.fixed(5))
       .withVerification(Verification.REQUIRE)
+      .withFsync(Fsync.FILE)
+      .withCompression(Compression.DEFLATE)
+      .withReadMode(ReadMode.ASYNC)
+      .withSchedule(Schedule.INODE)
+      .withGitIndexMode(GitIndexMode.REUSE)
+      .withDedupMode(DedupMode.HARDLINKS)
+      .withWorkers(Workers.of(3))
+      .withRateLimit(RateLimit.of(20L * 1024 * 1024, 500L))
+      .withPriority(Priority.LOW)
+      .withDiffLimit(DiffLimit.of(500, 20))
+      .withExecutor(java.util.concurrent.ForkJoinPool.commonPool())
+      .withBufferPool(new BufferPool(5))
+      .withRevision("v1.0^{tree}")
       .withExport(new File("path/to/export.file"))
 
     val mhbCustomString = mhbCustom.toString
@@ -65,6 +146,19 @@ class MonoHashBuilderSpec extends Specification with BouncyCastleHelpers {
         "algorithm=Algorithm(name=SHA-256, provider=" + mhbCustom.algorithm.provider.getName +"), " +
         "concurrency=Concurrency.Fixed(5), " +
         "verification=require, " +
+        "fsync=file, " +
+        "compression=deflate, " +
+        "readMode=async, " +
+        "schedule=inode, " +
+        "gitIndexMode=reuse, " +
+        "dedupMode=hardlinks, " +
+        "workers=3, " +
+        "rateLimit=20m,500, " +
+        "priority=low, " +
+        "diffLimit=500,20, " +
+        "executor=java.util.concurrent.ForkJoinPool, " +
+        "bufferPool=BufferPool(capacity=5), " +
+        "revision='v1.0^{tree}', " +
         "export='path/to/export.file'" +
       ")"
 
@@ -76,6 +170,19 @@ class MonoHashBuilderSpec extends Specification with BouncyCastleHelpers {
         "algorithm=Algorithm(name=SHA-256, provider=" + mhbReady.algorithm.provider.getName + "), " +
         "concurrency=Concurrency.Fixed(5), " +
         "verification=require, " +
+        "fsync=file, " +
+        "compression=deflate, " +
+        "readMode=async, " +
+        "schedule=inode, " +
+        "gitIndexMode=reuse, " +
+        "dedupMode=hardlinks, " +
+        "workers=3, " +
+        "rateLimit=20m,500, " +
+        "priority=low, " +
+        "diffLimit=500,20, " +
+        "executor=java.util.concurrent.ForkJoinPool, " +
+        "bufferPool=BufferPool(capacity=5), " +
+        "revision='v1.0^{tree}', " +
         "hashPlan='path/to/hashPlan.file', " +
         "export='path/to/export.file'" +
       ")"
@@ -111,8 +218,41 @@ class MonoHashBuilderSpec extends Specification with BouncyCastleHelpers {
     aMD5 !=== c8
     val vWarn = aMD5.withVerification(Verification.WARN)
     vWarn !=== aMD5
-    val e1 = vWarn.withExport(new File("1"))
-    e1 !=== vWarn
+    val fFull = vWarn.withFsync(Fsync.FULL)
+    fFull !=== vWarn
+    val zDeflate = fFull.withCompression(Compression.DEFLATE)
+    zDeflate !=== fFull
+    val rAsync = zDeflate.withReadMode(ReadMode.ASYNC)
+    rAsync !=== zDeflate
+    val sInode = rAsync.withSchedule(Schedule.INODE)
+    sInode !=== rAsync
+    val gReuse = sInode.withGitIndexMode(GitIndexMode.REUSE)
+    gReuse !=== sInode
+    val dHardlinks = gReuse.withDedupMode(DedupMode.HARDLINKS)
+    dHardlinks !=== gReuse
+    val w2 = dHardlinks.withWorkers(Workers.of(2))
+    w2 !=== dHardlinks
+    w2.withWorkers(Workers.of(2)) must beTheSameAs(w2)
+    val b1m = w2.withRateLimit(RateLimit.of(1024L * 1024, 0L))
+    b1m !=== w2
+    b1m.withRateLimit(RateLimit.of(1024L * 1024, 0L)) must beTheSameAs(b1m)
+    val pLow = b1m.withPriority(Priority.LOW)
+    pLow !=== b1m
+    val m100 = pLow.withDiffLimit(DiffLimit.of(100, 0))
+    m100 !=== pLow
+    m100.withDiffLimit(DiffLimit.of(100, 0)) must beTheSameAs(m100)
+    val xPool = m100.withExecutor(java.util.concurrent.ForkJoinPool.commonPool())
+    xPool !=== m100
+    xPool.withExecutor(java.util.concurrent.ForkJoinPool.commonPool()) must beTheSameAs(xPool)
+    val bufferPool = new BufferPool(2)
+    val bPool = xPool.withBufferPool(bufferPool)
+    bPool !=== xPool
+    bPool.withBufferPool(bufferPool) must beTheSameAs(bPool)
+    val tHead = bPool.withRevision("HEAD")
+    tHead !=== bPool
+    tHead.withRevision(new String("HEAD")) must beTheSameAs(tHead)
+    val e1 = tHead.withExport(new File("1"))
+    e1 !=== tHead
   }
 
   "MonoHashBuilder.Ready returns itself on a noop flow setter" >> {
@@ -124,6 +264,19 @@ class MonoHashBuilderSpec extends Specification with BouncyCastleHelpers {
     hpX.withAlgorithm(hpX.algorithm) must beTheSameAs(hpX)
     hpX.withConcurrency(hpX.concurrency) must beTheSameAs(hpX)
     hpX.withVerification(hpX.verification) must beTheSameAs(hpX)
+    hpX.withFsync(hpX.fsync) must beTheSameAs(hpX)
+    hpX.withCompression(hpX.compression) must beTheSameAs(hpX)
+    hpX.withReadMode(hpX.readMode) must beTheSameAs(hpX)
+    hpX.withSchedule(hpX.schedule) must beTheSameAs(hpX)
+    hpX.withGitIndexMode(hpX.gitIndexMode) must beTheSameAs(hpX)
+    hpX.withDedupMode(hpX.dedupMode) must beTheSameAs(hpX)
+    hpX.withWorkers(Workers.of(0)) must beTheSameAs(hpX)
+    hpX.withRateLimit(RateLimit.of(0L, 0L)) must beTheSameAs(hpX)
+    hpX.withPriority(hpX.priority) must beTheSameAs(hpX)
+    hpX.withDiffLimit(DiffLimit.of(0, 0)) must beTheSameAs(hpX)
+    hpX.withExecutor(hpX.executor) must beTheSameAs(hpX)
+    hpX.withBufferPool(hpX.bufferPool) must beTheSameAs(hpX)
+    hpX.withRevision(hpX.revision) must beTheSameAs(hpX)
     hpX.withHashPlan(hpX.hashPlan) must beTheSameAs(hpX)
     hpX.withExport(hpX.export) must beTheSameAs(hpX)
   }
@@ -153,7 +306,40 @@ class MonoHashBuilderSpec extends Specification with BouncyCastleHelpers {
     aMD5 !=== c8
     val vWarn = aMD5.withVerification(Verification.WARN)
     vWarn !=== aMD5
-    val e1 = vWarn.withExport(new File("1"))
-    e1 !=== vWarn
+    val fFull = vWarn.withFsync(Fsync.FULL)
+    fFull !=== vWarn
+    val zDeflate = fFull.withCompression(Compression.DEFLATE)
+    zDeflate !=== fFull
+    val rAsync = zDeflate.withReadMode(ReadMode.ASYNC)
+    rAsync !=== zDeflate
+    val sInode = rAsync.withSchedule(Schedule.INODE)
+    sInode !=== rAsync
+    val gReuse = sInode.withGitIndexMode(GitIndexMode.REUSE)
+    gReuse !=== sInode
+    val dHardlinks = gReuse.withDedupMode(DedupMode.HARDLINKS)
+    dHardlinks !=== gReuse
+    val w2 = dHardlinks.withWorkers(Workers.of(2))
+    w2 !=== dHardlinks
+    w2.withWorkers(Workers.of(2)) must beTheSameAs(w2)
+    val b1m = w2.withRateLimit(RateLimit.of(1024L * 1024, 0L))
+    b1m !=== w2
+    b1m.withRateLimit(RateLimit.of(1024L * 1024, 0L)) must beTheSameAs(b1m)
+    val pLow = b1m.withPriority(Priority.LOW)
+    pLow !=== b1m
+    val m100 = pLow.withDiffLimit(DiffLimit.of(100, 0))
+    m100 !=== pLow
+    m100.withDiffLimit(DiffLimit.of(100, 0)) must beTheSameAs(m100)
+    val xPool = m100.withExecutor(java.util.concurrent.ForkJoinPool.commonPool())
+    xPool !=== m100
+    xPool.withExecutor(java.util.concurrent.ForkJoinPool.commonPool()) must beTheSameAs(xPool)
+    val bufferPool = new BufferPool(2)
+    val bPool = xPool.withBufferPool(bufferPool)
+    bPool !=== xPool
+    bPool.withBufferPool(bufferPool) must beTheSameAs(bPool)
+    val tHead = bPool.withRevision("HEAD")
+    tHead !=== bPool
+    tHead.withRevision(new String("HEAD")) must beTheSameAs(tHead)
+    val e1 = tHead.withExport(new File("1"))
+    e1 !=== tHead
   }
 }
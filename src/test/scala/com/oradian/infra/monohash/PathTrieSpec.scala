@@ -0,0 +1,48 @@
+package com.oradian.infra.monohash
+
+class PathTrieSpec extends Specification {
+  sequential
+
+  private[this] def encode(value: String): Array[Byte] = {
+    val length = PathTrie.utf8Length(value)
+    val buffer = new Array[Byte](length + 2)
+    PathTrie.encodeUtf8(value, buffer, 1) ==== length + 1
+    buffer.slice(1, length + 1)
+  }
+
+  "UTF-8 encoding is consistent with String.getBytes" >> {
+    "Test hardcoded" >> {
+      Seq(
+        "", "ascii", "£", "äöü", "€", "￿",
+        "😀", // surrogate pair
+        "a\ud83db", "a\ude00b", "\ud83d", // unpaired surrogates
+      ).map { value =>
+        encode(value).toSeq ==== value.getBytes(UTF_8).toSeq
+      }
+    }
+
+    "Test random" >> {
+      (1 to 1000).map { _ =>
+        val value = Random.nextString(Random.nextInt(20))
+        encode(value).toSeq ==== value.getBytes(UTF_8).toSeq
+      }
+    }
+  }
+
+  "Relative paths are rebuilt from shared names" >> {
+    val root = new PathTrie("base/", true)
+    val names = "dir/äfile".getBytes(UTF_8)
+    val dir = new PathTrie(root, names, 0, 4)
+    val file = new PathTrie(root, names, 4, names.length - 4)
+    val nested = new PathTrie(dir, names, 4, names.length - 4)
+
+    dir.isDirectory ==== true
+    file.isDirectory ==== false
+
+    root.toString ==== "base/"
+    dir.toString ==== "base/dir/"
+    file.toString ==== "base/äfile"
+    nested.toString ==== "base/dir/äfile"
+    nested.pathLength ==== "base/dir/äfile".getBytes(UTF_8).length
+  }
+}
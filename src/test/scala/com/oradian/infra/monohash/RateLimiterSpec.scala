@@ -0,0 +1,59 @@
+package com.oradian.infra.monohash
+
+import java.io.InterruptedIOException
+import java.util.concurrent.{CompletableFuture, Executors, TimeUnit}
+
+import com.oradian.infra.monohash.param.RateLimit
+
+class RateLimiterSpec extends Specification {
+  sequential
+
+  private[this] def millis(f: => Unit): Long = {
+    val startAt = System.nanoTime()
+    f
+    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startAt)
+  }
+
+  "Unlimited runs do not get a limiter" >> {
+    RateLimiter.create(RateLimit.DEFAULT) must beNull
+    RateLimiter.create(RateLimit.of(0L, 10L)) must not(beNull)
+  }
+
+  "A second worth of tokens is available at once" >> {
+    val limiter = RateLimiter.create(RateLimit.of(1000L, 100L))
+    millis {
+      limiter.acquireBytes(1000L)
+      for (_ <- 1 to 100) {
+        limiter.acquireFile()
+      }
+    } must be_<(500L)
+  }
+
+  "Tokens beyond the burst are paced across all workers" >> {
+    val limiter = RateLimiter.create(RateLimit.of(10000L, 0L))
+    limiter.acquireBytes(10000L)
+    val pool = Executors.newFixedThreadPool(4)
+    try {
+      // 4 workers take 500 bytes each, which is 200 ms worth of tokens
+      millis {
+        (1 to 4).map(_ => CompletableFuture.runAsync(() => limiter.acquireBytes(500L), pool)).foreach(_.get())
+      } must beBetween(150L, 1500L)
+    } finally {
+      pool.shutdownNow()
+    }
+    // files are not limited
+    millis(limiter.acquireFile()) must be_<(100L)
+  }
+
+  "Waiting for the limit can be interrupted" >> {
+    val limiter = RateLimiter.create(RateLimit.of(0L, 1L))
+    limiter.acquireFile()
+    Thread.currentThread().interrupt()
+    try {
+      limiter.acquireFile() must throwAn[InterruptedIOException]("Interrupted while waiting for the rate limit")
+      Thread.currentThread().isInterrupted ==== true
+    } finally {
+      Thread.interrupted()
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.oradian.infra.monohash
+
+import java.nio.file.{Files, Paths}
+import java.util.concurrent.{CancellationException, CompletableFuture, CountDownLatch, ExecutionException}
+import java.util.concurrent.atomic.AtomicLong
+
+import com.oradian.infra.monohash.impl.NoopLogger
+import com.oradian.infra.monohash.param._
+
+class RunControlSpec extends Specification {
+  sequential
+
+  private[this] def write(ws: String, file: String, body: String): Unit = {
+    val path = Paths.get(ws + file)
+    Files.createDirectories(path.getParent)
+    Files.write(path, body.getBytes(UTF_8))
+  }
+
+  private[this] def inTree[T](f: String => T): T = inWorkspace { ws =>
+    for (i <- 1 to 50) {
+      write(ws, s"d${i % 5}/f$i", i.toString)
+    }
+    f(ws)
+  }
+
+  "runAsync completes with the same results as run" >> {
+    inTree { ws =>
+      val ready = MonoHash.withConcurrency(Concurrency.fixed(2)).withHashPlan(new File(ws))
+      val lastFiles = new AtomicLong(-1L)
+      val lastBytes = new AtomicLong(-1L)
+      val hashResults = ready.runAsync { (files, bytes) =>
+        lastFiles.set(files)
+        lastBytes.set(bytes)
+      }.get()
+      hashResults ==== ready.run()
+      lastFiles.get() ==== 50L
+      lastBytes.get() ==== (1 to 50).map(_.toString.length).sum.toLong
+    }
+  }
+
+  "Cancelling stops the run without writing the export" >> {
+    inTree { ws =>
+      val export = new File(ws + "export.txt")
+      val started = new CountDownLatch(1)
+      val future = new CompletableFuture[CompletableFuture[HashResults]]
+      val run = MonoHash.withHashPlan(new File(ws)).withExport(export).runAsync { (_, _) =>
+        // the final progress is reported before the walk returns, so the walk sees the cancellation
+        future.get().cancel(true)
+        started.countDown()
+      }
+      future.complete(run)
+      started.await()
+      run.get() must throwA[CancellationException]
+      run.isCancelled ==== true
+      export.exists() ==== false
+    }
+  }
+
+  "Failures complete the future exceptionally" >> {
+    MonoHash.withHashPlan(new File(resources + "missing")).runAsync().get() must
+      throwAn[ExecutionException]("""\[hash plan file\] must point to an existing file or directory, got: .*missing.*""")
+  }
+
+  "Failing progress listeners do not fail the run" >> {
+    inTree { ws =>
+      MonoHash.withHashPlan(new File(ws)).runAsync((_, _) => throw new IllegalStateException("boom")).get().size ==== 50
+    }
+  }
+
+  "Cancelling raises a flag which the run checks" >> {
+    val control = new RunControl(NoopLogger.INSTANCE, null)
+    control.isCancelled ==== false
+    control.checkCancelled()
+    control.cancel()
+    control.isCancelled ==== true
+    control.checkCancelled() must throwA[CancellationException]("Run was cancelled")
+    RunControl.NONE.isCancelled ==== false
+  }
+}
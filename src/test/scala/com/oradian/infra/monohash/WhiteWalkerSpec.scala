@@ -1,6 +1,9 @@
 package com.oradian.infra.monohash
 
-import com.oradian.infra.monohash.param.{Algorithm, Concurrency, LogLevel}
+import java.nio.file.{Files, Paths}
+import java.util.concurrent.{CompletableFuture, ConcurrentHashMap, Executor, Executors, RejectedExecutionException}
+
+import com.oradian.infra.monohash.param.{Algorithm, Concurrency, DedupMode, GitIndexMode, LogLevel, Priority, ReadMode, Schedule}
 
 class WhiteWalkerSpec extends Specification {
   sequential
@@ -49,4 +52,140 @@ class WhiteWalkerSpec extends Specification {
     "harness/1/a", "harness/1/b", "harness/1/c",
     "harness/2/d", "harness/2/e", "harness/2/f",
   )
+
+  "Ordered walk" >> {
+    val files = Seq(
+      "a/b/1", "a/2", "a-c/3", "a-c4", "a.b", "a b/5",
+      "B", "z/y/x/7", "\u00e4/8", "\ud83d\ude00/9", "\uff5a",
+    )
+
+    def walk(ws: String, plan: String): Seq[String] = {
+      for (file <- files) {
+        val path = Paths.get(ws + file)
+        Files.createDirectories(path.getParent)
+        Files.write(path, file.getBytes(UTF_8))
+      }
+      val planPath = Paths.get(ws + ".monohash")
+      Files.write(planPath, plan.getBytes(UTF_8))
+      val hashPlan = HashPlan.apply(logger, planPath.toFile)
+      WhiteWalker.apply(logger, hashPlan, algorithm, Concurrency.fixed(4)).toMap.keySet.asScala.toSeq
+    }
+
+    "Emits in the same order as sorting relative paths" >> {
+      inWorkspace { ws =>
+        walk(ws, "!.monohash\n") ==== files.sorted
+      }
+    }
+
+    "Falls back to sorting on nested whitelist entries" >> {
+      inWorkspace { ws =>
+        walk(ws, "a/\na/b/\nz/y/\nz/\n") ==== files.filter(f => f.startsWith("a/") || f.startsWith("z/")).sorted
+      }
+    }
+  }
+
+  "Batches of sibling files" >> {
+    // files are interleaved with directories and overflow several batches
+    val files = (1 to 100).map(i => f"d/$i%03d") ++ (1 to 5).map(i => f"d/$i%03d-dir/x") ++ Seq("e/1", "f")
+
+    def walk(ws: String, plan: String): Seq[(String, Seq[Byte])] = {
+      for (file <- files) {
+        val path = Paths.get(ws + file)
+        Files.createDirectories(path.getParent)
+        Files.write(path, file.getBytes(UTF_8))
+      }
+      val planPath = Paths.get(ws + ".monohash")
+      Files.write(planPath, plan.getBytes(UTF_8))
+      val hashPlan = HashPlan.apply(logger, planPath.toFile)
+      WhiteWalker.apply(logger, hashPlan, algorithm, Concurrency.fixed(3)).toMap.asScala.view.mapValues(_.toSeq).toSeq
+    }
+
+    def expected(filter: String => Boolean): Seq[(String, Seq[Byte])] =
+      files.filter(filter).sorted.map { file =>
+        (file, algorithm.init(() => ???).digest(file.getBytes(UTF_8)).toSeq)
+      }
+
+    "Ordered walk hashes every file of a batch" >> {
+      inWorkspace { ws =>
+        walk(ws, "!.monohash\n") ==== expected(_ => true)
+      }
+    }
+
+    "Unordered walk hashes every file of a batch" >> {
+      inWorkspace { ws =>
+        walk(ws, "d/\nd/001-dir/\ne/\n") ==== expected(f => f.startsWith("d/") || f.startsWith("e/"))
+      }
+    }
+  }
+
+  "All schedules produce the same results" >> {
+    val files = (1 to 50).map(i => f"d/$i%02d") ++ (1 to 3).map(i => s"d/$i-dir/x") ++ Seq("e/1", "f")
+
+    inWorkspace { ws =>
+      for (file <- files) {
+        val path = Paths.get(ws + file)
+        Files.createDirectories(path.getParent)
+        Files.write(path, file.getBytes(UTF_8))
+      }
+      Seq("!.monohash\n", "d/\ne/\n!d/2-dir/\n").map { plan =>
+        val planPath = Paths.get(ws + ".monohash")
+        Files.write(planPath, plan.getBytes(UTF_8))
+        val hashPlan = HashPlan.apply(logger, planPath.toFile)
+        val results = Schedule.values.toSeq.map { schedule =>
+          WhiteWalker.apply(logger, hashPlan, algorithm, Concurrency.fixed(3), ReadMode.DEFAULT, schedule, GitIndexMode.DEFAULT, DedupMode.DEFAULT)
+            .toMap.asScala.view.mapValues(_.toSeq).toSeq
+        }
+        results.distinct.size ==== 1
+      }
+    }
+  }
+
+  "Workers can run on a shared executor" >> {
+    val planPath = new File(resources + "whiteWalker/04-all-by-default/.monohash")
+    val hashPlan = HashPlan.apply(logger, planPath)
+    def walk(executor: Executor): Seq[(String, Seq[Byte])] =
+      WhiteWalker.apply(logger, hashPlan, algorithm, Concurrency.fixed(3), ReadMode.DEFAULT, Schedule.DEFAULT, GitIndexMode.DEFAULT, DedupMode.DEFAULT, executor, null, null, Priority.DEFAULT, RunControl.NONE)
+        .toMap.asScala.view.mapValues(_.toSeq).toSeq
+
+    val expected = walk(null)
+    val pool = Executors.newFixedThreadPool(2)
+    try {
+      // fewer threads than workers only delays the workers which did not get a thread
+      for (_ <- 1 to 3) {
+        walk(pool) ==== expected
+      }
+      walk(_.run()) ==== expected
+      pool.shutdown()
+      walk(pool) must throwA[RejectedExecutionException]
+    } finally {
+      pool.shutdownNow()
+    }
+  }
+
+  "Low priority only applies while hashing" >> {
+    val planPath = new File(resources + "whiteWalker/04-all-by-default/.monohash")
+    val hashPlan = HashPlan.apply(logger, planPath)
+    val priorities = ConcurrentHashMap.newKeySet[Int]()
+    val priorityLogger = new LoggingLogger(LogLevel.TRACE) {
+      override def trace(msg: String): Unit = {
+        if (msg.startsWith("Hashed file")) {
+          priorities.add(Thread.currentThread().getPriority)
+        }
+        super.trace(msg)
+      }
+    }
+
+    val pool = Executors.newFixedThreadPool(2)
+    try {
+      Priority.values.toSeq.map { priority =>
+        priorities.clear()
+        WhiteWalker.apply(priorityLogger, hashPlan, algorithm, Concurrency.fixed(2), ReadMode.DEFAULT, Schedule.DEFAULT, GitIndexMode.DEFAULT, DedupMode.DEFAULT, pool, null, null, priority, RunControl.NONE)
+        priorities.asScala.toSet ==== Set(if (priority == Priority.LOW) Thread.MIN_PRIORITY else Thread.NORM_PRIORITY)
+        // the borrowed threads get their priority back
+        CompletableFuture.supplyAsync(() => Thread.currentThread().getPriority, pool).get() ==== Thread.NORM_PRIORITY
+      }
+    } finally {
+      pool.shutdownNow()
+    }
+  }
 }
@@ -0,0 +1,128 @@
+package com.oradian.infra.monohash
+package diff
+
+import java.io.StringWriter
+import java.util.{Collections, Arrays => JArrays}
+
+class DiffRendererSpec extends Specification {
+  sequential
+
+  private[this] val diff = new Diff(
+    JArrays.asList(
+      new Add("a/1", Array(1.toByte)),
+      new Add("a/2", Array(1.toByte)),
+      new Add("b/1", Array(1.toByte)),
+      new Add("a/3", Array(1.toByte)),
+      new Add("root", Array(1.toByte)),
+    ),
+    JArrays.asList(new Rename("old", "new", Array(3.toByte))),
+    Collections.emptyList(),
+    JArrays.asList(
+      new Delete("c/1", Array(2.toByte)),
+      new Delete("c/2", Array(2.toByte)),
+    ),
+  )
+
+  "Unlimited rendering is the same as toString" >> {
+    DiffRenderer.UNLIMITED.render(diff) ==== diff.toString
+    DiffRenderer.UNLIMITED.render(diff) ====
+      """Added files:
++ 01 a/1
++ 01 a/2
++ 01 b/1
++ 01 a/3
++ 01 root
+
+Renamed files:
+~ 03 new (previously: old)
+
+Deleted files:
+- 02 c/1
+- 02 c/2
+
+"""
+    new DiffRenderer(8, 0).render(diff) ==== diff.toString
+  }
+
+  "Renders to a Writer" >> {
+    val sw = new StringWriter
+    new DiffRenderer(2, 0).render(diff, sw)
+    sw.toString ==== new DiffRenderer(2, 0).render(diff)
+  }
+
+  "Changes past the line limit are counted" >> {
+    new DiffRenderer(2, 0).render(diff) ====
+      """Added files:
++ 01 a/1
++ 01 a/2
+
+... omitted 6 changes past the first 2 lines (3 added, 1 renamed, 2 deleted)
+"""
+    new DiffRenderer(7, 0).render(diff) ====
+      """Added files:
++ 01 a/1
++ 01 a/2
++ 01 b/1
++ 01 a/3
++ 01 root
+
+Renamed files:
+~ 03 new (previously: old)
+
+Deleted files:
+- 02 c/1
+
+... omitted 1 change past the first 7 lines (1 deleted)
+"""
+  }
+
+  "Directories with many changes are rolled up" >> {
+    new DiffRenderer(0, 3).render(diff) ====
+      """Added files:
++ 3 files in a/
++ 01 b/1
++ 01 root
+
+Renamed files:
+~ 03 new (previously: old)
+
+Deleted files:
+- 02 c/1
+- 02 c/2
+
+"""
+    new DiffRenderer(0, 2).render(diff) must endWith(
+      """Deleted files:
+- 2 files in c/
+
+""")
+    new DiffRenderer(0, 1).render(diff) must contain("+ 1 file in b/\n")
+    new DiffRenderer(3, 2).render(diff) ====
+      """Added files:
++ 3 files in a/
++ 01 b/1
++ 01 root
+
+... omitted 3 changes past the first 3 lines (1 renamed, 2 deleted)
+"""
+  }
+
+  "Root directory is rolled up as ./" >> {
+    val rootDiff = new Diff(
+      JArrays.asList(new Add("x", Array(1.toByte)), new Add("y", Array(1.toByte))),
+      Collections.emptyList(),
+      Collections.emptyList(),
+      Collections.emptyList(),
+    )
+    new DiffRenderer(0, 2).render(rootDiff) ====
+      """Added files:
++ 2 files in ./
+
+"""
+  }
+
+  "Rejects negative limits" >> {
+    new DiffRenderer(-1, 0) must throwA[IllegalArgumentException]("Max lines cannot be negative, got: -1")
+    new DiffRenderer(0, -1) must throwA[IllegalArgumentException]("Roll up cannot be negative, got: -1")
+  }
+}
@@ -1,6 +1,7 @@
 package com.oradian.infra.monohash
 package diff
 
+import java.nio.file.Files
 import java.util.{Collections, Arrays => JArrays}
 
 import com.oradian.infra.monohash.param.{Algorithm, LogLevel}
@@ -61,6 +62,20 @@ Renamed files:
 
 """)
 
+  "Identical files are renamed to the paths most similar to theirs" >> {
+    val src = toMap("lib/a/__init__.py" -> '0', "lib/b/__init__.py" -> '0', "lib/b/c/__init__.py" -> '0')
+    val dst = toMap("lib/a/__init__.py" -> '0', "src/lib/b/c/__init__.py" -> '0')
+    val expected = """Renamed files:
+~ 0000000000000000000000000000000000000000 src/lib/b/c/__init__.py (previously: lib/b/c/__init__.py)
+
+"""
+    test(src, dst, expected) and
+    Diff.apply(
+      HashResults.apply(logger, algorithm, src.entrySet()),
+      HashResults.apply(logger, algorithm, dst.entrySet()),
+    ).toString ==== expected
+  }
+
   "Files changed" >> test(
     toMap("To be changed" -> '1', "To also be changed" -> '2', "To stay the same" -> 'e'),
     toMap("To be changed" -> 'a', "To also be changed" -> 'b', "To stay the same" -> 'e'),
@@ -184,4 +199,47 @@ Deleted files:
       "Don't rock the boat" -> 'c',
     ),
     "")
+
+  "Diffing results in place is consistent with diffing maps" >> {
+    def randomPath(): String = {
+      val chars = Seq("a", "b", "/", "ä", "\uffee", "\ud83d\ude00")
+      Seq.fill(1 + Random.nextInt(4))(chars(Random.nextInt(chars.size))).mkString
+    }
+    def randomResults(sorted: Boolean): HashResults = {
+      val paths = Seq.fill(Random.nextInt(30))(randomPath()).distinct
+      val entries = (if (sorted) paths.sorted else paths) map { path =>
+        new java.util.AbstractMap.SimpleEntry(path, Array.fill(algorithm.lengthInBytes)(Random.nextInt(3).toByte))
+          : java.util.Map.Entry[String, Array[Byte]]
+      }
+      HashResults.apply(logger, algorithm, entries.asJava)
+    }
+
+    "Sorted" >> {
+      (1 to 500).map { _ =>
+        val src = randomResults(true)
+        val dst = randomResults(true)
+        val dstFromLines = inWorkspace { ws =>
+          val export = new File(ws + "export")
+          dst.export(export)
+          HashResults.apply(logger, algorithm, Files.readAllBytes(export.toPath))
+        }
+        Diff.apply(src, dst).toString ==== Diff.apply(src.toMap, dst.toMap).toString and
+        Diff.apply(src, dstFromLines).toString ==== Diff.apply(src.toMap, dst.toMap).toString
+      }
+    }
+
+    "Unsorted" >> {
+      (1 to 500).map { _ =>
+        val src = randomResults(false)
+        val dst = randomResults(Random.nextBoolean())
+        Diff.apply(src, dst).toString ==== Diff.apply(src.toMap, dst.toMap).toString
+      }
+    }
+
+    "Paths are compared in String order" >> {
+      val entries = randomResults(false).entries()
+      val indices = (0 until entries.size).sortWith((i, j) => entries.comparePaths(i, entries, j) < 0)
+      indices.map(entries.path) ==== (0 until entries.size).map(entries.path).sorted
+    }
+  }
 }
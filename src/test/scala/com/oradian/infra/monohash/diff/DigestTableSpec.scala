@@ -0,0 +1,61 @@
+package com.oradian.infra.monohash
+package diff
+
+import com.oradian.infra.monohash.param.{Algorithm, LogLevel}
+
+class DigestTableSpec extends Specification {
+  sequential
+
+  private[this] val logger = new LoggingLogger(LogLevel.TRACE)
+  private[this] val algorithm = Algorithm.DEFAULT
+
+  /** Digests which only differ in their last bytes, so that they share the bytes a weak hash would look at */
+  private[this] def digest(id: Int): Array[Byte] = {
+    val bytes = new Array[Byte](algorithm.lengthInBytes)
+    bytes(bytes.length - 2) = (id >> 8).toByte
+    bytes(bytes.length - 1) = id.toByte
+    bytes
+  }
+
+  private[this] def entries(files: (String, Int)*): HashResults.Entries =
+    HashResults.apply(logger, algorithm, files.map { case (path, id) =>
+      new java.util.AbstractMap.SimpleEntry(path, digest(id)): java.util.Map.Entry[String, Array[Byte]]
+    }.asJava).entries()
+
+  private[this] def collect(table: DigestTable, src: HashResults.Entries): (Seq[String], Seq[String]) = {
+    val adds = new java.util.ArrayList[Add]
+    val renames = new java.util.ArrayList[Rename]
+    table.collect(src, adds, renames)
+    (adds.asScala.map(_.dstPath).toSeq, renames.asScala.map(r => r.srcPath + " -> " + r.dstPath).toSeq)
+  }
+
+  "Groups keep the order of their first add, adds keep their order within a group" >> {
+    val dst = entries("a" -> 2, "b" -> 1, "c" -> 2, "d" -> 3, "e" -> 1)
+    val table = new DigestTable(dst)
+    (0 until dst.size).foreach(table.add)
+    collect(table, dst) ==== ((Seq("a", "c", "b", "e", "d"), Nil))
+  }
+
+  "Sources are gathered by digest and paired with the adds when collecting" >> {
+    val dst = entries("a" -> 1, "b" -> 1, "c" -> 2)
+    val src = entries("x" -> 1, "y" -> 3, "z" -> 1, "zz" -> 1)
+    val table = new DigestTable(dst)
+    (0 until dst.size).foreach(table.add)
+    (0 until src.size).map(table.addSource(src, _)) ==== Seq(true, false, true, true)
+    collect(table, src) ==== ((Seq("c"), Seq("x -> a", "z -> b")))
+  }
+
+  "Table grows past its initial capacity" >> {
+    val count = 10000
+    val dst = entries((0 until count).map(id => f"dst$id%05d" -> id): _*)
+    val src = entries((0 until count by 2).map(id => f"src$id%05d" -> id): _*)
+    val table = new DigestTable(dst)
+    (0 until dst.size).foreach(table.add)
+    (0 until src.size).forall(table.addSource(src, _)) ==== true
+    table.addSource(entries("missing" -> count), 0) ==== false
+
+    val (adds, renames) = collect(table, src)
+    adds ==== (1 until count by 2).map(id => f"dst$id%05d") and
+    renames ==== (0 until count by 2).map(id => f"src$id%05d -> dst$id%05d")
+  }
+}
@@ -0,0 +1,48 @@
+package com.oradian.infra.monohash
+package diff
+
+import java.util.concurrent.ForkJoinPool
+
+import com.oradian.infra.monohash.param.{Algorithm, LogLevel}
+
+class ParallelDiffSpec extends Specification {
+  sequential
+
+  private[this] val logger = new LoggingLogger(LogLevel.TRACE)
+  private[this] val algorithm = Algorithm.DEFAULT
+
+  private[this] def randomResults(count: Int, digests: Int): HashResults = {
+    val entries = Seq.fill(count)(s"${Random.nextInt(count + 1)}/${Random.nextInt(3)}").distinct.sorted map { path =>
+      val digest = new Array[Byte](algorithm.lengthInBytes)
+      val id = Random.nextInt(digests)
+      digest(0) = id.toByte
+      digest(digest.length - 1) = (id >> 8).toByte
+      new java.util.AbstractMap.SimpleEntry(path, digest): java.util.Map.Entry[String, Array[Byte]]
+    }
+    HashResults.apply(logger, algorithm, entries.asJava)
+  }
+
+  "Partitioned diff is consistent with the sequential diff" >> {
+    val pool = new ForkJoinPool(4)
+    try {
+      (1 to 500).map { _ =>
+        val src = randomResults(Random.nextInt(200), 1 + Random.nextInt(if (Random.nextBoolean()) 3 else 300))
+        val dst = if (Random.nextInt(10) == 0) randomResults(0, 1) else randomResults(Random.nextInt(200), 1 + Random.nextInt(300))
+        val partitions = 1 + Random.nextInt(16)
+        ParallelDiff.apply(pool, src.entries(), dst.entries(), partitions).toString ==== Diff.apply(src, dst).toString
+      }
+    } finally {
+      pool.shutdown()
+    }
+  }
+
+  "Large diffs are partitioned" >> {
+    val count = ParallelDiff.MIN_PARTITION_SIZE * 4
+    val src = randomResults(count, count / 2)
+    val dst = randomResults(count, count / 2)
+    val sequential = Diff.apply(src, dst)
+    val parallel = Diff.apply(src, dst, null, 4)
+    sequential.isEmpty ==== false
+    parallel.changes ==== sequential.changes
+  }
+}
@@ -0,0 +1,42 @@
+package com.oradian.infra.monohash
+package diff
+
+class RenameMatcherSpec extends Specification {
+  private[this] def pairs(src: Seq[String], dst: Seq[String]): Seq[(String, String)] = {
+    val matched = RenameMatcher.`match`(src.toArray, dst.toArray)
+    dst.indices collect { case i if matched(i) != -1 => src(matched(i)) -> dst(i) }
+  }
+
+  "Nothing to pair" >> {
+    RenameMatcher.`match`(Array.empty, Array("a")).toSeq ==== Seq(-1)
+    RenameMatcher.`match`(Array("a"), Array.empty).toSeq ==== Nil
+  }
+
+  "Unrelated paths are paired in order" >> {
+    pairs(Seq("x", "y", "z"), Seq("a", "b")) ==== Seq("x" -> "a", "y" -> "b")
+    pairs(Seq("x"), Seq("a", "b")) ==== Seq("x" -> "a")
+  }
+
+  "Moved directories pair each file with its counterpart" >> {
+    val modules = Seq("b", "a", "c/d", "c")
+    pairs(
+      modules.map(m => s"old/$m/__init__.py"),
+      modules.reverse.map(m => s"new/src/$m/__init__.py"),
+    ) ==== modules.reverse.map(m => s"old/$m/__init__.py" -> s"new/src/$m/__init__.py")
+  }
+
+  "Paths sharing more trailing segments are paired first" >> {
+    pairs(
+      Seq("x/a/b", "y/b", "z/q/a/b"),
+      Seq("c", "p/q/a/b", "a/b"),
+    ) ==== Seq("y/b" -> "c", "z/q/a/b" -> "p/q/a/b", "x/a/b" -> "a/b")
+  }
+
+  "Many identical files are paired in linear time" >> {
+    val count = 200000
+    val src = (0 until count).map(i => s"old/$i/empty")
+    val dst = (0 until count).map(i => s"new/${count - 1 - i}/empty")
+    val matched = RenameMatcher.`match`(src.toArray, dst.toArray)
+    dst.indices.forall(i => src(matched(i)).drop(4) == dst(i).drop(4)) ==== true
+  }
+}
@@ -55,6 +55,17 @@ class CmdLineParserSpec extends Specification {
       _.algorithm must beTheSameAs(Algorithm.DEFAULT),
       _.concurrency must beTheSameAs(Concurrency.DEFAULT),
       _.verification must beTheSameAs(Verification.DEFAULT),
+      _.fsync must beTheSameAs(Fsync.DEFAULT),
+      _.compression must beTheSameAs(Compression.DEFAULT),
+      _.readMode must beTheSameAs(ReadMode.DEFAULT),
+      _.schedule must beTheSameAs(Schedule.DEFAULT),
+      _.gitIndexMode must beTheSameAs(GitIndexMode.DEFAULT),
+      _.dedupMode must beTheSameAs(DedupMode.DEFAULT),
+      _.workers must beTheSameAs(Workers.DEFAULT),
+      _.rateLimit must beTheSameAs(RateLimit.DEFAULT),
+      _.priority must beTheSameAs(Priority.DEFAULT),
+      _.diffLimit must beTheSameAs(DiffLimit.DEFAULT),
+      _.revision ==== null,
       _.hashPlan ==== fakePlanFile,
       _.export ==== null,
     )
@@ -69,6 +80,16 @@ class CmdLineParserSpec extends Specification {
         LogMsg(LogLevel.DEBUG, s"Using algorithm: SHA-1"),
         LogMsg(LogLevel.DEBUG, s"Using concurrency: " + Concurrency.cpuRelative(1.0).getConcurrency),
         LogMsg(LogLevel.DEBUG, s"Using verification: off"),
+        LogMsg(LogLevel.DEBUG, s"Using fsync: off"),
+        LogMsg(LogLevel.DEBUG, s"Using compression: off"),
+        LogMsg(LogLevel.DEBUG, s"Using read mode: sync"),
+        LogMsg(LogLevel.DEBUG, s"Using schedule: walk"),
+        LogMsg(LogLevel.DEBUG, s"Using git index mode: off"),
+        LogMsg(LogLevel.DEBUG, s"Using dedup mode: off"),
+        LogMsg(LogLevel.DEBUG, s"Using workers: 0"),
+        LogMsg(LogLevel.DEBUG, s"Using rate limit: off"),
+        LogMsg(LogLevel.DEBUG, s"Using priority: normal"),
+        LogMsg(LogLevel.DEBUG, s"Using diff limit: off"),
         LogMsg(LogLevel.TRACE, s"Remaining arguments after processing options:\n  $fakePlan"),
       )
     )()
@@ -175,6 +196,180 @@ class CmdLineParserSpec extends Specification {
         throwA[ExitException]("""\[verification\] is set to 'require', but \[export file\] was not provided""")
     }
 
+    "Fsync parsing" >> {
+      testParse("-f")() must throwAn[ExitException]("Missing value for fsync, last argument was an alone '-f'")
+      testParse("-f", "")() must throwAn[ExitException]("Empty value provided for fsync")
+      testParse("-f", "--")() must throwAn[ExitException]("Missing value for fsync, next argument was the stop flag '--'")
+      testParse("-fxxx", fakePlan)() must throwAn[ExitException]("Unknown fsync: 'xxx', supported fsyncs are: off, file, full")
+      testParse("-f", "file", fakePlan)(
+        _.fsync ==== Fsync.FILE,
+        _.export ==== null,
+      )
+      testParse("-f", "file", "-fFuLl", fakePlan, fakeExport)(
+        _.fsync ==== Fsync.FULL,
+        _.export ==== fakeExportFile,
+      )
+    }
+
+    "Compression parsing" >> {
+      testParse("-z")() must throwAn[ExitException]("Missing value for compression, last argument was an alone '-z'")
+      testParse("-z", "")() must throwAn[ExitException]("Empty value provided for compression")
+      testParse("-z", "--")() must throwAn[ExitException]("Missing value for compression, next argument was the stop flag '--'")
+      testParse("-zgzip", fakePlan)() must throwAn[ExitException]("Unknown compression: 'gzip', supported compressions are: off, deflate")
+      testParse("-z", "deflate", fakePlan)(
+        _.compression ==== Compression.DEFLATE,
+        _.export ==== null,
+      )
+      testParse("-z", "deflate", "-zOFF", fakePlan, fakeExport)(
+        _.compression ==== Compression.OFF,
+        _.export ==== fakeExportFile,
+      )
+    }
+
+    "Read mode parsing" >> {
+      testParse("-r")() must throwAn[ExitException]("Missing value for read mode, last argument was an alone '-r'")
+      testParse("-r", "")() must throwAn[ExitException]("Empty value provided for read mode")
+      testParse("-r", "--")() must throwAn[ExitException]("Missing value for read mode, next argument was the stop flag '--'")
+      testParse("-rmmap", fakePlan)() must throwAn[ExitException]("Unknown read mode: 'mmap', supported read modes are: sync, async, direct")
+      testParse("-r", "async", fakePlan)(
+        _.readMode ==== ReadMode.ASYNC,
+        _.export ==== null,
+      )
+      testParse("-r", "async", "-rSYNC", fakePlan, fakeExport)(
+        _.readMode ==== ReadMode.SYNC,
+        _.export ==== fakeExportFile,
+      )
+      testParse("-rDirect", fakePlan)(
+        _.readMode ==== ReadMode.DIRECT,
+      )
+    }
+
+    "Schedule parsing" >> {
+      testParse("-s")() must throwAn[ExitException]("Missing value for schedule, last argument was an alone '-s'")
+      testParse("-s", "")() must throwAn[ExitException]("Empty value provided for schedule")
+      testParse("-s", "--")() must throwAn[ExitException]("Missing value for schedule, next argument was the stop flag '--'")
+      testParse("-srandom", fakePlan)() must throwAn[ExitException]("Unknown schedule: 'random', supported schedules are: walk, inode, largest")
+      testParse("-s", "inode", fakePlan)(
+        _.schedule ==== Schedule.INODE,
+        _.export ==== null,
+      )
+      testParse("-s", "inode", "-sWALK", fakePlan, fakeExport)(
+        _.schedule ==== Schedule.WALK,
+        _.export ==== fakeExportFile,
+      )
+      testParse("-sLargest", fakePlan)(
+        _.schedule ==== Schedule.LARGEST,
+      )
+    }
+
+    "Git index mode parsing" >> {
+      testParse("-g")() must throwAn[ExitException]("Missing value for git index mode, last argument was an alone '-g'")
+      testParse("-g", "")() must throwAn[ExitException]("Empty value provided for git index mode")
+      testParse("-g", "--")() must throwAn[ExitException]("Missing value for git index mode, next argument was the stop flag '--'")
+      testParse("-gtrust", fakePlan)() must throwAn[ExitException]("Unknown git index mode: 'trust', supported git index modes are: off, reuse")
+      testParse("-g", "reuse", fakePlan)(
+        _.gitIndexMode ==== GitIndexMode.REUSE,
+        _.export ==== null,
+      )
+      testParse("-g", "reuse", "-gOFF", fakePlan, fakeExport)(
+        _.gitIndexMode ==== GitIndexMode.OFF,
+        _.export ==== fakeExportFile,
+      )
+    }
+
+    "Dedup mode parsing" >> {
+      testParse("-d")() must throwAn[ExitException]("Missing value for dedup mode, last argument was an alone '-d'")
+      testParse("-d", "")() must throwAn[ExitException]("Empty value provided for dedup mode")
+      testParse("-d", "--")() must throwAn[ExitException]("Missing value for dedup mode, next argument was the stop flag '--'")
+      testParse("-dsymlinks", fakePlan)() must throwAn[ExitException]("Unknown dedup mode: 'symlinks', supported dedup modes are: off, hardlinks")
+      testParse("-d", "hardlinks", fakePlan)(
+        _.dedupMode ==== DedupMode.HARDLINKS,
+        _.export ==== null,
+      )
+      testParse("-d", "HardLinks", "-dOFF", fakePlan, fakeExport)(
+        _.dedupMode ==== DedupMode.OFF,
+        _.export ==== fakeExportFile,
+      )
+    }
+
+    "Workers parsing" >> {
+      testParse("-w")() must throwAn[ExitException]("Missing value for workers, last argument was an alone '-w'")
+      testParse("-w", "")() must throwAn[ExitException]("Empty value provided for workers")
+      testParse("-w", "--")() must throwAn[ExitException]("Missing value for workers, next argument was the stop flag '--'")
+      testParse("-wall", fakePlan)() must throwAn[ExitException]("Could not parse workers: all")
+      testParse("-w", "-1", fakePlan)() must throwAn[ExitException]("Number of workers cannot be lower than 0, got: -1")
+      testParse("-w", "65", fakePlan)() must throwAn[ExitException]("Number of workers cannot be higher than 64, got: 65")
+      testParse("-w", "4", fakePlan)(
+        _.workers ==== Workers.of(4),
+        _.export ==== null,
+      )
+      testParse("-w", "4", "-w0", fakePlan, fakeExport)(
+        _.workers ==== Workers.DEFAULT,
+        _.export ==== fakeExportFile,
+      )
+    }
+
+    "Rate limit parsing" >> {
+      testParse("-b")() must throwAn[ExitException]("Missing value for rate limit, last argument was an alone '-b'")
+      testParse("-b", "")() must throwAn[ExitException]("Empty value provided for rate limit")
+      testParse("-b", "--")() must throwAn[ExitException]("Missing value for rate limit, next argument was the stop flag '--'")
+      testParse("-bfast", fakePlan)() must throwAn[ExitException]("Could not parse rate limit: fast")
+      testParse("-b", "-1k", fakePlan)() must throwAn[ExitException]("Bytes per second cannot be negative, got: -1024")
+      testParse("-b", "50M", fakePlan)(
+        _.rateLimit ==== RateLimit.of(50L * 1024 * 1024, 0L),
+        _.export ==== null,
+      )
+      testParse("-b", "0,200", "-boff", fakePlan, fakeExport)(
+        _.rateLimit ==== RateLimit.DEFAULT,
+        _.export ==== fakeExportFile,
+      )
+    }
+
+    "Priority parsing" >> {
+      testParse("-p")() must throwAn[ExitException]("Missing value for priority, last argument was an alone '-p'")
+      testParse("-p", "")() must throwAn[ExitException]("Empty value provided for priority")
+      testParse("-p", "--")() must throwAn[ExitException]("Missing value for priority, next argument was the stop flag '--'")
+      testParse("-phigh", fakePlan)() must throwAn[ExitException]("Unknown priority: 'high', supported priorities are: normal, low")
+      testParse("-p", "LOW", fakePlan)(
+        _.priority ==== Priority.LOW,
+        _.export ==== null,
+      )
+      testParse("-p", "low", "-pnormal", fakePlan, fakeExport)(
+        _.priority ==== Priority.NORMAL,
+        _.export ==== fakeExportFile,
+      )
+    }
+
+    "Diff limit parsing" >> {
+      testParse("-m")() must throwAn[ExitException]("Missing value for diff limit, last argument was an alone '-m'")
+      testParse("-m", "")() must throwAn[ExitException]("Empty value provided for diff limit")
+      testParse("-m", "--")() must throwAn[ExitException]("Missing value for diff limit, next argument was the stop flag '--'")
+      testParse("-mmany", fakePlan)() must throwAn[ExitException]("Could not parse diff limit: many")
+      testParse("-m", "100,-1", fakePlan)() must throwAn[ExitException]("Diff roll up cannot be negative, got: -1")
+      testParse("-m", "200,10", fakePlan)(
+        _.diffLimit ==== DiffLimit.of(200, 10),
+        _.export ==== null,
+      )
+      testParse("-m", "50", "-moff", fakePlan, fakeExport)(
+        _.diffLimit ==== DiffLimit.DEFAULT,
+        _.export ==== fakeExportFile,
+      )
+    }
+
+    "Revision parsing" >> {
+      testParse("-t")() must throwAn[ExitException]("Missing value for revision, last argument was an alone '-t'")
+      testParse("-t", "")() must throwAn[ExitException]("Empty value provided for revision")
+      testParse("-t", "--")() must throwAn[ExitException]("Missing value for revision, next argument was the stop flag '--'")
+      testParse("-t", "HEAD~1", fakePlan)(
+        _.revision ==== "HEAD~1",
+        _.export ==== null,
+      )
+      testParse("-tv1.0", "-t", "main^{tree}", fakePlan, fakeExport)(
+        _.revision ==== "main^{tree}",
+        _.export ==== fakeExportFile,
+      )
+    }
+
     "Complex additional options parsing with overrides" >> {
       testParse("-l", "off", "-a", "SHA-256", "-c", "2", "-aGIT", "-v", "warn", fakePlan)(
         _.algorithm.name ==== "GIT",
@@ -193,12 +388,23 @@ class CmdLineParserSpec extends Specification {
     }
 
     "Noop logging" >> {
-      val params = JArrays.asList("-loff", "-amd5", "-c7", "-vwarn", "--", "planFile", "exportFile")
+      val params = JArrays.asList("-loff", "-amd5", "-c7", "-vwarn", "-ffile", "-zdeflate", "-rasync", "-sinode", "-greuse", "-dhardlinks", "-w3", "-b1g,1000", "-plow", "-m100,5", "-tHEAD", "--", "planFile", "exportFile")
       val parsed = CmdLineParser.parse(params, _ => NoopLogger.INSTANCE)
       parsed.logger ==== NoopLogger.INSTANCE
       parsed.algorithm ==== new Algorithm("md5")
       parsed.concurrency ==== Concurrency.fixed(7)
       parsed.verification ==== Verification.WARN
+      parsed.fsync ==== Fsync.FILE
+      parsed.compression ==== Compression.DEFLATE
+      parsed.readMode ==== ReadMode.ASYNC
+      parsed.schedule ==== Schedule.INODE
+      parsed.gitIndexMode ==== GitIndexMode.REUSE
+      parsed.dedupMode ==== DedupMode.HARDLINKS
+      parsed.workers ==== Workers.of(3)
+      parsed.rateLimit ==== RateLimit.of(1024L * 1024 * 1024, 1000L)
+      parsed.priority ==== Priority.LOW
+      parsed.diffLimit ==== DiffLimit.of(100, 5)
+      parsed.revision ==== "HEAD"
       parsed.hashPlan ==== new File("planFile")
       parsed.export ==== new File("exportFile")
     }
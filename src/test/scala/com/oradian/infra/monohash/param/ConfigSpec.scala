@@ -69,7 +69,17 @@ class ConfigSpec extends Specification {
 
     testParse("LogLevel.DEFAULT",     "silent",  LogLevel.DEFAULT,     "Could not parse LogLevel: silent")
     testParse("Verification.DEFAULT", "unknown", Verification.DEFAULT, "Could not parse Verification: unknown")
+    testParse("Fsync.DEFAULT",        "always",  Fsync.DEFAULT,        "Could not parse Fsync: always")
+    testParse("Compression.DEFAULT",  "gzip",    Compression.DEFAULT,  "Could not parse Compression: gzip")
+    testParse("ReadMode.DEFAULT",     "mmap",    ReadMode.DEFAULT,     "Could not parse ReadMode: mmap")
+    testParse("Schedule.DEFAULT",     "random",  Schedule.DEFAULT,     "Could not parse Schedule: random")
+    testParse("GitIndexMode.DEFAULT", "trust",   GitIndexMode.DEFAULT, "Could not parse GitIndexMode: trust")
+    testParse("DedupMode.DEFAULT",    "copies",  DedupMode.DEFAULT,    "Could not parse DedupMode: copies")
     testParse("Algorithm.DEFAULT",    "N/A",     Algorithm.DEFAULT,    "Could not initialise Algorithm: N/A")
     testParse("Concurrency.DEFAULT",  "0",       Concurrency.DEFAULT,  "Fixed concurrency cannot be lower than 1, got: 0")
+    testParse("Workers.DEFAULT",      "many",    Workers.DEFAULT,      "Could not parse workers: many")
+    testParse("RateLimit.DEFAULT",    "slow",    RateLimit.DEFAULT,    "Could not parse rate limit: slow")
+    testParse("Priority.DEFAULT",     "idle",    Priority.DEFAULT,     "Could not parse Priority: idle")
+    testParse("DiffLimit.DEFAULT",    "lots",    DiffLimit.DEFAULT,    "Could not parse diff limit: lots")
   }
 }
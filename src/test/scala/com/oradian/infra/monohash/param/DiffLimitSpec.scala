@@ -0,0 +1,53 @@
+package com.oradian.infra.monohash
+package param
+
+class DiffLimitSpec extends Specification {
+  sequential
+
+  "Default does not limit" >> {
+    DiffLimit.DEFAULT.maxLines ==== 0
+    DiffLimit.DEFAULT.rollUp ==== 0
+    DiffLimit.DEFAULT.isLimited ==== false
+    DiffLimit.of(0, 0) must beTheSameAs(DiffLimit.DEFAULT)
+    DiffLimit.of(1, 0).isLimited ==== true
+    DiffLimit.of(0, 1).isLimited ==== true
+  }
+
+  "Rejects negative limits" >> {
+    DiffLimit.of(-1, 0) must throwA[IllegalArgumentException]("Max diff lines cannot be negative, got: -1")
+    DiffLimit.of(0, -1) must throwA[IllegalArgumentException]("Diff roll up cannot be negative, got: -1")
+  }
+
+  "Parsing tests" >> {
+    DiffLimit.parseString("OFF") ==== DiffLimit.DEFAULT
+    DiffLimit.parseString("0") ==== DiffLimit.DEFAULT
+    DiffLimit.parseString("10000") ==== DiffLimit.of(10000, 0)
+    DiffLimit.parseString("500") ==== DiffLimit.of(500, 0)
+    DiffLimit.parseString("500,20") ==== DiffLimit.of(500, 20)
+    DiffLimit.parseString("0,50") ==== DiffLimit.of(0, 50)
+    DiffLimit.parseString("lots") must throwA[ParamParseException]("Could not parse diff limit: lots")
+    DiffLimit.parseString("10k") must throwA[ParamParseException]("Could not parse diff limit: 10k")
+    DiffLimit.parseString("100,") must throwA[ParamParseException]("Could not parse diff limit: 100,")
+    DiffLimit.parseString("9999999999") must throwA[ParamParseException]("Could not parse diff limit: 9999999999")
+    DiffLimit.parseString("-5") must throwA[ParamParseException]("Max diff lines cannot be negative, got: -5")
+    DiffLimit.parseString("100,-5") must throwA[ParamParseException]("Diff roll up cannot be negative, got: -5")
+  }
+
+  ".toString, .hashCode & .equals" >> {
+    val m500 = DiffLimit.of(500, 0)
+    m500.toString ==== "500"
+    m500.## ==== DiffLimit.of(500, 0).##
+    m500.equals(m500) ==== true
+    (m500: AnyRef).equals("500") ==== false
+    m500 ==== DiffLimit.of(500, 0)
+    m500 !=== DiffLimit.of(500, 1)
+
+    DiffLimit.DEFAULT.toString ==== "off"
+    DiffLimit.of(10000, 0).toString ==== "10000"
+    DiffLimit.of(500, 20).toString ==== "500,20"
+    DiffLimit.of(0, 50).toString ==== "0,50"
+    for (limit <- Seq(m500, DiffLimit.of(0, 0), DiffLimit.of(100, 7), DiffLimit.of(0, 50))) yield {
+      DiffLimit.parseString(limit.toString) ==== limit
+    }
+  }
+}
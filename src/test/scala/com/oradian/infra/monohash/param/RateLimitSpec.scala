@@ -0,0 +1,56 @@
+package com.oradian.infra.monohash
+package param
+
+class RateLimitSpec extends Specification {
+  sequential
+
+  "Default does not limit" >> {
+    RateLimit.DEFAULT.bytesPerSecond ==== 0L
+    RateLimit.DEFAULT.filesPerSecond ==== 0L
+    RateLimit.DEFAULT.isLimited ==== false
+    RateLimit.of(0L, 0L) must beTheSameAs(RateLimit.DEFAULT)
+    RateLimit.of(1L, 0L).isLimited ==== true
+    RateLimit.of(0L, 1L).isLimited ==== true
+  }
+
+  "Rejects negative limits" >> {
+    RateLimit.of(-1L, 0L) must throwA[IllegalArgumentException]("Bytes per second cannot be negative, got: -1")
+    RateLimit.of(0L, -1L) must throwA[IllegalArgumentException]("Files per second cannot be negative, got: -1")
+  }
+
+  "Parsing tests" >> {
+    RateLimit.parseString("OFF") ==== RateLimit.DEFAULT
+    RateLimit.parseString("0") ==== RateLimit.DEFAULT
+    RateLimit.parseString("1000") ==== RateLimit.of(1000L, 0L)
+    RateLimit.parseString("64k") ==== RateLimit.of(64L * 1024, 0L)
+    RateLimit.parseString("50M") ==== RateLimit.of(50L * 1024 * 1024, 0L)
+    RateLimit.parseString("2g,100") ==== RateLimit.of(2L * 1024 * 1024 * 1024, 100L)
+    RateLimit.parseString("0,250") ==== RateLimit.of(0L, 250L)
+    RateLimit.parseString("fast") must throwA[ParamParseException]("Could not parse rate limit: fast")
+    RateLimit.parseString("10t") must throwA[ParamParseException]("Could not parse rate limit: 10t")
+    RateLimit.parseString("m") must throwA[ParamParseException]("Could not parse rate limit: m")
+    RateLimit.parseString("1m,") must throwA[ParamParseException]("Could not parse rate limit: 1m,")
+    RateLimit.parseString("1m,2k") must throwA[ParamParseException]("Could not parse rate limit: 1m,2k")
+    RateLimit.parseString("9999999999g") must throwA[ParamParseException]("Could not parse rate limit: 9999999999g")
+    RateLimit.parseString("1k,-5") must throwA[ParamParseException]("Files per second cannot be negative, got: -5")
+  }
+
+  ".toString, .hashCode & .equals" >> {
+    val b1m = RateLimit.of(1024L * 1024, 0L)
+    b1m.toString ==== "1m"
+    b1m.## ==== RateLimit.of(1024L * 1024, 0L).##
+    b1m.equals(b1m) ==== true
+    (b1m: AnyRef).equals("1m") ==== false
+    b1m ==== RateLimit.of(1024L * 1024, 0L)
+    b1m !=== RateLimit.of(1024L * 1024, 1L)
+
+    RateLimit.DEFAULT.toString ==== "off"
+    RateLimit.of(1000L, 0L).toString ==== "1000"
+    RateLimit.of(3L * 1024 * 1024 * 1024, 20L).toString ==== "3g,20"
+    RateLimit.of(1536L * 1024 * 1024 * 1024, 0L).toString ==== "1536g"
+    RateLimit.of(0L, 250L).toString ==== "0,250"
+    for (limit <- Seq(b1m, RateLimit.of(1000L, 7L), RateLimit.of(0L, 250L), RateLimit.of(5L * 1024, 0L))) yield {
+      RateLimit.parseString(limit.toString) ==== limit
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package com.oradian.infra.monohash
+package param
+
+class WorkersSpec extends Specification {
+  sequential
+
+  "Default hashes in this process" >> {
+    Workers.DEFAULT.count ==== 0
+    Workers.DEFAULT.isDistributed ==== false
+    Workers.of(0) must beTheSameAs(Workers.DEFAULT)
+    Workers.of(2).isDistributed ==== true
+  }
+
+  "Respects constraints from monohash.properties" >> {
+    Workers.of(-1) must throwA[IllegalArgumentException]("Number of workers cannot be lower than 0, got: -1")
+    Workers.of(65) must throwA[IllegalArgumentException]("Number of workers cannot be higher than 64, got: 65")
+  }
+
+  "Parsing tests" >> {
+    Workers.parseString("8") ==== Workers.of(8)
+    Workers.parseString("cpu") must throwA[ParamParseException]("Could not parse workers: cpu")
+    Workers.parseString("100") must throwA[ParamParseException]("Number of workers cannot be higher than 64, got: 100")
+  }
+
+  ".toString, .hashCode & .equals" >> {
+    val w3 = Workers.of(3)
+    w3.toString ==== "3"
+    w3.## ==== 3
+    w3.equals(w3) ==== true
+    (w3: AnyRef).equals("3") ==== false
+    w3 ==== Workers.of(3)
+    w3 !=== Workers.of(4)
+  }
+}
@@ -0,0 +1,79 @@
+package com.oradian.infra.monohash
+package util
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.util.concurrent.{Executor, Executors, RejectedExecutionException}
+
+class BlockDeflateSpec extends Specification {
+  sequential
+
+  private[this] def flatten(buffers: Array[ByteBuffer]): Array[Byte] = {
+    val result = ByteBuffer.allocate(buffers.map(_.remaining).sum)
+    buffers.foreach(buffer => result.put(buffer.duplicate()))
+    result.array
+  }
+
+  private[this] def roundTripTest(data: Array[Byte], threads: Int): MatchResult[_] = {
+    val compressed = flatten(BlockDeflate.compress(data, threads))
+    BlockDeflate.isCompressed(compressed) ==== true
+    BlockDeflate.decompress(compressed, threads).toSeq ==== data.toSeq
+  }
+
+  "Empty input" >> {
+    roundTripTest(Array.emptyByteArray, 1)
+    roundTripTest(Array.emptyByteArray, 4)
+  }
+
+  "Single and multiple blocks" >> {
+    val text = (1 to 100000).map(i => s"${i * 31} file-$i.txt\n").mkString.getBytes(UTF_8)
+    text.length must be > BlockDeflate.BLOCK_SIZE
+    roundTripTest(text.take(1000), 4)
+    roundTripTest(text.take(BlockDeflate.BLOCK_SIZE), 4)
+    roundTripTest(text, 1)
+    roundTripTest(text, 3)
+    roundTripTest(Random.nextBytes(BlockDeflate.BLOCK_SIZE * 2 + 7), 8)
+  }
+
+  "Blocks are processed on the executor instead of new threads" >> {
+    val executor = Executors.newFixedThreadPool(3)
+    try {
+      val data = Random.nextBytes(BlockDeflate.BLOCK_SIZE * 5 + 7)
+      val compressed = flatten(BlockDeflate.compress(data, 4, executor))
+      BlockDeflate.decompress(compressed, 4, executor).toSeq ==== data.toSeq
+      Thread.getAllStackTraces.keySet.asScala.map(_.getName).filter(_.startsWith("BlockDeflate")) ==== Set.empty
+    } finally {
+      executor.shutdown()
+    }
+  }
+
+  "Blocks are processed by the caller when the executor rejects them" >> {
+    val data = Random.nextBytes(BlockDeflate.BLOCK_SIZE * 3)
+    val rejecting: Executor = _ => throw new RejectedExecutionException("busy")
+    val compressed = flatten(BlockDeflate.compress(data, 4, rejecting))
+    BlockDeflate.decompress(compressed, 4, rejecting).toSeq ==== data.toSeq
+  }
+
+  "Plain exports are not mistaken for compressed ones" >> {
+    BlockDeflate.isCompressed(Array.emptyByteArray) ==== false
+    BlockDeflate.isCompressed("0123456789abcdef file.txt\n".getBytes(UTF_8)) ==== false
+    BlockDeflate.decompress("plain".getBytes(UTF_8), 1) must
+      throwAn[IOException]("Not a compressed export, magic header is missing")
+  }
+
+  "Corrupted input is rejected" >> {
+    val compressed = flatten(BlockDeflate.compress(Random.nextBytes(10000), 1))
+    BlockDeflate.decompress(compressed.take(7), 1) must
+      throwAn[IOException]("Corrupted compressed export, header was truncated")
+    BlockDeflate.decompress(compressed.dropRight(1), 1) must
+      throwAn[IOException]("Corrupted compressed export, invalid lengths for block #1")
+    BlockDeflate.decompress(compressed :+ 0.toByte, 1) must
+      throwAn[IOException]("""Corrupted compressed export, expected \d+ bytes but got: \d+""")
+
+    // magic (5) + block count (4) + block lengths (8), followed by a deflate header with a reserved block type
+    val garbled = compressed.clone()
+    garbled(17) = 0xff.toByte
+    BlockDeflate.decompress(garbled, 1) must
+      throwAn[IOException]("Corrupted compressed export, could not inflate block #1")
+  }
+}
@@ -0,0 +1,53 @@
+package com.oradian.infra.monohash
+package util
+
+import java.nio.file.Files
+
+class DirectIoSpec extends Specification {
+  sequential
+
+  private[this] val jdk10plus = !System.getProperty("java.specification.version").startsWith("1.") &&
+    System.getProperty("java.specification.version").toInt >= 10
+
+  "Direct I/O is detected from the running JDK" >> {
+    DirectIo.isSupported ==== jdk10plus
+  }
+
+  "Buffers have the requested capacity" >> {
+    Seq(DirectIo.ALIGNMENT, 64 * DirectIo.ALIGNMENT).map { size =>
+      val buffer = DirectIo.allocate(size)
+      buffer.isDirect ==== true
+      buffer.capacity ==== size
+      buffer.position ==== 0
+      buffer.limit ==== size
+    }
+  }
+
+  "Files are opened directly, or not at all" >> {
+    inWorkspace { ws =>
+      val file = new File(ws + "blob.bin")
+      val bytes = Random.nextBytes(DirectIo.ALIGNMENT * 3 + 17)
+      Files.write(file.toPath, bytes)
+
+      DirectIo.open(new File(ws + "missing.bin").toPath) must beNull
+
+      val fc = DirectIo.open(file.toPath)
+      if (!DirectIo.isSupported) {
+        fc must beNull
+      } else if (fc == null) {
+        ok("File system of the workspace does not support direct I/O")
+      } else {
+        try {
+          val buffer = DirectIo.allocate(DirectIo.ALIGNMENT * 4)
+          fc.read(buffer, 0L) ==== bytes.length
+          buffer.flip()
+          val actual = new Array[Byte](buffer.remaining)
+          buffer.get(actual)
+          actual.toSeq ==== bytes.toSeq
+        } finally {
+          fc.close()
+        }
+      }
+    }
+  }
+}
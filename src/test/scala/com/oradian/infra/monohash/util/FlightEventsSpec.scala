@@ -0,0 +1,25 @@
+package com.oradian.infra.monohash
+package util
+
+class FlightEventsSpec extends Specification {
+  sequential
+
+  // Tests run against the class directories, which only hold the Java 8 version of FlightEvents
+  "Nothing is recorded from the Java 8 version" >> {
+    val file = new File("missing")
+    FlightEvents.beginFileHashed() must beNull
+    FlightEvents.beginDirectoryListed() must beNull
+    FlightEvents.beginWorkerIdle() must beNull
+    FlightEvents.beginExportRead() must beNull
+    FlightEvents.beginExportWritten() must beNull
+    FlightEvents.beginDiffComputed() must beNull
+
+    FlightEvents.commitFileHashed(null, "path", file, "worker-0")
+    FlightEvents.commitDirectoryListed(null, "path", 0, "worker-0")
+    FlightEvents.commitWorkerIdle(null, "worker-0")
+    FlightEvents.commitExportRead(null, file, 0L, false)
+    FlightEvents.commitExportWritten(null, file, true)
+    FlightEvents.commitDiffComputed(null, 1, 2, 3, 4)
+    file.exists() ==== false
+  }
+}
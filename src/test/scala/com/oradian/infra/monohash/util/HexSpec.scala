@@ -51,4 +51,17 @@ class HexSpec extends Specification {
     val letters = "aA".getBytes(ISO_8859_1)
     Hex.fromHex(letters) must throwA[NumberFormatException]("""Cannot parse hex digit at index 1 - expected a lowercase hexadecimal digit \[0-9, a-f\] but got: 'A'""")
   }
+
+  "Offsets are respected" >> {
+    val bytes = Random.nextBytes(64)
+    val hex = new Array[Byte](130)
+    Hex.toHex(bytes, 7, 41, hex, 3)
+    new String(hex, 3, 82, ISO_8859_1) ==== turtleHex(bytes.slice(7, 48))
+    hex.take(3).toSeq ==== Seq[Byte](0, 0, 0)
+    hex.drop(85).forall(_ == 0) ==== true
+
+    val binary = new Array[Byte](48)
+    Hex.fromHex(hex, 3, 82, binary, 7)
+    binary.slice(7, 48).toSeq ==== bytes.slice(7, 48).toSeq
+  }
 }